@@ -0,0 +1,113 @@
+package com.cscie97.ledger;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The BlockSpliterator walks a range of committed Blocks by block number. Blocks are looked up in the block map one
+ * at a time as the stream advances, so a range can be streamed without first being copied into a collection. The
+ * range is split in half by block number, which lets parallel streams hand separate block ranges to separate cores.
+ */
+public class BlockSpliterator implements Spliterator<Block>
+{
+    /**
+     * Map of block numbers and the associated committed Blocks, owned by the Ledger
+     */
+    private final Map<Integer, Block> blockMap;
+
+    /**
+     * Block number of the next Block to hand out (inclusive)
+     */
+    private int from;
+
+    /**
+     * Block number at which this spliterator stops (exclusive)
+     */
+    private final int to;
+
+    /**
+     * Constructor for a spliterator over the committed Blocks numbered from (inclusive) up to to (exclusive)
+     * @param blockMap  Map     Block numbers and the associated committed Blocks
+     * @param from  int     Block number of the first Block in the range
+     * @param to    int     Block number just past the last Block in the range
+     */
+    public BlockSpliterator(Map<Integer, Block> blockMap, int from, int to)
+    {
+        this.blockMap = blockMap;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Hand the next Block in the range to the action, if there is one
+     * @param action    Consumer    Action to perform on the next Block
+     * @return boolean  True if a Block was handed to the action
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Block> action)
+    {
+        if (this.from >= this.to)
+        {
+            return false;
+        }
+
+        action.accept(this.blockMap.get(this.from++));
+        return true;
+    }
+
+    /**
+     * Hand every remaining Block in the range to the action
+     * @param action    Consumer    Action to perform on each remaining Block
+     */
+    @Override
+    public void forEachRemaining(Consumer<? super Block> action)
+    {
+        int last = this.to;
+
+        for (int blockNumber = this.from; blockNumber < last; blockNumber++)
+        {
+            action.accept(this.blockMap.get(blockNumber));
+        }
+
+        this.from = last;
+    }
+
+    /**
+     * Split off the lower half of the remaining block range
+     * @return Spliterator  Spliterator over the lower half of the range, or null if the range is too small to split
+     */
+    @Override
+    public Spliterator<Block> trySplit()
+    {
+        int middle = (this.from + this.to) >>> 1;
+
+        if (middle <= this.from)
+        {
+            return null;
+        }
+
+        Spliterator<Block> lowerHalf = new BlockSpliterator(this.blockMap, this.from, middle);
+        this.from = middle;
+        return lowerHalf;
+    }
+
+    /**
+     * @return long Exact number of Blocks remaining in the range
+     */
+    @Override
+    public long estimateSize()
+    {
+        return this.to - this.from;
+    }
+
+    /**
+     * Blocks are handed out in block number order. Committed Blocks are never removed, so the range is exact.
+     * @return int  Characteristics of this spliterator
+     */
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE | DISTINCT;
+    }
+}
@@ -1,12 +1,15 @@
 package com.cscie97.ledger;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The CommandProcessor is a utility class for feeding the Ledger a set of operations, using command syntax.
@@ -18,47 +21,216 @@ public final class CommandProcessor
      */
     private Ledger ledger;
 
+    /**
+     * How much output to print while processing commands. Defaults to printing the result of every command.
+     */
+    private OutputModeEnum outputMode = OutputModeEnum.VERBOSE;
+
+    /**
+     * Size in bytes of the buffer used to read command files
+     */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of commands processed from the current script
+     */
+    private int commandCount;
+
+    /**
+     * Number of transactions processed from the current script
+     */
+    private int transactionCount;
+
+    /**
+     * Number of commands from the current script that failed
+     */
+    private int errorCount;
+
+    /**
+     * Setter for how much output to print while processing commands
+     * @param outputMode OutputModeEnum   Verbose, quiet or summary output
+     */
+    public void setOutputMode(OutputModeEnum outputMode)
+    {
+        this.outputMode = outputMode;
+    }
+
+    /**
+     * Getter for how much output is printed while processing commands
+     * @return OutputModeEnum   Verbose, quiet or summary output
+     */
+    public OutputModeEnum getOutputMode()
+    {
+        return this.outputMode;
+    }
+
+    /**
+     * Print the success message of a command, only when running in verbose mode
+     * @param output String Formatted success message of the command
+     */
+    private void output(String output)
+    {
+        if (this.outputMode == OutputModeEnum.VERBOSE)
+        {
+            System.out.println(output);
+        }
+    }
+
+    /**
+     * Print the result of a query command. Query results are printed in every output mode.
+     * @param result String Formatted result of the query
+     */
+    private void result(String result)
+    {
+        System.out.println(result);
+    }
+
     /**
      * Process a set of commands provided within the given commandFile. Throw a CommandProcessorException on error.
+     * The file is read through a buffered FileChannel.
      * @param fileName String   Path of the file with the commands
      * @throws CommandProcessorException When no file found
+     * @throws CommandProcessorException When the file cannot be read
      */
 
     public void processCommandFile(String fileName) throws CommandProcessorException
     {
-        // Inspiration from https://www.javatpoint.com/post/java-scanner-hasnextline-method
-        File file = new File(fileName);
-        Scanner script;
-
         int lineNumber = 0;
+        long startTime = System.nanoTime();
 
-        try
+        this.commandCount = 0;
+        this.transactionCount = 0;
+        this.errorCount = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+             BufferedReader script = new BufferedReader(
+                     Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), READ_BUFFER_SIZE),
+                     READ_BUFFER_SIZE))
         {
-            script = new Scanner(file);
+            String line;
+
+            while ((line = script.readLine()) != null)
+            {
+                lineNumber++;
+
+                // Skip empty lines and lines that are comments
+                if (line.length() == 0 || line.startsWith("#"))
+                {
+                    continue;
+                }
+
+                List<String> args = tokenize(line);
+
+                if (args.isEmpty())
+                {
+                    continue;
+                }
+
+                try
+                {
+                    this.commandCount++;
+                    this.executeCommand(args);
+                }
+                catch (CommandProcessorException e)
+                {
+                    this.printScriptError(lineNumber, e);
+                }
+            }
         }
-        catch (FileNotFoundException e)
+        catch (NoSuchFileException e)
         {
             throw new CommandProcessorException("processCommandFile", "File not found", null);
         }
+        catch (IOException e)
+        {
+            throw new CommandProcessorException("processCommandFile", "File could not be read",
+                    String.valueOf(lineNumber));
+        }
+
+        if (this.outputMode == OutputModeEnum.SUMMARY)
+        {
+            System.out.println(String.format("SCRIPT SUMMARY \n" +
+                            "Lines: %s \n" +
+                            "Commands: %s \n" +
+                            "Transactions: %s \n" +
+                            "Errors: %s \n" +
+                            "Elapsed ms: %s\n",
+                    lineNumber,
+                    this.commandCount,
+                    this.transactionCount,
+                    this.errorCount,
+                    (System.nanoTime() - startTime) / 1_000_000));
+        }
+    }
+
+    /**
+     * Print a script error. Errors are printed in every output mode.
+     * @param lineNumber int    Line number of the failed command in the script
+     * @param e CommandProcessorException   The exception raised by the failed command
+     */
+    private void printScriptError(int lineNumber, CommandProcessorException e)
+    {
+        this.errorCount++;
+        System.out.println(String.format("SCRIPT ERROR at line number: (%s)\n" +
+                        "COMMAND: %s \n" +
+                        "REASON: %s\n",
+                lineNumber, e.getCommand(), e.getReason()));
+    }
+
+    /**
+     * Split a command line into its arguments. Arguments are separated by whitespace, and an argument wrapped in
+     * double or single quotes may contain whitespace. Double quotes are removed from the argument, single quotes are
+     * kept. A quote with no closing quote is skipped.
+     * @param line String   One command containing arguments separated by spaces
+     * @return List of the arguments in the command line
+     */
+    static List<String> tokenize(String line)
+    {
+        List<String> args = new ArrayList<>();
+        int length = line.length();
+        int i = 0;
+
+        while (i < length)
+        {
+            char c = line.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                i++;
+            }
+            else if (c == '"' || c == '\'')
+            {
+                int close = line.indexOf(c, i + 1);
+
+                if (close < 0)
+                {
+                    i++;
+                }
+                else
+                {
+                    args.add(c == '"' ? line.substring(i + 1, close) : line.substring(i, close + 1));
+                    i = close + 1;
+                }
+            }
+            else
+            {
+                int start = i;
+
+                while (i < length)
+                {
+                    c = line.charAt(i);
 
-        while (script.hasNextLine()) {
-            String line = script.nextLine();
-            lineNumber++;
-
-            // Skip empty lines and lines that are comments
-            if (line.length() != 0 && !(line.startsWith("#"))) {
-                try {
-                    processCommand(line);
-                } catch (CommandProcessorException e) {
-                    System.out.println(String.format("SCRIPT ERROR at line number: (%s)\n" +
-                                    "COMMAND: %s \n" +
-                                    "REASON: %s\n",
-                            lineNumber, e.getCommand(), e.getReason()));
+                    if (Character.isWhitespace(c) || c == '"' || c == '\'')
+                    {
+                        break;
+                    }
+                    i++;
                 }
+                args.add(line.substring(start, i));
             }
         }
 
-        script.close();
+        return args;
     }
 
 
@@ -69,7 +241,7 @@ public final class CommandProcessor
     private void createLedger(List<String> args)
     {
         this.ledger = new Ledger(args.get(1), args.get(3), args.get(5));
-        System.out.println(String.format("CREATED NEW LEDGER \n" +
+        this.output(String.format("CREATED NEW LEDGER \n" +
                         "Name: %s \n" +
                         "Description: %s \n" +
                         "Seed: %s\n",
@@ -87,7 +259,7 @@ public final class CommandProcessor
     {
         try
         {
-            System.out.println(String.format("CREATED NEW ACCOUNT \n" +
+            this.output(String.format("CREATED NEW ACCOUNT \n" +
                             "AccountId: %s\n",
                     this.ledger.createAccount(args.get(1))));
         }
@@ -114,7 +286,8 @@ public final class CommandProcessor
                     args.get(7),
                     args.get(9),
                     args.get(11));
-            System.out.println(String.format("TRANSACTION: %s \n" +
+            this.transactionCount++;
+            this.output(String.format("TRANSACTION: %s \n" +
                             "TRANSACTION PROCESSED Transaction ID: %s \n",
                     args,
                     transactionId));
@@ -143,7 +316,7 @@ public final class CommandProcessor
             throw e;
         }
 
-        System.out.println(String.format("GET ACCOUNT BALANCE \n" +
+        this.result(String.format("GET ACCOUNT BALANCE \n" +
                 "%s: %s\n",
                 args.get(1),
                 accountBalance));
@@ -157,7 +330,7 @@ public final class CommandProcessor
     private void getAccountBalances(List<String> arg) throws LedgerException
     {
         try {
-            System.out.println(String.format("GET ACCOUNT BALANCES \n" +
+            this.result(String.format("GET ACCOUNT BALANCES \n" +
                             "%s\n",
                     ledger.getAccountBalances()));
         }
@@ -185,7 +358,7 @@ public final class CommandProcessor
             throw e;
         }
 
-        System.out.println(String.format("GET BLOCK \n" +
+        this.result(String.format("GET BLOCK \n" +
                 "Block Number: %s" +
                 "Account Balance Map: %s" +
                 "Transactions: %s\n",
@@ -202,7 +375,7 @@ public final class CommandProcessor
     private void getTransaction(List<String> args) throws LedgerException
     {
         try {
-            System.out.println(String.format("GET TRANSACTION\n" +
+            this.result(String.format("GET TRANSACTION\n" +
                             "%s\n",
                     this.ledger.getTransaction(args.get(1)).toString()));
         }
@@ -222,18 +395,17 @@ public final class CommandProcessor
      */
     public void processCommand (String line) throws CommandProcessorException
     {
-        List<String> args = new ArrayList<>();
-
-        // Inspiration from https://howtodoinjava.com/java-regular-expression-tutorials/
-        Pattern regex = Pattern.compile("[^\\s\"']+|\"[^\"]*\"|'[^']*'");
-
-        Matcher matcher = regex.matcher(line);
-
-        while (matcher.find())
-        {
-            args.add(matcher.group().replace("\"", ""));
-        }
+        this.executeCommand(tokenize(line));
+    }
 
+    /**
+     * Execute a single command that has already been split into its arguments.
+     * @param args  List of strings for each argument passed with the command
+     * @throws CommandProcessorException if the command (arg[0]) is not recognized in the switch statement
+     * @throws CommandProcessorException if a command files to be successfully executed by the ledger service
+     */
+    private void executeCommand(List<String> args) throws CommandProcessorException
+    {
         String command = args.get(0);
 
         try
@@ -261,9 +433,14 @@ public final class CommandProcessor
                 case "get-transaction":
                     this.getTransaction(args);
                     break;
+                case "get-metrics":
+                    this.result(String.format("GET METRICS \n" +
+                                    "%s\n",
+                            this.ledger.getMetricsRegistry().snapshotJson()));
+                    break;
                 case "validate":
                     this.ledger.validate();
-                    System.out.println("BLOCKCHAIN VALID\n");
+                    this.output("BLOCKCHAIN VALID\n");
                     break;
                 default:
                     throw new CommandProcessorException(command, "Unknown command", null);
@@ -0,0 +1,174 @@
+package com.cscie97.ledger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram records durations in nanoseconds into log-linear buckets, in the style of an HDR histogram.
+ * Each power of two is split into 32 sub-buckets, so any recorded value is reported within about 3% of its true
+ * value while the whole histogram stays a fixed size. Values can be recorded from many threads at once.
+ */
+public class LatencyHistogram
+{
+    /**
+     * Number of sub-buckets each power of two is split into
+     */
+    private static final int SUB_BUCKET_COUNT = 32;
+
+    /**
+     * Values below this are recorded exactly, one bucket per value
+     */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+    /**
+     * Total number of buckets needed to cover every non-negative long value
+     */
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (Long.SIZE - 7) * SUB_BUCKET_COUNT;
+
+    /**
+     * Count of recorded values in each bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Total number of recorded values
+     */
+    private final AtomicLong totalCount = new AtomicLong();
+
+    /**
+     * Sum of all recorded values, used for the mean
+     */
+    private final AtomicLong totalValue = new AtomicLong();
+
+    /**
+     * Largest recorded value
+     */
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record one value. Negative values are recorded as 0.
+     * @param value long    Duration in nanoseconds
+     */
+    public void recordValue(long value)
+    {
+        long recorded = Math.max(value, 0);
+
+        this.counts.incrementAndGet(bucketIndex(recorded));
+        this.totalCount.incrementAndGet();
+        this.totalValue.addAndGet(recorded);
+        this.maxValue.accumulateAndGet(recorded, Math::max);
+    }
+
+    /**
+     * Add every value recorded in another histogram to this one
+     * @param other LatencyHistogram    Histogram whose values are added
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long count = other.counts.get(i);
+
+            if (count != 0)
+            {
+                this.counts.addAndGet(i, count);
+            }
+        }
+
+        this.totalCount.addAndGet(other.totalCount.get());
+        this.totalValue.addAndGet(other.totalValue.get());
+        this.maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+    }
+
+    /**
+     * @return long Number of values recorded
+     */
+    public long getCount()
+    {
+        return this.totalCount.get();
+    }
+
+    /**
+     * @return long Largest value recorded, or 0 when nothing has been recorded
+     */
+    public long getMax()
+    {
+        return this.maxValue.get();
+    }
+
+    /**
+     * @return double   Mean of the values recorded, or 0 when nothing has been recorded
+     */
+    public double getMean()
+    {
+        long count = this.totalCount.get();
+
+        return count == 0 ? 0 : (double) this.totalValue.get() / count;
+    }
+
+    /**
+     * Return the value at or below which the given percentage of recorded values fall
+     * @param percentile    double  Percentile between 0 and 100
+     * @return long Upper bound of the bucket holding that percentile, or 0 when nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long count = this.totalCount.get();
+
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += this.counts.get(i);
+
+            if (seen >= target)
+            {
+                return Math.min(bucketUpperBound(i), this.maxValue.get());
+            }
+        }
+
+        return this.maxValue.get();
+    }
+
+    /**
+     * Work out which bucket a value falls in
+     * @param value long    Non-negative value
+     * @return int  Index of the bucket
+     */
+    private static int bucketIndex(long value)
+    {
+        if (value < LINEAR_LIMIT)
+        {
+            return (int) value;
+        }
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - 5;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Work out the largest value that falls in a bucket
+     * @param index int Index of the bucket
+     * @return long Largest value recorded into that bucket
+     */
+    private static long bucketUpperBound(int index)
+    {
+        if (index < LINEAR_LIMIT)
+        {
+            return index;
+        }
+
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
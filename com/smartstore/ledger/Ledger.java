@@ -1,5 +1,7 @@
 package com.cscie97.ledger;
 import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The Ledger manages the Blocks of the blockchain. It also provides the API used by clients of
@@ -43,6 +45,41 @@ public class Ledger
      */
     private Map<String, Account> accountMap;
 
+    /**
+     * Registry the ledger reports transaction counts, latencies and chain size gauges to
+     */
+    private iMetricsRegistry metricsRegistry;
+
+    /**
+     * Rough estimate of the heap held by committed blocks, updated every time a block is sealed
+     */
+    private long approximateHeapBytes;
+
+    /**
+     * Approximate heap bytes for one entry in a block's account balance map
+     */
+    private static final int BYTES_PER_ACCOUNT_BALANCE = 64;
+
+    /**
+     * Approximate heap bytes for one transaction in a block's transaction list
+     */
+    private static final int BYTES_PER_TRANSACTION = 256;
+
+    /**
+     * Number of transactions collected in a block before it is sealed and committed
+     */
+    private int blockSize;
+
+    /**
+     * Default number of transactions per block. See the note in processTransaction on why this is 1.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1;
+
+    /**
+     * Time in nanoseconds taken to seal the most recently committed block
+     */
+    private long lastSealNanos;
+
 
     /**
      * Constructor for Ledger that initializes name, description and seed based on parameters passed in.
@@ -54,6 +91,19 @@ public class Ledger
      */
     public Ledger (String name, String description, String seed)
     {
+        this(name, description, seed, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor for Ledger that also sets how many transactions are collected in a block before it is sealed.
+     * @param name  Name of the ledger
+     * @param description   Description of the ledger
+     * @param seed  Seed for the ledger
+     * @param blockSize Number of transactions per block, between 1 and 10
+     */
+    public Ledger (String name, String description, String seed, int blockSize)
+    {
+        this.blockSize = Math.min(Math.max(blockSize, 1), 10);
         this.name = name;
         this.description = description;
         this.seed = seed;
@@ -69,6 +119,31 @@ public class Ledger
         this.accountMap.put(masterAccount.getAddress(), masterAccount);
 
         this.currentBlock = this.genesisBlock;
+
+        this.setMetricsRegistry(new MetricsRegistry());
+    }
+
+    /**
+     * Getter for the registry the ledger reports its metrics to
+     * @return iMetricsRegistry The metrics registry
+     */
+    public iMetricsRegistry getMetricsRegistry()
+    {
+        return this.metricsRegistry;
+    }
+
+    /**
+     * Replace the registry the ledger reports its metrics to, and register the ledger gauges with it: chain height,
+     * open block size, account count and approximate heap held by committed blocks.
+     * @param metricsRegistry iMetricsRegistry   The metrics registry to report to
+     */
+    public void setMetricsRegistry(iMetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+        this.metricsRegistry.registerGauge("chain.height", () -> this.blockMap.size());
+        this.metricsRegistry.registerGauge("block.open.size", () -> this.currentBlock.getTransactionList().size());
+        this.metricsRegistry.registerGauge("accounts.count", () -> this.accountMap.size());
+        this.metricsRegistry.registerGauge("heap.approximate.bytes", () -> this.approximateHeapBytes);
     }
 
     /**
@@ -98,6 +173,24 @@ public class Ledger
         return this.seed;
     }
 
+    /**
+     * Getter for the number of blocks committed to the blockchain
+     * @return int  Number of committed blocks, not counting the block currently being filled
+     */
+    public int getChainHeight()
+    {
+        return this.blockMap.size();
+    }
+
+    /**
+     * Getter for the time taken to seal the most recently committed block
+     * @return long Nanoseconds spent copying account balances, hashing and committing the last block
+     */
+    public long getLastSealNanos()
+    {
+        return this.lastSealNanos;
+    }
+
     /**
      * Create a new account, assign a unique identifier, and set the balance to 0. Return the account identifier.
      * @param accountId String based unique identifier for a new Account. No other account must already have this ID.
@@ -161,17 +254,22 @@ public class Ledger
         receiver.setBalance(receiver.getBalance() + transaction.getAmount());
         master.setBalance(master.getBalance() + transaction.getFee());
 
-        // When we hit 10 transactions, submit the block
-        // NOTE: CHANGED THIS NUMBER TO 1 TO SIMULATE AND VALIDATE CORRECTNESS OF StoreControllerService functionality
+        // When we hit blockSize transactions, submit the block
+        // NOTE: DEFAULT_BLOCK_SIZE IS 1 TO SIMULATE AND VALIDATE CORRECTNESS OF StoreControllerService functionality
         // In a real life blockchain which will have lots of transactions happening, the size of 10 transactions would
         // happen rapidly, but in this implementation waiting for 10 transactions affects ACID rules for transactions
         // and customer account balances show up with the wrong information.
-        if (this.currentBlock.getTransactionList().size() == 1)
+        if (this.currentBlock.getTransactionList().size() == this.blockSize)
         {
+            long sealStart = System.nanoTime();
             this.accountMap.forEach((k, v) -> this.currentBlock.addAccountBalance(v));
             this.currentBlock.getBlockHash(this.seed);
             this.blockMap.put(this.currentBlock.getBlockNumber(), currentBlock);
             this.currentBlock = new Block(this.currentBlock);
+            this.lastSealNanos = System.nanoTime() - sealStart;
+            this.approximateHeapBytes += (long) this.accountMap.size() * BYTES_PER_ACCOUNT_BALANCE +
+                    (long) this.blockSize * BYTES_PER_TRANSACTION;
+            this.metricsRegistry.recordLatency("block.seal", this.lastSealNanos);
         }
 
         return transaction.getTransactionId();
@@ -235,6 +333,42 @@ public class Ledger
         return this.blockMap.get(blockNumber);
     }
 
+    /**
+     * Return a lazy Stream over the committed Blocks numbered from (inclusive) up to to (exclusive). Blocks are read
+     * from the block map as the stream advances, and parallel streams split the work by block range.
+     * @param from  int     Block number of the first Block to stream
+     * @param to    int     Block number just past the last Block to stream
+     * @return Stream   Stream of the Blocks in the requested range, in block number order
+     * @throws LedgerException  When the range is reversed or reaches past the last committed block
+     */
+    public Stream<Block> blocks(int from, int to) throws LedgerException
+    {
+        if (from < 1 || from > to)
+        {
+            throw new LedgerException("blocks", "Block range is not valid");
+        }
+
+        if (to > this.currentBlock.getBlockNumber())
+        {
+            throw new LedgerException("blocks", "Block requested does not exist");
+        }
+
+        return StreamSupport.stream(new BlockSpliterator(this.blockMap, from, to), false);
+    }
+
+    /**
+     * Return a lazy Stream over the Transactions in the committed Blocks numbered from (inclusive) up to to
+     * (exclusive), in the order they were added to the blockchain.
+     * @param from  int     Block number of the first Block whose Transactions are streamed
+     * @param to    int     Block number just past the last Block whose Transactions are streamed
+     * @return Stream   Stream of the Transactions in the requested block range
+     * @throws LedgerException  When the range is reversed or reaches past the last committed block
+     */
+    public Stream<Transaction> transactions(int from, int to) throws LedgerException
+    {
+        return this.blocks(from, to).flatMap(block -> block.getTransactionList().values().stream());
+    }
+
     /**
      * Return the Transaction for the given transaction id.
      * @param transactionId String  Transaction Id for the transaction requested
@@ -326,22 +460,68 @@ public class Ledger
     public String createTransaction (String transactionId, int amount, int fee, String note,
                                      String payer, String receiver) throws LedgerException
     {
-        Account payerAccount = this.accountMap.get(payer);
-        Account receiverAccount = this.accountMap.get(receiver);
+        long submitTime = System.nanoTime();
 
-        if (payerAccount == null)
+        try
         {
-            throw new LedgerException("Create Transaction", "Payer account does not exist");
+            Account payerAccount = this.accountMap.get(payer);
+            Account receiverAccount = this.accountMap.get(receiver);
+
+            if (payerAccount == null)
+            {
+                throw new LedgerException("Create Transaction", "Payer account does not exist");
+            }
+            if (receiverAccount == null)
+            {
+                throw new LedgerException("Create Transaction", "Receiver account does not exist");
+            }
+
+            Transaction transaction = new Transaction(transactionId, amount, fee, note, payerAccount, receiverAccount);
+
+            String acceptedTransactionId = this.processTransaction(transaction);
+
+            this.metricsRegistry.incrementCounter("transactions.accepted");
+            this.metricsRegistry.recordLatency("transaction.submit.to.accept", System.nanoTime() - submitTime);
+
+            return acceptedTransactionId;
         }
-        if (receiverAccount == null)
+        catch (LedgerException e)
         {
-            throw new LedgerException("Create Transaction", "Receiver account does not exist");
+            this.metricsRegistry.incrementCounter("transactions.rejected");
+            this.metricsRegistry.incrementCounter("transactions.rejected." + metricName(e.getReason()));
+            throw e;
         }
+    }
+
+    /**
+     * Turn a LedgerException reason into a metric name, e.g. "Transaction fee less than minimum." becomes
+     * "transaction_fee_less_than_minimum"
+     * @param reason String Reason from a LedgerException
+     * @return String   Lower case reason with words joined by underscores
+     */
+    private static String metricName(String reason)
+    {
+        StringBuilder name = new StringBuilder(reason.length());
 
-        Transaction transaction = new Transaction(transactionId, amount, fee, note, payerAccount, receiverAccount);
+        for (int i = 0; i < reason.length(); i++)
+        {
+            char c = reason.charAt(i);
 
-        System.out.println("Transaction Object Created " + transaction);
+            if (Character.isLetterOrDigit(c))
+            {
+                name.append(Character.toLowerCase(c));
+            }
+            else if (name.length() > 0 && name.charAt(name.length() - 1) != '_')
+            {
+                name.append('_');
+            }
+        }
+
+        if (name.length() > 0 && name.charAt(name.length() - 1) == '_')
+        {
+            name.setLength(name.length() - 1);
+        }
 
-        return this.processTransaction(transaction);
+        return name.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.cscie97.ledger;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Default in-memory implementation of iMetricsRegistry. Counters are LongAdders, latencies go into LatencyHistograms,
+ * and gauges are read when a snapshot is taken. Snapshots list metrics sorted by name so they are easy to diff.
+ */
+public class MetricsRegistry implements iMetricsRegistry
+{
+    /**
+     * Map of counter names and counters
+     */
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Map of histogram names and latency histograms
+     */
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Map of gauge names and the functions that read them
+     */
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Add one to the named counter, creating it if needed
+     * @param name  String  Name of the counter
+     */
+    @Override
+    public void incrementCounter(String name)
+    {
+        this.counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record one duration in the named latency histogram, creating it if needed
+     * @param name  String  Name of the histogram
+     * @param nanos long    Duration in nanoseconds
+     */
+    @Override
+    public void recordLatency(String name, long nanos)
+    {
+        this.histograms.computeIfAbsent(name, k -> new LatencyHistogram()).recordValue(nanos);
+    }
+
+    /**
+     * Register a gauge, replacing any gauge already registered with the same name
+     * @param name  String  Name of the gauge
+     * @param gauge LongSupplier    Function that returns the current value of the gauge
+     */
+    @Override
+    public void registerGauge(String name, LongSupplier gauge)
+    {
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * Getter for the current value of a counter
+     * @param name  String  Name of the counter
+     * @return long Value of the counter, 0 if it has never been incremented
+     */
+    public long getCounter(String name)
+    {
+        LongAdder counter = this.counters.get(name);
+
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Getter for a latency histogram
+     * @param name  String  Name of the histogram
+     * @return LatencyHistogram The histogram, or null if nothing has been recorded under that name
+     */
+    public LatencyHistogram getHistogram(String name)
+    {
+        return this.histograms.get(name);
+    }
+
+    /**
+     * Getter for the current value of a gauge
+     * @param name  String  Name of the gauge
+     * @return long Current value of the gauge, 0 if no such gauge is registered
+     */
+    public long getGauge(String name)
+    {
+        LongSupplier gauge = this.gauges.get(name);
+
+        return gauge == null ? 0 : gauge.getAsLong();
+    }
+
+    /**
+     * Take a snapshot of every counter, gauge and histogram. Histograms are summarized as count, mean, percentiles
+     * and max in nanoseconds.
+     * @return String   The snapshot as a JSON object
+     */
+    @Override
+    public String snapshotJson()
+    {
+        StringBuilder json = new StringBuilder("{\"counters\":{");
+        String separator = "";
+
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(this.counters).entrySet())
+        {
+            json.append(separator).append(quote(counter.getKey())).append(':').append(counter.getValue().sum());
+            separator = ",";
+        }
+
+        json.append("},\"gauges\":{");
+        separator = "";
+
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(this.gauges).entrySet())
+        {
+            json.append(separator).append(quote(gauge.getKey())).append(':').append(gauge.getValue().getAsLong());
+            separator = ",";
+        }
+
+        json.append("},\"histograms\":{");
+        separator = "";
+
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(this.histograms).entrySet())
+        {
+            LatencyHistogram histogram = entry.getValue();
+
+            json.append(separator).append(quote(entry.getKey())).append(':')
+                    .append(String.format(Locale.ROOT,
+                            "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d}",
+                            histogram.getCount(),
+                            histogram.getMean(),
+                            histogram.getValueAtPercentile(50),
+                            histogram.getValueAtPercentile(90),
+                            histogram.getValueAtPercentile(99),
+                            histogram.getValueAtPercentile(99.9),
+                            histogram.getMax()));
+            separator = ",";
+        }
+
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Quote a metric name as a JSON string
+     * @param name  String  Name of the metric
+     * @return String   The name wrapped in double quotes, with quotes and backslashes escaped
+     */
+    private static String quote(String name)
+    {
+        return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
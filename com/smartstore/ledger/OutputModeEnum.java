@@ -0,0 +1,22 @@
+package com.cscie97.ledger;
+
+/**
+ * Enum to choose how much output the CommandProcessor prints while running a script
+ */
+public enum OutputModeEnum {
+    /**
+     * Print the result of every command
+     */
+    VERBOSE,
+
+    /**
+     * Print only script errors and the results of query commands
+     */
+    QUIET,
+
+    /**
+     * Print only script errors and the results of query commands, followed by a summary once the script has been
+     * processed
+     */
+    SUMMARY
+}
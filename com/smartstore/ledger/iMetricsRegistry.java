@@ -0,0 +1,36 @@
+package com.cscie97.ledger;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Interface for the registry the Ledger reports its metrics to. The Ledger counts accepted and rejected transactions,
+ * records latencies and registers gauges that are read when a snapshot is taken. Implementations can forward these
+ * to any monitoring system. They must be safe to call from more than one thread.
+ */
+public interface iMetricsRegistry {
+    /**
+     * Add one to the named counter
+     * @param name  String  Name of the counter
+     */
+    void incrementCounter(String name);
+
+    /**
+     * Record one duration in the named latency histogram
+     * @param name  String  Name of the histogram
+     * @param nanos long    Duration in nanoseconds
+     */
+    void recordLatency(String name, long nanos);
+
+    /**
+     * Register a gauge that is read every time a snapshot is taken
+     * @param name  String  Name of the gauge
+     * @param gauge LongSupplier    Function that returns the current value of the gauge
+     */
+    void registerGauge(String name, LongSupplier gauge);
+
+    /**
+     * Take a snapshot of every counter, gauge and histogram
+     * @return String   The snapshot as a JSON object
+     */
+    String snapshotJson();
+}
@@ -0,0 +1,342 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Block;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.LedgerException;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.Util;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmark Driver. Microbenchmarks for the Ledger hot paths: Util.sha256, Block.getMerkleRoot, Block.getBlockHash,
+ * Ledger.createTransaction sealing every transaction and every 10 transactions, getTransaction, getAccountBalance and
+ * validate. Each benchmark that depends on ledger size runs once per combination of account count and chain length.
+ * Every benchmark is warmed up before it is measured, and the results of every call are consumed so the JIT cannot
+ * remove the work being measured. The createTransaction benchmarks grow the chain they run on, so the ledger is rebuilt
+ * at the requested chain length after every chain / 10 transactions, outside the measured time. An iteration of such a
+ * benchmark ends once its calls have taken the iteration length, or after a fixed number of rebuilds, so a slow
+ * rebuild never uses up the iteration. Every result line reports the number of calls measured.
+ *
+ * Parameters are given as name value pairs, all optional:
+ * accounts 10,1000 chain 100,1000 warmup 3 iterations 5 iteration-ms 1000 setups 5
+ */
+public class BenchmarkDriver
+{
+    /**
+     * Sink for benchmark results so the work that produced them is not optimized away
+     */
+    private static volatile int sink;
+
+    /**
+     * Number of warmup iterations run before each benchmark is measured
+     */
+    private static int warmupIterations = 3;
+
+    /**
+     * Number of measured iterations for each benchmark
+     */
+    private static int measuredIterations = 5;
+
+    /**
+     * Length of each warmup and measured iteration in nanoseconds
+     */
+    private static long iterationNanos = 1_000_000_000L;
+
+    /**
+     * Largest number of state rebuilds in each iteration of a benchmark whose state is rebuilt
+     */
+    private static int setupsPerIteration = 5;
+
+    /**
+     * Java main method
+     * @param args  String array    Name value pairs of parameters passed from the command line
+     */
+    public static void main(String[] args)
+    {
+        String accountCounts = "10,1000";
+        String chainLengths = "100,1000";
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "accounts":
+                    accountCounts = args[i + 1];
+                    break;
+                case "chain":
+                    chainLengths = args[i + 1];
+                    break;
+                case "warmup":
+                    warmupIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "iterations":
+                    measuredIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "iteration-ms":
+                    iterationNanos = Long.parseLong(args[i + 1]) * 1_000_000L;
+                    break;
+                case "setups":
+                    setupsPerIteration = Math.max(1, Integer.parseInt(args[i + 1]));
+                    break;
+                default:
+                    System.out.println("Unknown parameter " + args[i]);
+                    return;
+            }
+        }
+
+        System.out.println(String.format("%-40s %10s %10s %14s %12s %12s",
+                "BENCHMARK", "ACCOUNTS", "CHAIN", "NS/OP", "ERROR", "OPS"));
+
+        try
+        {
+            benchmarkHashing();
+
+            for (String accounts : accountCounts.split(","))
+            {
+                for (String chain : chainLengths.split(","))
+                {
+                    benchmarkLedger(Integer.parseInt(accounts.trim()), Integer.parseInt(chain.trim()));
+                }
+            }
+        }
+        catch (Throwable e)
+        {
+            System.out.println("ERROR: benchmark failed " + e);
+        }
+    }
+
+    /**
+     * Benchmarks that do not depend on ledger size: sha256 of a transaction sized string, and the Merkle root of a
+     * full block of 10 transactions
+     * @throws Throwable    When a benchmarked call fails
+     */
+    private static void benchmarkHashing() throws Throwable
+    {
+        Ledger ledger = buildLedger(10, 10, 10);
+        Block block = ledger.getBlock(ledger.getChainHeight());
+        String transactionString = block.getTransactionList().values().iterator().next().toString();
+
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        ledger.blocks(1, ledger.getChainHeight() + 1)
+                .flatMap(b -> b.getTransactionList().values().stream())
+                .limit(10)
+                .forEach(transactions::add);
+
+        run("Util.sha256", 0, 0, () -> Util.sha256(transactionString));
+        run("Block.getMerkleRoot (10 transactions)", 0, 0, () -> Block.getMerkleRoot(transactions));
+    }
+
+    /**
+     * Benchmarks that depend on the number of accounts and the length of the chain
+     * @param accountCount  int Number of accounts in the ledger
+     * @param chainLength   int Number of committed blocks in the ledger
+     * @throws Throwable    When a benchmarked call fails
+     */
+    private static void benchmarkLedger(int accountCount, int chainLength) throws Throwable
+    {
+        Ledger ledger = buildLedger(accountCount, chainLength, Ledger.DEFAULT_BLOCK_SIZE);
+        Block lastBlock = ledger.getBlock(ledger.getChainHeight());
+        String seed = ledger.getSeed();
+        String middleTransactionId = ledger.getBlock(Math.max(1, ledger.getChainHeight() / 2))
+                .getTransactionList().keySet().iterator().next();
+        String accountId = LoadGenerator.accountId(accountCount / 2);
+
+        run("Block.getBlockHash", accountCount, chainLength, () -> lastBlock.getBlockHash(seed));
+        run("Ledger.getTransaction", accountCount, chainLength, () -> ledger.getTransaction(middleTransactionId));
+        run("Ledger.getAccountBalance", accountCount, chainLength, () -> ledger.getAccountBalance(accountId));
+        run("Ledger.validate", accountCount, chainLength, () -> {
+            ledger.validate();
+            return ledger;
+        });
+
+        long transactionsPerLedger = Math.max(1, chainLength / 10);
+        Ledger[] sealEveryTransaction = new Ledger[1];
+        run("Ledger.createTransaction (block size 1)", accountCount, chainLength,
+                () -> sealEveryTransaction[0] = buildLedger(accountCount, chainLength, Ledger.DEFAULT_BLOCK_SIZE),
+                transactionsPerLedger, transactionOperation(sealEveryTransaction, accountCount));
+
+        Ledger[] sealEveryTenTransactions = new Ledger[1];
+        run("Ledger.createTransaction (block size 10)", accountCount, chainLength,
+                () -> sealEveryTenTransactions[0] = buildLedger(accountCount, chainLength, 10),
+                transactionsPerLedger, transactionOperation(sealEveryTenTransactions, accountCount));
+    }
+
+    /**
+     * Build a ledger with funded accounts and the requested number of committed blocks
+     * @param accountCount  int Number of accounts to create
+     * @param chainLength   int Number of blocks to commit
+     * @param blockSize int Number of transactions per block
+     * @return Ledger   The populated ledger
+     * @throws LedgerException  When a setup transaction is rejected
+     */
+    private static Ledger buildLedger(int accountCount, int chainLength, int blockSize) throws LedgerException
+    {
+        Ledger ledger = new Ledger("benchmark", "Benchmark ledger", "benchmark", blockSize);
+        int transactionCount = 0;
+
+        for (int i = 0; i < accountCount; i++)
+        {
+            ledger.createAccount(LoadGenerator.accountId(i));
+        }
+
+        while (ledger.getChainHeight() < chainLength)
+        {
+            ledger.createTransaction("setup-" + transactionCount, 1000, 10, "setup", "master",
+                    LoadGenerator.accountId(transactionCount % accountCount));
+            transactionCount++;
+        }
+
+        return ledger;
+    }
+
+    /**
+     * Operation that submits a new valid transaction from master on every call
+     * @param ledger    Ledger[]    Holder of the ledger to submit to, replaced by the benchmark setup
+     * @param accountCount  int Number of accounts in the ledger
+     * @return Operation    The operation to benchmark
+     */
+    private static Operation transactionOperation(Ledger[] ledger, int accountCount)
+    {
+        long[] counter = new long[1];
+
+        return () -> {
+            long n = counter[0]++;
+            return ledger[0].createTransaction("bench-" + n, 1, 10, "benchmark", "master",
+                    LoadGenerator.accountId((int) (n % accountCount)));
+        };
+    }
+
+    /**
+     * Warm up, measure and report one benchmark
+     * @param name  String  Name of the benchmark
+     * @param accountCount  int Number of accounts in the ledger, 0 when not applicable
+     * @param chainLength   int Number of committed blocks in the ledger, 0 when not applicable
+     * @param operation Operation   The call being measured
+     * @throws Throwable    When the call being measured fails
+     */
+    private static void run(String name, int accountCount, int chainLength, Operation operation) throws Throwable
+    {
+        run(name, accountCount, chainLength, null, Long.MAX_VALUE, operation);
+    }
+
+    /**
+     * Warm up, measure and report one benchmark whose state is rebuilt after a fixed number of calls
+     * @param name  String  Name of the benchmark
+     * @param accountCount  int Number of accounts in the ledger, 0 when not applicable
+     * @param chainLength   int Number of committed blocks in the ledger, 0 when not applicable
+     * @param setup Setup   Rebuilds the state the call runs on, or null if it never needs rebuilding. Not measured.
+     * @param operationsPerSetup    long    Number of calls made before the state is rebuilt
+     * @param operation Operation   The call being measured
+     * @throws Throwable    When the call being measured fails
+     */
+    private static void run(String name, int accountCount, int chainLength, Setup setup, long operationsPerSetup,
+                            Operation operation) throws Throwable
+    {
+        for (int i = 0; i < warmupIterations; i++)
+        {
+            iteration(setup, operationsPerSetup, operation);
+        }
+
+        double[] nanosPerOperation = new double[measuredIterations];
+        double mean = 0;
+        long operations = 0;
+
+        for (int i = 0; i < measuredIterations; i++)
+        {
+            long[] measured = iteration(setup, operationsPerSetup, operation);
+            nanosPerOperation[i] = (double) measured[1] / measured[0];
+            mean += nanosPerOperation[i] / measuredIterations;
+            operations += measured[0];
+        }
+
+        double variance = 0;
+
+        for (double sample : nanosPerOperation)
+        {
+            variance += (sample - mean) * (sample - mean) / Math.max(1, measuredIterations - 1);
+        }
+
+        System.out.println(String.format("%-40s %10s %10s %14.1f %12.1f %12d",
+                name,
+                accountCount == 0 ? "-" : accountCount,
+                chainLength == 0 ? "-" : chainLength,
+                mean,
+                Math.sqrt(variance),
+                operations));
+    }
+
+    /**
+     * Call the operation repeatedly for one iteration, rebuilding its state every operationsPerSetup calls. Only the
+     * time spent in the calls is measured and counted against the iteration length, so rebuilding takes nothing from
+     * the calls. An iteration that rebuilds its state ends after at most setupsPerIteration rebuilds.
+     * @param setup Setup   Rebuilds the state the call runs on, or null if it never needs rebuilding
+     * @param operationsPerSetup    long    Number of calls made before the state is rebuilt
+     * @param operation Operation   The call being measured
+     * @return long[]   Number of calls made and nanoseconds spent in them during the iteration
+     * @throws Throwable    When the call being measured fails
+     */
+    private static long[] iteration(Setup setup, long operationsPerSetup, Operation operation) throws Throwable
+    {
+        int hash = 0;
+        long operations = 0;
+        long measuredNanos = 0;
+        int setups = 0;
+
+        do
+        {
+            if (setup != null)
+            {
+                setup.run();
+                setups++;
+            }
+
+            long callsSinceSetup = 0;
+            long start = System.nanoTime();
+            long end = start + iterationNanos - measuredNanos;
+            long now;
+
+            do
+            {
+                Object result = operation.run();
+                hash += result == null ? 0 : result.hashCode();
+                operations++;
+                callsSinceSetup++;
+                now = System.nanoTime();
+            }
+            while (now < end && callsSinceSetup < operationsPerSetup);
+
+            measuredNanos += now - start;
+        }
+        while (measuredNanos < iterationNanos && (setup == null || setups < setupsPerIteration));
+
+        sink += hash;
+
+        return new long[] {operations, measuredNanos};
+    }
+
+    /**
+     * Rebuilds the state a benchmarked call runs on. Not measured.
+     */
+    private interface Setup
+    {
+        /**
+         * Rebuild the state
+         * @throws Throwable    When the state cannot be built
+         */
+        void run() throws Throwable;
+    }
+
+    /**
+     * One benchmarked call. Returns a result that is consumed by the driver.
+     */
+    private interface Operation
+    {
+        /**
+         * Perform the call being measured
+         * @return Object   Result of the call
+         * @throws Throwable    When the call fails
+         */
+        Object run() throws Throwable;
+    }
+}
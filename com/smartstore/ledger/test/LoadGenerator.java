@@ -0,0 +1,228 @@
+package com.cscie97.ledger.test;
+
+import java.util.SplittableRandom;
+
+/**
+ * The LoadGenerator produces a deterministic stream of synthetic transaction requests for the Ledger. Payers and
+ * receivers are drawn from a Zipfian distribution over the accounts, so a few accounts see most of the traffic the
+ * way busy customers and stores do. Fees are drawn uniformly between a minimum and maximum, and a configurable share
+ * of requests is made deliberately invalid so the Ledger rejection path is exercised too. Two generators built with
+ * the same parameters and seed produce the same sequence of requests.
+ */
+public class LoadGenerator
+{
+    /**
+     * Fee used for deliberately invalid requests. It is below the minimum fee the Ledger accepts.
+     */
+    private static final int INVALID_FEE = 1;
+
+    /**
+     * Source of randomness, seeded so the request sequence can be replayed
+     */
+    private final SplittableRandom random;
+
+    /**
+     * Cumulative Zipfian probabilities, one entry per account, used to pick payers and receivers
+     */
+    private final double[] cumulativeWeights;
+
+    /**
+     * Smallest fee drawn for valid requests
+     */
+    private final int minimumFee;
+
+    /**
+     * Largest fee drawn for valid requests
+     */
+    private final int maximumFee;
+
+    /**
+     * Largest amount drawn for any request
+     */
+    private final int maximumAmount;
+
+    /**
+     * Share of requests, between 0 and 1, that are made deliberately invalid
+     */
+    private final double failureRatio;
+
+    /**
+     * Constructor for a LoadGenerator
+     * @param accountCount  int Number of accounts payers and receivers are drawn from
+     * @param skew  double  Zipfian exponent. 0 spreads load evenly, larger values concentrate it on fewer accounts.
+     * @param minimumFee    int Smallest fee drawn for valid requests
+     * @param maximumFee    int Largest fee drawn for valid requests
+     * @param maximumAmount int Largest amount drawn for any request
+     * @param failureRatio  double  Share of requests, between 0 and 1, that are made deliberately invalid
+     * @param seed  long    Seed for the request sequence
+     */
+    public LoadGenerator(int accountCount, double skew, int minimumFee, int maximumFee, int maximumAmount,
+                         double failureRatio, long seed)
+    {
+        this.random = new SplittableRandom(seed);
+        this.minimumFee = minimumFee;
+        this.maximumFee = Math.max(minimumFee, maximumFee);
+        this.maximumAmount = Math.max(1, maximumAmount);
+        this.failureRatio = failureRatio;
+
+        this.cumulativeWeights = new double[accountCount];
+        double total = 0;
+
+        for (int rank = 0; rank < accountCount; rank++)
+        {
+            total += 1.0 / Math.pow(rank + 1, skew);
+            this.cumulativeWeights[rank] = total;
+        }
+
+        for (int rank = 0; rank < accountCount; rank++)
+        {
+            this.cumulativeWeights[rank] /= total;
+        }
+    }
+
+    /**
+     * Name of the account with the given index, as created in the Ledger by the soak test
+     * @param index int Index of the account
+     * @return String   Account Id
+     */
+    public static String accountId(int index)
+    {
+        return "load-account-" + index;
+    }
+
+    /**
+     * Draw the next transaction request
+     * @return Request  The next request in the sequence
+     */
+    public Request next()
+    {
+        int payer = this.nextAccount();
+        int receiver = this.nextAccount();
+
+        if (receiver == payer)
+        {
+            receiver = (receiver + 1) % this.cumulativeWeights.length;
+        }
+
+        int amount = 1 + this.random.nextInt(this.maximumAmount);
+        boolean invalid = this.random.nextDouble() < this.failureRatio;
+        int fee = invalid ? INVALID_FEE : this.minimumFee + this.random.nextInt(this.maximumFee - this.minimumFee + 1);
+
+        return new Request(accountId(payer), accountId(receiver), amount, fee, invalid);
+    }
+
+    /**
+     * Draw an account index from the Zipfian distribution
+     * @return int  Index of the account
+     */
+    private int nextAccount()
+    {
+        double draw = this.random.nextDouble();
+        int low = 0;
+        int high = this.cumulativeWeights.length - 1;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (this.cumulativeWeights[middle] < draw)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * One synthetic transaction request
+     */
+    public static class Request
+    {
+        /**
+         * Account Id of the payer
+         */
+        private final String payer;
+
+        /**
+         * Account Id of the receiver
+         */
+        private final String receiver;
+
+        /**
+         * Amount to transfer
+         */
+        private final int amount;
+
+        /**
+         * Fee charged to the payer
+         */
+        private final int fee;
+
+        /**
+         * True if the request was made deliberately invalid and should be rejected by the Ledger
+         */
+        private final boolean invalid;
+
+        /**
+         * Constructor for a Request
+         * @param payer String  Account Id of the payer
+         * @param receiver  String  Account Id of the receiver
+         * @param amount    int Amount to transfer
+         * @param fee   int Fee charged to the payer
+         * @param invalid   boolean True if the request should be rejected by the Ledger
+         */
+        public Request(String payer, String receiver, int amount, int fee, boolean invalid)
+        {
+            this.payer = payer;
+            this.receiver = receiver;
+            this.amount = amount;
+            this.fee = fee;
+            this.invalid = invalid;
+        }
+
+        /**
+         * @return String   Account Id of the payer
+         */
+        public String getPayer()
+        {
+            return this.payer;
+        }
+
+        /**
+         * @return String   Account Id of the receiver
+         */
+        public String getReceiver()
+        {
+            return this.receiver;
+        }
+
+        /**
+         * @return int  Amount to transfer
+         */
+        public int getAmount()
+        {
+            return this.amount;
+        }
+
+        /**
+         * @return int  Fee charged to the payer
+         */
+        public int getFee()
+        {
+            return this.fee;
+        }
+
+        /**
+         * @return boolean  True if the request was made deliberately invalid
+         */
+        public boolean isInvalid()
+        {
+            return this.invalid;
+        }
+    }
+}
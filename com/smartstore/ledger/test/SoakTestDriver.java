@@ -0,0 +1,263 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.LatencyHistogram;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.LedgerException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak Test Driver. Pushes a synthetic workload from the LoadGenerator through Ledger.createTransaction from a
+ * number of threads for a fixed duration, then reports throughput, latency percentiles, block seal times and heap
+ * growth. The Ledger is not thread safe, so worker threads take turns on it and the reported latency includes the
+ * time spent waiting for the Ledger.
+ *
+ * Parameters are given as name value pairs, all optional:
+ * accounts 100 threads 4 duration 10 seed 42 skew 1.0 min-fee 10 max-fee 50 max-amount 100
+ * failure-ratio 0.05 initial-balance 1000000
+ */
+public class SoakTestDriver
+{
+    /**
+     * Java main method
+     * @param args  String array    Name value pairs of parameters passed from the command line
+     */
+    public static void main(String[] args)
+    {
+        Map<String, String> parameters = new HashMap<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            parameters.put(args[i], args[i + 1]);
+        }
+
+        int accountCount = Integer.parseInt(parameters.getOrDefault("accounts", "100"));
+        int threadCount = Integer.parseInt(parameters.getOrDefault("threads", "4"));
+        int durationSeconds = Integer.parseInt(parameters.getOrDefault("duration", "10"));
+        long seed = Long.parseLong(parameters.getOrDefault("seed", "42"));
+        double skew = Double.parseDouble(parameters.getOrDefault("skew", "1.0"));
+        int minimumFee = Integer.parseInt(parameters.getOrDefault("min-fee", "10"));
+        int maximumFee = Integer.parseInt(parameters.getOrDefault("max-fee", "50"));
+        int maximumAmount = Integer.parseInt(parameters.getOrDefault("max-amount", "100"));
+        double failureRatio = Double.parseDouble(parameters.getOrDefault("failure-ratio", "0.05"));
+        int initialBalance = Integer.parseInt(parameters.getOrDefault("initial-balance", "1000000"));
+
+        Ledger ledger = new Ledger("soak", "Soak test ledger", String.valueOf(seed));
+        AtomicLong transactionCounter = new AtomicLong();
+
+        try
+        {
+            for (int i = 0; i < accountCount; i++)
+            {
+                String accountId = ledger.createAccount(LoadGenerator.accountId(i));
+                ledger.createTransaction("fund-" + i, initialBalance, 10, "initial balance", "master", accountId);
+            }
+        }
+        catch (LedgerException e)
+        {
+            System.out.println(String.format("ERROR (%s): %s %s\n",
+                    "soak test setup", e.getAction().toUpperCase(), e.getReason().toUpperCase()));
+            return;
+        }
+
+        long heapBefore = usedHeap();
+        int chainHeightBefore = ledger.getChainHeight();
+        long deadline = System.nanoTime() + durationSeconds * 1_000_000_000L;
+
+        List<Worker> workers = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++)
+        {
+            LoadGenerator loadGenerator = new LoadGenerator(accountCount, skew, minimumFee, maximumFee, maximumAmount,
+                    failureRatio, seed + i);
+            Worker worker = new Worker(ledger, loadGenerator, transactionCounter, deadline);
+            workers.add(worker);
+            worker.start();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram sealLatency = new LatencyHistogram();
+        long accepted = 0;
+        long rejected = 0;
+        long unexpected = 0;
+
+        for (Worker worker : workers)
+        {
+            try
+            {
+                worker.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            latency.add(worker.latency);
+            sealLatency.add(worker.sealLatency);
+            accepted += worker.accepted;
+            rejected += worker.rejected;
+            unexpected += worker.unexpected;
+        }
+
+        long heapAfter = usedHeap();
+
+        System.out.println(String.format("SOAK TEST SUMMARY \n" +
+                        "Accounts: %s Threads: %s Duration s: %s Seed: %s \n" +
+                        "Accepted: %s Rejected: %s Unexpected results: %s \n" +
+                        "TPS: %.1f \n" +
+                        "Latency us p50: %.1f p90: %.1f p99: %.1f p99.9: %.1f max: %.1f \n" +
+                        "Seal us p50: %.1f p99: %.1f max: %.1f \n" +
+                        "Blocks committed: %s \n" +
+                        "Heap growth MB: %.1f\n",
+                accountCount, threadCount, durationSeconds, seed,
+                accepted, rejected, unexpected,
+                (double) (accepted + rejected) / durationSeconds,
+                micros(latency.getValueAtPercentile(50)),
+                micros(latency.getValueAtPercentile(90)),
+                micros(latency.getValueAtPercentile(99)),
+                micros(latency.getValueAtPercentile(99.9)),
+                micros(latency.getMax()),
+                micros(sealLatency.getValueAtPercentile(50)),
+                micros(sealLatency.getValueAtPercentile(99)),
+                micros(sealLatency.getMax()),
+                ledger.getChainHeight() - chainHeightBefore,
+                (heapAfter - heapBefore) / (1024.0 * 1024.0)));
+
+        System.out.println(String.format("LEDGER METRICS \n" +
+                "%s\n", ledger.getMetricsRegistry().snapshotJson()));
+    }
+
+    /**
+     * Measure heap in use after asking for a garbage collection
+     * @return long Bytes of heap in use
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Convert nanoseconds to microseconds for the report
+     * @param nanos long    Duration in nanoseconds
+     * @return double   Duration in microseconds
+     */
+    private static double micros(long nanos)
+    {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * Worker thread that submits requests from its own LoadGenerator until the deadline passes
+     */
+    private static class Worker extends Thread
+    {
+        /**
+         * Ledger under test, shared by all workers
+         */
+        private final Ledger ledger;
+
+        /**
+         * This worker's source of requests
+         */
+        private final LoadGenerator loadGenerator;
+
+        /**
+         * Shared counter used to give every transaction a unique Id
+         */
+        private final AtomicLong transactionCounter;
+
+        /**
+         * System.nanoTime value at which the worker stops
+         */
+        private final long deadline;
+
+        /**
+         * Latency of each createTransaction call, including time spent waiting for the Ledger
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Time taken to seal each block committed by this worker's transactions
+         */
+        private final LatencyHistogram sealLatency = new LatencyHistogram();
+
+        /**
+         * Number of transactions accepted by the Ledger
+         */
+        private long accepted;
+
+        /**
+         * Number of transactions rejected by the Ledger
+         */
+        private long rejected;
+
+        /**
+         * Number of deliberately invalid transactions the Ledger accepted
+         */
+        private long unexpected;
+
+        /**
+         * Constructor for a Worker
+         * @param ledger    Ledger  Ledger under test
+         * @param loadGenerator LoadGenerator   Source of requests
+         * @param transactionCounter    AtomicLong  Shared counter for transaction Ids
+         * @param deadline  long    System.nanoTime value at which to stop
+         */
+        private Worker(Ledger ledger, LoadGenerator loadGenerator, AtomicLong transactionCounter, long deadline)
+        {
+            this.ledger = ledger;
+            this.loadGenerator = loadGenerator;
+            this.transactionCounter = transactionCounter;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Submit requests until the deadline passes
+         */
+        @Override
+        public void run()
+        {
+            while (System.nanoTime() < this.deadline)
+            {
+                LoadGenerator.Request request = this.loadGenerator.next();
+                String transactionId = "load-" + this.transactionCounter.incrementAndGet();
+                long start = System.nanoTime();
+
+                synchronized (this.ledger)
+                {
+                    int chainHeight = this.ledger.getChainHeight();
+
+                    try
+                    {
+                        this.ledger.createTransaction(transactionId, request.getAmount(), request.getFee(),
+                                "soak test", request.getPayer(), request.getReceiver());
+                        this.accepted++;
+
+                        if (request.isInvalid())
+                        {
+                            this.unexpected++;
+                        }
+                    }
+                    catch (LedgerException e)
+                    {
+                        this.rejected++;
+                    }
+
+                    if (this.ledger.getChainHeight() != chainHeight)
+                    {
+                        this.sealLatency.recordValue(this.ledger.getLastSealNanos());
+                    }
+                }
+
+                this.latency.recordValue(System.nanoTime() - start);
+            }
+        }
+    }
+}
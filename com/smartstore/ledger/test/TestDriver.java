@@ -2,6 +2,7 @@ package com.cscie97.ledger.test;
 
 import com.cscie97.ledger.CommandProcessor;
 import com.cscie97.ledger.CommandProcessorException;
+import com.cscie97.ledger.OutputModeEnum;
 
 /**
  * Test Driver
@@ -9,13 +10,18 @@ import com.cscie97.ledger.CommandProcessorException;
 public class  TestDriver
 {
     /**
-     * Java main method
+     * Java main method. The optional second parameter is the output mode: verbose (default), quiet or summary.
      * @param args  String array    List of parameters passed from the command line
      */
     public static void main(String[] args)
     {
         CommandProcessor commandProcessor = new CommandProcessor();
 
+        if (args.length > 1)
+        {
+            commandProcessor.setOutputMode(OutputModeEnum.valueOf(args[1].toUpperCase()));
+        }
+
         try
         {
             commandProcessor.processCommandFile(args[0]);
@@ -23,12 +23,12 @@ public class AccessToken implements iVisitableElement{
     /**
      * The expiration date and time for this token's validity
      */
-    private Date expiration;
+    private volatile Date expiration;
 
     /**
      * The state of the token whether active or inactive
      */
-    private AccessTokenStateEnum tokenState;
+    private volatile AccessTokenStateEnum tokenState;
 
     /**
      * The user with whom this token is associated. These tokens cannot be transferred between users.
@@ -40,6 +40,11 @@ public class AccessToken implements iVisitableElement{
      */
     private HashMap<String, Entitlement> entitlements;
 
+    /**
+     * Self-contained signed form of this token, or null when signed tokens are not issued
+     */
+    private volatile String signedToken;
+
     /**
      * Static value to be able to easily change the expiration duration
      */
@@ -111,19 +116,50 @@ public class AccessToken implements iVisitableElement{
     }
 
     /**
-     * Method to verify user permissions using the Visitor pattern
+     * Getter for the signed form of this token, which services can verify without the AuthenticationService
+     * @return  String  The signed token, or null when signed tokens are not issued
+     */
+    public String getSignedToken()
+    {
+        return this.signedToken;
+    }
+
+    /**
+     * Setter for the signed form of this token
+     * @param signedToken   String  The signed token
+     */
+    public void setSignedToken(String signedToken)
+    {
+        this.signedToken = signedToken;
+    }
+
+    /**
+     * Sliding refresh of the expiration. If less than half of the expiration period is left, push the expiration out
+     * to a full period from now.
+     * @param nowMillis long    Current time in milliseconds
+     * @return  boolean True if the expiration was extended
+     */
+    public boolean refreshExpiration(long nowMillis)
+    {
+        long periodMillis = Duration.ofMinutes(EXPIRATION_MINUTES).toMillis();
+
+        if(this.expiration.getTime() - nowMillis >= periodMillis / 2)
+        {
+            return false;
+        }
+
+        this.expiration = new Date(nowMillis + periodMillis);
+        return true;
+    }
+
+    /**
+     * Method to verify user permissions against the current entitlement snapshot of the user's partition
      * @param permission    Permission  The kind of access available
      * @return  Permission  The permissions verified this
      */
     public Permission verifyUserPermission(Permission permission)
     {
-        CheckPermissionVisitor checkPermissionVisitor = new CheckPermissionVisitor(permission);
-
-        this.entitlements.forEach((key, value) -> {
-            value.acceptVisitor(checkPermissionVisitor);
-        });
-
-        return checkPermissionVisitor.getResult();
+        return this.user.verifyPermission(permission);
     }
 
     /**
@@ -0,0 +1,37 @@
+package com.cscie97.store.authentication;
+
+/**
+ * Enum of the authentication events recorded in the audit log. The ordinal is stored in each binary audit record, so
+ * new values must only be added at the end.
+ */
+public enum AuditEventTypeEnum {
+    /**
+     * A user logged in and was issued an access token
+     */
+    LOGIN,
+
+    /**
+     * A login attempt was refused
+     */
+    LOGIN_FAILED,
+
+    /**
+     * A user's access tokens were deactivated by logout or session revocation
+     */
+    LOGOUT,
+
+    /**
+     * A permission, role or resource role was granted to a role or user
+     */
+    GRANT,
+
+    /**
+     * An access check allowed the permission
+     */
+    ACCESS_GRANTED,
+
+    /**
+     * An access check refused the permission
+     */
+    ACCESS_DENIED
+}
@@ -0,0 +1,317 @@
+package com.cscie97.store.authentication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only audit log of authentication events. Callers publish fixed-size records into an AuditRingBuffer, which
+ * costs a compare-and-set and a small copy. A background writer thread drains the buffer in batches and appends the
+ * records to files named audit-NNNNNN.log in the log directory. A file is closed and a new one started when it
+ * reaches the rotation size, and the oldest files are deleted once there are more than the retention count.
+ *
+ * Because every record has the same size, the files need no framing and can be searched with the query method or
+ * the AuditQueryDriver without any index.
+ */
+public class AuditLog {
+    /**
+     * Number of records the ring buffer holds
+     */
+    final static private int BUFFER_RECORDS = 1 << 16;
+
+    /**
+     * Number of records the writer drains and writes at once
+     */
+    final static private int BATCH_RECORDS = 1024;
+
+    /**
+     * How long the writer sleeps when the buffer is empty
+     */
+    final static private long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Prefix of audit log file names
+     */
+    final static private String FILE_PREFIX = "audit-";
+
+    /**
+     * Suffix of audit log file names
+     */
+    final static private String FILE_SUFFIX = ".log";
+
+    /**
+     * Directory holding the audit log files
+     */
+    private final Path directory;
+
+    /**
+     * Size in bytes at which a file is rotated
+     */
+    private final long rotationBytes;
+
+    /**
+     * Number of files kept; older ones are deleted
+     */
+    private final int retainedFiles;
+
+    /**
+     * Buffer between the threads recording events and the writer
+     */
+    private final AuditRingBuffer ringBuffer;
+
+    /**
+     * The background writer thread
+     */
+    private final Thread writer;
+
+    /**
+     * The file currently appended to
+     */
+    private FileChannel channel;
+
+    /**
+     * Number of the file currently appended to
+     */
+    private int fileNumber;
+
+    /**
+     * Set when the log is being closed
+     */
+    private volatile boolean closing;
+
+    /**
+     * Constructor for an AuditLog. Creates the directory if needed and starts the background writer. New records are
+     * appended to a new file after any existing ones.
+     * @param directory Path    Directory for the audit log files
+     * @param rotationBytes long    Size in bytes at which a file is rotated
+     * @param retainedFiles int Number of files kept
+     * @throws IOException  Thrown if the directory or the first file cannot be created
+     */
+    public AuditLog(Path directory, long rotationBytes, int retainedFiles) throws IOException
+    {
+        this.directory = directory;
+        this.rotationBytes = Math.max(rotationBytes, AuditRecord.RECORD_BYTES);
+        this.retainedFiles = Math.max(retainedFiles, 1);
+        this.ringBuffer = new AuditRingBuffer(BUFFER_RECORDS);
+
+        Files.createDirectories(directory);
+        List<Path> files = listFiles(directory);
+        this.fileNumber = files.isEmpty() ? 0 : fileNumber(files.get(files.size() - 1));
+        this.openNextFile();
+
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Record an event with the current time. Never blocks; if the writer has fallen too far behind, the record is
+     * dropped and counted.
+     * @param eventType AuditEventTypeEnum  The kind of event
+     * @param userId    String  The user Id the event is about, or null
+     * @param subject   String  The permission, role or credential type the event is about, or null
+     */
+    public void record(AuditEventTypeEnum eventType, String userId, String subject)
+    {
+        this.ringBuffer.publish(System.currentTimeMillis(), eventType, userId, subject);
+    }
+
+    /**
+     * Getter for the number of records dropped because the writer fell behind
+     * @return  long    The number of dropped records
+     */
+    public long getDroppedCount()
+    {
+        return this.ringBuffer.getDroppedCount();
+    }
+
+    /**
+     * Wait until every record published so far has been written to disk
+     * @param timeoutMillis long    Longest time to wait
+     * @return  boolean True if everything was written within the time
+     */
+    public boolean flush(long timeoutMillis)
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while(this.ringBuffer.getBacklog() > 0 && this.writer.isAlive())
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                return false;
+            }
+            LockSupport.unpark(this.writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return this.ringBuffer.getBacklog() == 0;
+    }
+
+    /**
+     * Write out every pending record, stop the writer and close the current file
+     * @throws InterruptedException Thrown if interrupted while waiting for the writer
+     */
+    public void close() throws InterruptedException
+    {
+        this.closing = true;
+        LockSupport.unpark(this.writer);
+        this.writer.join();
+    }
+
+    /**
+     * Search the audit log files in a directory. Each condition left null matches every record. A subject matches the
+     * grants of a permission or role to a role as well as the records about the subject alone.
+     * @param directory Path    Directory holding the audit log files
+     * @param userId    String  User Id to match, or null
+     * @param subject   String  Permission, role or credential type to match, or null
+     * @param fromMillis    long    Earliest time to match, inclusive
+     * @param toMillis  long    Latest time to match, exclusive
+     * @return  List    The matching records, oldest file first
+     * @throws IOException  Thrown if a file cannot be read
+     */
+    public static List<AuditRecord> query(Path directory, String userId, String subject, long fromMillis,
+                                          long toMillis) throws IOException
+    {
+        ArrayList<AuditRecord> matches = new ArrayList<AuditRecord>();
+
+        for(Path file : listFiles(directory))
+        {
+            byte[] bytes = Files.readAllBytes(file);
+
+            for(int offset = 0; offset + AuditRecord.RECORD_BYTES <= bytes.length; offset += AuditRecord.RECORD_BYTES)
+            {
+                AuditRecord record = AuditRecord.decode(bytes, offset);
+
+                if(record != null &&
+                        record.getTimestampMillis() >= fromMillis && record.getTimestampMillis() < toMillis &&
+                        (userId == null || userId.equals(record.getUserId())) &&
+                        (subject == null || record.isAbout(subject)))
+                {
+                    matches.add(record);
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Body of the writer thread. Drains the ring buffer in batches until the log is closed and nothing is pending.
+     */
+    private void writeLoop()
+    {
+        byte[] batch = new byte[BATCH_RECORDS * AuditRecord.RECORD_BYTES];
+
+        try
+        {
+            while(true)
+            {
+                int count = this.ringBuffer.drainTo(batch);
+
+                if(count > 0)
+                {
+                    this.write(batch, count);
+                }
+                else if(this.closing && this.ringBuffer.getBacklog() == 0)
+                {
+                    break;
+                }
+                else
+                {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+
+            this.channel.close();
+        }
+        catch(IOException e)
+        {
+            System.out.println("AUDIT LOG WRITER STOPPED: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append a batch of records to the current file, rotating first if the file is full
+     * @param batch byte[]  The records
+     * @param count int Number of records in the batch
+     * @throws IOException  Thrown if the file cannot be written
+     */
+    private void write(byte[] batch, int count) throws IOException
+    {
+        if(this.channel.size() >= this.rotationBytes)
+        {
+            this.channel.close();
+            this.openNextFile();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch, 0, count * AuditRecord.RECORD_BYTES);
+        while(buffer.hasRemaining())
+        {
+            this.channel.write(buffer);
+        }
+    }
+
+    /**
+     * Start a new file and delete the oldest files beyond the retention count
+     * @throws IOException  Thrown if the file cannot be created
+     */
+    private void openNextFile() throws IOException
+    {
+        this.fileNumber++;
+        this.channel = FileChannel.open(this.directory.resolve(String.format("%s%06d%s", FILE_PREFIX,
+                this.fileNumber, FILE_SUFFIX)), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+
+        List<Path> files = listFiles(this.directory);
+        for(int i = 0; i < files.size() - this.retainedFiles; i++)
+        {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * List the audit log files in a directory, oldest first
+     * @param directory Path    The directory
+     * @return  List    The audit log files in file number order
+     * @throws IOException  Thrown if the directory cannot be read
+     */
+    private static List<Path> listFiles(Path directory) throws IOException
+    {
+        ArrayList<Path> files = new ArrayList<Path>();
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX))
+        {
+            stream.forEach(files::add);
+        }
+
+        files.sort((a, b) -> Integer.compare(fileNumber(a), fileNumber(b)));
+        return files;
+    }
+
+    /**
+     * Parse the number of an audit log file from its name
+     * @param file  Path    The file
+     * @return  int The file number, or 0 if the name has none
+     */
+    private static int fileNumber(Path file)
+    {
+        String name = file.getFileName().toString();
+
+        try
+        {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        }
+        catch(NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.cscie97.store.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * One entry of the audit log. On disk and in the audit ring buffer every record takes exactly RECORD_BYTES bytes:
+ * the time in milliseconds as a big-endian long, the event type ordinal, the lengths of the two text fields, one
+ * reserved byte, then the user Id and the subject in UTF-8, each in a fixed-size field. The subject is the permission,
+ * role or credential type the event is about. A grant of a permission or role to a role has no user, and its subject
+ * names both sides as roleId>permissionId. Text longer than its field is cut short.
+ */
+public class AuditRecord {
+    /**
+     * Size of every record in bytes
+     */
+    public static final int RECORD_BYTES = 96;
+
+    /**
+     * Separator between the role and the permission or role granted to it in the subject of a GRANT record
+     */
+    public static final String GRANT_SEPARATOR = ">";
+
+    /**
+     * Offset of the user Id field within a record
+     */
+    final static private int USER_OFFSET = 12;
+
+    /**
+     * Size of the user Id field
+     */
+    final static private int USER_BYTES = 40;
+
+    /**
+     * Offset of the subject field within a record
+     */
+    final static private int SUBJECT_OFFSET = USER_OFFSET + USER_BYTES;
+
+    /**
+     * Size of the subject field
+     */
+    final static private int SUBJECT_BYTES = RECORD_BYTES - SUBJECT_OFFSET;
+
+    /**
+     * Time of the event in milliseconds since the epoch
+     */
+    private final long timestampMillis;
+
+    /**
+     * The kind of event
+     */
+    private final AuditEventTypeEnum eventType;
+
+    /**
+     * The user Id the event is about, or an empty string if unknown
+     */
+    private final String userId;
+
+    /**
+     * The permission, role or credential type the event is about, or an empty string
+     */
+    private final String subject;
+
+    /**
+     * Constructor for an AuditRecord
+     * @param timestampMillis   long    Time of the event in milliseconds since the epoch
+     * @param eventType AuditEventTypeEnum  The kind of event
+     * @param userId    String  The user Id the event is about
+     * @param subject   String  The permission, role or credential type the event is about
+     */
+    public AuditRecord(long timestampMillis, AuditEventTypeEnum eventType, String userId, String subject)
+    {
+        this.timestampMillis = timestampMillis;
+        this.eventType = eventType;
+        this.userId = userId == null ? "" : userId;
+        this.subject = subject == null ? "" : subject;
+    }
+
+    /**
+     * Write a record in binary form without creating an AuditRecord object
+     * @param buffer    byte[]  The buffer to write to
+     * @param offset    int Position of the record in the buffer
+     * @param timestampMillis   long    Time of the event in milliseconds since the epoch
+     * @param eventType AuditEventTypeEnum  The kind of event
+     * @param userId    String  The user Id the event is about, or null
+     * @param subject   String  The permission, role or credential type the event is about, or null
+     */
+    public static void encode(byte[] buffer, int offset, long timestampMillis, AuditEventTypeEnum eventType,
+                              String userId, String subject)
+    {
+        for(int i = 0; i < 8; i++)
+        {
+            buffer[offset + i] = (byte) (timestampMillis >>> (56 - 8 * i));
+        }
+        buffer[offset + 8] = (byte) eventType.ordinal();
+        buffer[offset + 9] = (byte) encodeText(buffer, offset + USER_OFFSET, USER_BYTES, userId);
+        buffer[offset + 10] = (byte) encodeText(buffer, offset + SUBJECT_OFFSET, SUBJECT_BYTES, subject);
+        buffer[offset + 11] = 0;
+    }
+
+    /**
+     * Read a record from its binary form
+     * @param buffer    byte[]  The buffer to read from
+     * @param offset    int Position of the record in the buffer
+     * @return  AuditRecord The record, or null if the event type is unknown
+     */
+    public static AuditRecord decode(byte[] buffer, int offset)
+    {
+        long timestampMillis = 0;
+        for(int i = 0; i < 8; i++)
+        {
+            timestampMillis = timestampMillis << 8 | (buffer[offset + i] & 0xff);
+        }
+
+        int type = buffer[offset + 8] & 0xff;
+        if(type >= AuditEventTypeEnum.values().length)
+        {
+            return null;
+        }
+
+        int userLength = Math.min(buffer[offset + 9] & 0xff, USER_BYTES);
+        int subjectLength = Math.min(buffer[offset + 10] & 0xff, SUBJECT_BYTES);
+
+        return new AuditRecord(timestampMillis, AuditEventTypeEnum.values()[type],
+                new String(buffer, offset + USER_OFFSET, userLength, StandardCharsets.UTF_8),
+                new String(buffer, offset + SUBJECT_OFFSET, subjectLength, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write text into a fixed-size field, cutting it short if needed and padding the rest with zeros
+     * @param buffer    byte[]  The buffer to write to
+     * @param offset    int Position of the field in the buffer
+     * @param size  int Size of the field
+     * @param text  String  The text, or null
+     * @return  int Number of bytes of text written
+     */
+    private static int encodeText(byte[] buffer, int offset, int size, String text)
+    {
+        int length = 0;
+
+        if(text != null)
+        {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            length = Math.min(bytes.length, size);
+            System.arraycopy(bytes, 0, buffer, offset, length);
+        }
+
+        for(int i = length; i < size; i++)
+        {
+            buffer[offset + i] = 0;
+        }
+
+        return length;
+    }
+
+    /**
+     * Getter for the time of the event
+     * @return  long    Milliseconds since the epoch
+     */
+    public long getTimestampMillis()
+    {
+        return this.timestampMillis;
+    }
+
+    /**
+     * Getter for the kind of event
+     * @return  AuditEventTypeEnum  The event type
+     */
+    public AuditEventTypeEnum getEventType()
+    {
+        return this.eventType;
+    }
+
+    /**
+     * Getter for the user Id the event is about
+     * @return  String  The user Id, or an empty string if unknown
+     */
+    public String getUserId()
+    {
+        return this.userId;
+    }
+
+    /**
+     * Getter for the permission, role or credential type the event is about
+     * @return  String  The subject, or an empty string
+     */
+    public String getSubject()
+    {
+        return this.subject;
+    }
+
+    /**
+     * Check whether the event is about a permission, role or credential type. A grant to a role is about both the
+     * role and the entitlement granted to it.
+     * @param subject   String  The permission, role or credential type
+     * @return  boolean True if the subject of this record is, or includes, the given subject
+     */
+    public boolean isAbout(String subject)
+    {
+        if(this.subject.equals(subject))
+        {
+            return true;
+        }
+
+        int separator = this.subject.indexOf(GRANT_SEPARATOR);
+        return this.eventType == AuditEventTypeEnum.GRANT && separator >= 0 &&
+                (this.subject.substring(0, separator).equals(subject) ||
+                        this.subject.substring(separator + GRANT_SEPARATOR.length()).equals(subject));
+    }
+
+    /**
+     * Printable view of this record on one line
+     * @return String   Text containing all parts of the record
+     */
+    public String toString()
+    {
+        return new Date(this.timestampMillis) + " " + this.eventType + " user=" + this.userId + " subject=" +
+                this.subject;
+    }
+}
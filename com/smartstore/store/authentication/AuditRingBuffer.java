@@ -0,0 +1,145 @@
+package com.cscie97.store.authentication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded multi-producer, single-consumer ring buffer of fixed-size audit records. Records live in one preallocated
+ * byte array, so publishing a record allocates nothing in the buffer itself.
+ *
+ * A producer claims the next sequence number with compare-and-set, writes its record into the slot for that
+ * sequence, and then publishes the slot by storing the sequence number in it. The consumer reads slots in sequence
+ * order and stops at the first slot not yet published. Producers never wait: when the consumer has fallen a whole
+ * buffer behind, the record is dropped and counted, so a slow disk cannot slow down logins and access checks.
+ */
+public class AuditRingBuffer {
+    /**
+     * Record storage, one AuditRecord.RECORD_BYTES slot per record
+     */
+    private final byte[] records;
+
+    /**
+     * For each slot, the sequence number of the record last published in it, or -1 if none
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Number of slots minus one. The number of slots is a power of two so a sequence maps to its slot with a mask.
+     */
+    private final int mask;
+
+    /**
+     * Next sequence number to be claimed by a producer
+     */
+    private final AtomicLong claimed;
+
+    /**
+     * Next sequence number to be read by the consumer
+     */
+    private final AtomicLong consumed;
+
+    /**
+     * Number of records dropped because the buffer was full
+     */
+    private final LongAdder dropped;
+
+    /**
+     * Constructor for an AuditRingBuffer
+     * @param capacity  int Number of records the buffer holds, rounded up to a power of two
+     */
+    public AuditRingBuffer(int capacity)
+    {
+        int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+        this.records = new byte[slots * AuditRecord.RECORD_BYTES];
+        this.published = new AtomicLongArray(slots);
+        for(int i = 0; i < slots; i++)
+        {
+            this.published.set(i, -1);
+        }
+        this.mask = slots - 1;
+        this.claimed = new AtomicLong();
+        this.consumed = new AtomicLong();
+        this.dropped = new LongAdder();
+    }
+
+    /**
+     * Publish one record. Safe to call from any number of threads.
+     * @param timestampMillis   long    Time of the event in milliseconds since the epoch
+     * @param eventType AuditEventTypeEnum  The kind of event
+     * @param userId    String  The user Id the event is about, or null
+     * @param subject   String  The permission, role or credential type the event is about, or null
+     * @return  boolean True if the record was published, false if it was dropped because the buffer is full
+     */
+    public boolean publish(long timestampMillis, AuditEventTypeEnum eventType, String userId, String subject)
+    {
+        long sequence;
+
+        do
+        {
+            sequence = this.claimed.get();
+
+            if(sequence - this.consumed.get() > this.mask)
+            {
+                this.dropped.increment();
+                return false;
+            }
+        }
+        while(!this.claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & this.mask);
+        AuditRecord.encode(this.records, slot * AuditRecord.RECORD_BYTES, timestampMillis, eventType, userId, subject);
+        this.published.set(slot, sequence);
+
+        return true;
+    }
+
+    /**
+     * Copy published records, in sequence order, into the target array. Only one thread may drain the buffer.
+     * @param target    byte[]  Array to copy records into, a whole number of records long
+     * @return  int Number of records copied
+     */
+    public int drainTo(byte[] target)
+    {
+        long next = this.consumed.get();
+        int maximum = target.length / AuditRecord.RECORD_BYTES;
+        int count = 0;
+
+        while(count < maximum)
+        {
+            int slot = (int) (next & this.mask);
+
+            if(this.published.get(slot) != next)
+            {
+                break;
+            }
+
+            System.arraycopy(this.records, slot * AuditRecord.RECORD_BYTES, target, count * AuditRecord.RECORD_BYTES,
+                    AuditRecord.RECORD_BYTES);
+            next++;
+            count++;
+        }
+
+        this.consumed.set(next);
+        return count;
+    }
+
+    /**
+     * Getter for the number of records waiting to be drained, including any being written
+     * @return  long    The number of claimed records not yet drained
+     */
+    public long getBacklog()
+    {
+        return this.claimed.get() - this.consumed.get();
+    }
+
+    /**
+     * Getter for the number of records dropped because the buffer was full
+     * @return  long    The number of dropped records
+     */
+    public long getDroppedCount()
+    {
+        return this.dropped.sum();
+    }
+}
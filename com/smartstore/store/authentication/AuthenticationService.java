@@ -1,194 +1,1081 @@
 package com.cscie97.store.authentication;
 
+import com.cscie97.ledger.MetricsRegistry;
+import com.cscie97.ledger.iMetricsRegistry;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
  * Authentication Service supports controlling access to the Store 24X7 application and the IoT devices. It implements
  * the iVisitableElement interface to allow Visitors to perform behaviors such as printing inventory of permission tree.
+ *
+ * The service is safe to use from many threads. Registries are concurrent maps. Methods that change users, credentials
+ * or entitlements are synchronized on the service, and each entitlement change publishes a new immutable
+ * EntitlementSnapshot. checkAccess and login take no lock on the service; access checks read the current snapshot.
+ *
+ * Users, tokens, snapshots and decision caches are partitioned by store in TenantPartitions, so a change to one
+ * store's users rebuilds only that store's partition. Permissions, roles and resources are shared by every store.
  */
 public class AuthenticationService implements iVisitableElement{
     /**
      * Map to be able to locate any permission, given its Id
      * key = permission Id, value = Permission object
      */
-    private HashMap<String, Permission> permissions;
+    private ConcurrentHashMap<String, Permission> permissions;
+
+    /**
+     * List of every permission, indexed by the dense ordinal assigned when the permission was defined
+     */
+    private CopyOnWriteArrayList<Permission> permissionsByOrdinal;
 
     /**
      * Map to be able to locate any role, given its Id
      * key = role Id, value = Role object
      */
-    private HashMap<String, Role> roles;
+    private ConcurrentHashMap<String, Role> roles;
 
     /**
      * Map to be able to locate any resource role, given its Id
      * key = resource role Id, value = Resource object
      */
-    private HashMap<String, ResourceRole> resourceRoles;
+    private ConcurrentHashMap<String, ResourceRole> resourceRoles;
 
     /**
      * Map to be able to locate any user, given their Id
      * key = user Id, value = User object
      */
-    private HashMap<String, User> users;
+    private ConcurrentHashMap<String, User> users;
 
     /**
      * Map to be able to locate any resource, given its Id
      * key = resource Id, value = Resource object
      */
-    private HashMap<String, Resource> resources;
+    private ConcurrentHashMap<String, Resource> resources;
+
+    /**
+     * Index of the resource roles that apply to each resource
+     * key = resource Id, value = the ResourceRoles bound to that resource
+     */
+    private ConcurrentHashMap<String, CopyOnWriteArrayList<ResourceRole>> resourceRolesByResource;
+
+    /**
+     * Id ordered index of the elements of each inventory export section, kept alongside the registries so an export
+     * page starts with a seek to its cursor rather than a pass over the whole section
+     * key = section, value = map of Id to element, in Id order
+     */
+    private EnumMap<InventorySectionEnum, ConcurrentSkipListMap<String, iVisitableElement>> inventoryIndex;
+
+    /**
+     * Partition of each store, holding the store's users, access tokens, entitlement snapshot and decision cache
+     * key = store Id, value = TenantPartition object
+     */
+    private ConcurrentHashMap<String, TenantPartition> partitions;
+
+    /**
+     * Partition of the users that belong to no store, such as root and the store system user
+     */
+    private TenantPartition globalPartition;
+
+    /**
+     * Index of biometric credentials, used to identify a user from a faceprint or voiceprint alone
+     * key = credential type, value = map of hashed credential string to the User holding that credential
+     */
+    private EnumMap<CredentialTypeEnum, ConcurrentHashMap<String, User>> biometricCredentialIndex;
+
+    /**
+     * Approximate nearest neighbour indexes of biometric templates, one per biometric credential type. Created when
+     * the first template of that type is enrolled, with the dimension of that template.
+     */
+    private ConcurrentHashMap<CredentialTypeEnum, BiometricTemplateIndex> biometricTemplateIndexes;
+
+    /**
+     * Largest cosine distance between a captured and an enrolled biometric template that counts as a match
+     */
+    private double biometricMatchThreshold = DEFAULT_BIOMETRIC_MATCH_THRESHOLD;
+
+    /**
+     * Default largest cosine distance for a biometric template match
+     */
+    final static private double DEFAULT_BIOMETRIC_MATCH_THRESHOLD = 0.1;
+
+    /**
+     * Number of hash tables in each biometric template index
+     */
+    final static private int BIOMETRIC_INDEX_TABLES = 8;
+
+    /**
+     * Number of hyperplanes per hash table in each biometric template index
+     */
+    final static private int BIOMETRIC_INDEX_BITS = 12;
+
+    /**
+     * Timing wheel holding every active token until its expiration, when it is marked inactive
+     */
+    private TimingWheel<AccessToken> tokenExpiryWheel;
+
+    /**
+     * Timing wheel holding every inactive token until its grace period ends, when it is removed from tokens
+     */
+    private TimingWheel<AccessToken> tokenReclaimWheel;
+
+    /**
+     * When true, every successful checkAccess slides the token's expiration forward once half of it has passed
+     */
+    private volatile boolean slidingRefresh;
+
+    /**
+     * How long an expired or logged out token is kept before it is removed, so it can still show up in inventory and
+     * be reported as inactive rather than unknown
+     */
+    final static private long TOKEN_RECLAIM_GRACE_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Length of one tick of the token timing wheels
+     */
+    final static private long TOKEN_WHEEL_TICK_MILLIS = 1000;
+
+    /**
+     * Number of slots in the token timing wheels. With one second ticks, one turn of the wheel covers over 17 minutes.
+     */
+    final static private int TOKEN_WHEEL_SLOTS = 1024;
+
+    /**
+     * Guards the token timing wheels, which are not safe for concurrent use
+     */
+    private final ReentrantLock tokenWheelLock = new ReentrantLock();
+
+    /**
+     * Counter of entitlement changes. Every change increments it, and the partitions the change touches take the new
+     * value as their version, so each partition's version moves on only when that partition changes.
+     */
+    private long entitlementVersion;
+
+    /**
+     * Users holding each role directly, used to find the users whose permissions a change to a role affects. Written
+     * and read with the service lock held.
+     */
+    private final HashMap<Role, Set<User>> roleHolders = new HashMap<Role, Set<User>>();
+
+    /**
+     * Largest number of tokens whose checkAccess decisions are cached
+     */
+    final static private int DECISION_CACHE_MAX_TOKENS = 10000;
+
+    /**
+     * Longest time a checkAccess decision is cached. Decisions never outlive the token they were made for.
+     */
+    final static private long DECISION_CACHE_TTL_MILLIS = 60 * 1000;
+
+    /**
+     * Signs access tokens so services can verify them locally, and holds the revocation list for signed tokens
+     */
+    private SignedTokenAuthority signedTokenAuthority;
+
+    /**
+     * When true, every issued access token also carries a signed form
+     */
+    private volatile boolean signedTokens;
+
+    /**
+     * Bounded executor on which loginAsync verifies credentials
+     */
+    private final ThreadPoolExecutor credentialExecutor;
+
+    /**
+     * Number of credential executor threads. Each scrypt hash holds 16 MB while it runs, so this also bounds the
+     * memory used by hashing.
+     */
+    final static private int CREDENTIAL_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Number of logins that may wait for a credential executor thread
+     */
+    final static private int CREDENTIAL_QUEUE_SIZE = 256;
+
+    /**
+     * Limits failed login attempts per user Id. Successful logins are taken back, so a user who logs in often is
+     * never refused and guessing at someone else's credential cannot lock them out for longer than one window.
+     */
+    private final LoginThrottle userLoginThrottle = new LoginThrottle(USER_LOGIN_ATTEMPTS, LOGIN_THROTTLE_WINDOW_MILLIS);
+
+    /**
+     * Limits login attempts per originating device Id, such as a turnstile camera. Attempts that name no device are
+     * counted per credential type instead, and only when they fail.
+     */
+    private final LoginThrottle deviceLoginThrottle =
+            new LoginThrottle(DEVICE_LOGIN_ATTEMPTS, LOGIN_THROTTLE_WINDOW_MILLIS);
+
+    /**
+     * Largest number of login attempts per user within one throttle window
+     */
+    final static private int USER_LOGIN_ATTEMPTS = 10;
+
+    /**
+     * Largest number of login attempts per device within one throttle window. A turnstile camera sees many shoppers,
+     * so the limit is higher than the per user one.
+     */
+    final static private int DEVICE_LOGIN_ATTEMPTS = 60;
+
+    /**
+     * Length of the login throttle window
+     */
+    final static private long LOGIN_THROTTLE_WINDOW_MILLIS = 60 * 1000;
+
+    /**
+     * Prefix of the device throttle key used for login attempts that name no device, followed by the credential type
+     */
+    final static private String UNKNOWN_DEVICE_KEY = "unknown-device:";
 
     /**
-     * Map to be able to locate any access token, given its Id
-     * key = access token Id, value = AccessToken object
+     * Registry to which login attempts, throttling and authorization cache statistics are reported
      */
-    private HashMap<String, AccessToken> tokens;
+    private iMetricsRegistry metricsRegistry;
+
+    /**
+     * Audit log receiving login, logout, grant and access decisions, or null when auditing is off
+     */
+    private volatile AuditLog auditLog;
+
+    /**
+     * Size at which an audit log file is rotated
+     */
+    final static private long AUDIT_ROTATION_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Number of audit log files kept
+     */
+    final static private int AUDIT_RETAINED_FILES = 16;
+
+    /**
+     * Store to which entitlement and credential changes are persisted, or null when they are kept in memory only
+     */
+    private EntitlementStore entitlementStore;
+
+    /**
+     * Size of the entitlement change log above which a new entitlement snapshot is written
+     */
+    final static private long ENTITLEMENT_COMPACTION_BYTES = 8L * 1024 * 1024;
 
     /**
      * Root permission which will be at the root of the entitlement hierarchy
      */
     private Permission rootPermission;
 
-    /**
-     * Permission to create, delete, update entitlements with roles and permissions
-     */
-    private Permission entitlementAdminPermission;
+    /**
+     * Permission to create, delete, update entitlements with roles and permissions
+     */
+    private Permission entitlementAdminPermission;
+
+    /**
+     * Top level root role
+     */
+    private Role rootRole;
+
+    /**
+     * The authentication system root user with all permissions obtained with top level rootPermission Entitlement
+     */
+    private User rootUser;
+
+    /**
+     * The automated system, such as Store Model Service, as a user too
+     */
+    private User storeSystemAutomatedUser;
+
+    /**
+     * Constant value for default root password, to be changed in a functioning system to obtain from other sources.
+     * Passwords for systems in production must not be stored in the code repository.
+     */
+    final static private String ROOT_PASSWORD_STRING = "default";
+
+    /**
+     * Constant value for automated system password, to be changed in a functioning system to obtain from other sources.
+     * Passwords for systems in production must not be stored in the code repository.
+     */
+    final static private String STORE_SYSTEM_PASSWORD_STRING = "automated-system-password";
+
+    /**
+     * Constant value for default user password, to be changed in a functioning system to obtain from other sources.
+     * Passwords for systems in production must not be stored in the code repository.
+     */
+    final static private String DEFAULT_USER_PASSWORD_STRING = "user-password";
+
+    /**
+     * For Singleton pattern - Holds the only instance of this AuthenticationService. The JVM initializes the holder
+     * class once, on first use, so the instance is created lazily and exactly once even when several threads ask for
+     * it at the same time.
+     */
+    private static class SingletonHolder {
+        private static final AuthenticationService INSTANCE = new AuthenticationService();
+    }
+
+    /**
+     * Static block to initialize a Singleton instance. Lazy initialization: Object is created only if it is needed.
+     * This may prevent resource wastage. Use the getInstance method to get an instance of the Authentication service.
+     * @return  AuthenticationService   A Singleton object of type AuthenticationService
+     */
+    public static AuthenticationService getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Private constructor for AuthenticationService so that it can only be instantiated as part of the Singleton
+     * pattern getInstance method.
+     */
+    private AuthenticationService(){
+        this.permissions = new ConcurrentHashMap<String, Permission>();
+        this.permissionsByOrdinal = new CopyOnWriteArrayList<Permission>();
+        this.roles = new ConcurrentHashMap<String, Role>();
+        this.resourceRoles = new ConcurrentHashMap<String, ResourceRole>();
+        this.users = new ConcurrentHashMap<String, User>();
+        this.resources = new ConcurrentHashMap<String, Resource>();
+        this.resourceRolesByResource = new ConcurrentHashMap<String, CopyOnWriteArrayList<ResourceRole>>();
+        this.inventoryIndex = new EnumMap<InventorySectionEnum, ConcurrentSkipListMap<String, iVisitableElement>>(
+                InventorySectionEnum.class);
+        for(InventorySectionEnum section : InventorySectionEnum.values())
+        {
+            this.inventoryIndex.put(section, new ConcurrentSkipListMap<String, iVisitableElement>());
+        }
+        this.partitions = new ConcurrentHashMap<String, TenantPartition>();
+        this.globalPartition = new TenantPartition(null, DECISION_CACHE_MAX_TOKENS, DECISION_CACHE_TTL_MILLIS, 0);
+        this.biometricCredentialIndex =
+                new EnumMap<CredentialTypeEnum, ConcurrentHashMap<String, User>>(CredentialTypeEnum.class);
+        this.biometricCredentialIndex.put(CredentialTypeEnum.FACEPRINT, new ConcurrentHashMap<String, User>());
+        this.biometricCredentialIndex.put(CredentialTypeEnum.VOICEPRINT, new ConcurrentHashMap<String, User>());
+        this.biometricTemplateIndexes = new ConcurrentHashMap<CredentialTypeEnum, BiometricTemplateIndex>();
+        this.tokenExpiryWheel = new TimingWheel<AccessToken>(TOKEN_WHEEL_TICK_MILLIS, TOKEN_WHEEL_SLOTS,
+                System.currentTimeMillis());
+        this.tokenReclaimWheel = new TimingWheel<AccessToken>(TOKEN_WHEEL_TICK_MILLIS, TOKEN_WHEEL_SLOTS,
+                System.currentTimeMillis());
+        this.signedTokenAuthority = new SignedTokenAuthority();
+        this.setMetricsRegistry(new MetricsRegistry());
+        AtomicInteger credentialThreadCount = new AtomicInteger();
+        this.credentialExecutor = new ThreadPoolExecutor(CREDENTIAL_THREADS, CREDENTIAL_THREADS, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(CREDENTIAL_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "credential-" + credentialThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        // Define permission to create, delete, update entitlements with roles and permissions
+        this.entitlementAdminPermission = new Permission("entitlement_admin_permission",
+                "Entitlement Admin Permission","Create, Update, Delete Entitlements",
+                this.permissionsByOrdinal.size());
+        this.permissions.put(this.entitlementAdminPermission.getId(), this.entitlementAdminPermission);
+        this.indexInventory(InventorySectionEnum.PERMISSION, this.entitlementAdminPermission.getId(),
+                this.entitlementAdminPermission);
+        this.permissionsByOrdinal.add(this.entitlementAdminPermission);
+        System.out.println("DEFINED ENTITLEMENT ADMIN PERMISSION " + this.entitlementAdminPermission);
+
+        // Define root role
+        this.rootRole = new Role("entitlement_admin_role", "Authentication Admin Role", "Root Role");
+        this.roles.put(rootRole.getId(), rootRole);
+        this.indexInventory(InventorySectionEnum.ROLE, rootRole.getId(), rootRole);
+        System.out.println("DEFINED ADMIN OR ROOT ROLE " + rootRole);
+
+        // Assign permissions to the root role to be both root and entitlement admin
+        this.rootRole.addEntitlement(entitlementAdminPermission);
+        System.out.println("ASSIGNED ROOT ROLE AND THE ENTITLEMENT ADMIN PERMISSIONS");
+
+        // Define root user, with password credentials
+        this.rootUser = new User("root", "Root User");
+        this.addUser(this.rootUser);
+        this.rootUser.addCredential(new Credential(UUID.randomUUID().toString(), ROOT_PASSWORD_STRING,
+                CredentialTypeEnum.PASSWORD));
+        this.grantEntitlement(this.rootUser, this.rootRole);
+        System.out.println("DEFINED ROOT USER WITH PASSWORD CREDENTIALS AND ROOT ROLE ENTITLEMENT");
+
+        this.globalPartition.rebuildEntitlements(this.entitlementVersion);
+        this.publishEntitlementVersion(this.globalPartition);
+    }
+
+    /**
+     * Getter for the metrics registry to which this service reports
+     * @return iMetricsRegistry The metrics registry
+     */
+    public iMetricsRegistry getMetricsRegistry()
+    {
+        return this.metricsRegistry;
+    }
+
+    /**
+     * Setter for the metrics registry to which this service reports. The gauges of this service are registered with it.
+     * @param metricsRegistry iMetricsRegistry   The metrics registry to report to
+     */
+    public void setMetricsRegistry(iMetricsRegistry metricsRegistry)
+    {
+        this.metricsRegistry = metricsRegistry;
+        this.metricsRegistry.registerGauge("tokens.count", () -> this.getTokenCount());
+        this.metricsRegistry.registerGauge("authorization.cache.hits", () -> this.allPartitions().stream()
+                .mapToLong(partition -> partition.getDecisionCache().getHitCount()).sum());
+        this.metricsRegistry.registerGauge("authorization.cache.misses", () -> this.allPartitions().stream()
+                .mapToLong(partition -> partition.getDecisionCache().getMissCount()).sum());
+    }
+
+    /**
+     * Start recording login, logout, grant and access decisions to an audit log in the given directory. Any audit log
+     * already open is closed first, after its pending records are written.
+     * @param directory Path    Directory for the audit log files
+     * @throws IOException  Thrown if the audit log cannot be created
+     * @throws InterruptedException Thrown if interrupted while closing the previous audit log
+     */
+    public synchronized void enableAuditLog(Path directory) throws IOException, InterruptedException
+    {
+        AuditLog previous = this.auditLog;
+        this.auditLog = new AuditLog(directory, AUDIT_ROTATION_BYTES, AUDIT_RETAINED_FILES);
+
+        if(previous != null)
+        {
+            previous.close();
+        }
+    }
+
+    /**
+     * Getter for the audit log
+     * @return  AuditLog    The audit log, or null when auditing is off
+     */
+    public AuditLog getAuditLog()
+    {
+        return this.auditLog;
+    }
+
+    /**
+     * Record an event in the audit log if auditing is on
+     * @param eventType AuditEventTypeEnum  The kind of event
+     * @param userId    String  The user Id the event is about, or null
+     * @param subject   String  The permission, role or credential type the event is about, or null
+     */
+    private void audit(AuditEventTypeEnum eventType, String userId, String subject)
+    {
+        AuditLog log = this.auditLog;
+
+        if(log != null)
+        {
+            log.record(eventType, userId, subject);
+        }
+    }
+
+    /**
+     * Record an access decision in the audit log. The user is taken from the token, which may be null.
+     * @param eventType AuditEventTypeEnum  ACCESS_GRANTED or ACCESS_DENIED
+     * @param accessToken   AccessToken The access token presented
+     * @param permission    Permission  The permission asked for, or null
+     */
+    private void auditAccess(AuditEventTypeEnum eventType, AccessToken accessToken, Permission permission)
+    {
+        this.audit(eventType,
+                accessToken == null || accessToken.getUser() == null ? null : accessToken.getUser().getUserId(),
+                permission == null ? null : permission.getId());
+    }
+
+    /**
+     * Getter for all permissions in this authentication service
+     * @return  ConcurrentHashMap   Mapping of permission names to Permission objects
+     */
+    public ConcurrentHashMap<String, Permission> getPermissions() { return this.permissions; }
+
+    /**
+     * Getter for a permission given its dense ordinal
+     * @param ordinal   int The ordinal assigned to the permission when it was defined
+     * @return  Permission  The permission, or null if no permission has that ordinal
+     */
+    public Permission getPermissionByOrdinal(int ordinal)
+    {
+        return ordinal >= 0 && ordinal < this.permissionsByOrdinal.size() ? this.permissionsByOrdinal.get(ordinal) : null;
+    }
+
+    /**
+     * Getter method for get the list of all users for whom AuthenticationService accounts have been created
+     * @return  ConcurrentHashMap   Mapping of userIds to User objects
+     */
+    public ConcurrentHashMap<String, User> getUsers()
+    {
+        return this.users;
+    }
+
+    /**
+     * Getter method for get the list of all tokens in AuthenticationService. Tokens are held by the partition of their
+     * user, so this gathers them into a new map; checks never use it.
+     * @return  ConcurrentHashMap   Mapping of tokenIds to AccessToken objects
+     */
+    public ConcurrentHashMap<String, AccessToken> getTokens()
+    {
+        ConcurrentHashMap<String, AccessToken> allTokens = new ConcurrentHashMap<String, AccessToken>();
+
+        for(TenantPartition partition : this.allPartitions())
+        {
+            allTokens.putAll(partition.getTokens());
+        }
+        return allTokens;
+    }
+
+    /**
+     * Getter for the number of tokens held in every partition
+     * @return  int The number of tokens
+     */
+    public int getTokenCount()
+    {
+        int count = 0;
+
+        for(TenantPartition partition : this.allPartitions())
+        {
+            count += partition.getTokens().size();
+        }
+        return count;
+    }
+
+    /**
+     * Getter for the partition of a store
+     * @param storeId   String  The store Id, or null for the global partition
+     * @return  TenantPartition The partition, or null if no user of that store has been created
+     */
+    public TenantPartition getPartition(String storeId)
+    {
+        return storeId == null ? this.globalPartition : this.partitions.get(storeId);
+    }
+
+    /**
+     * Register a user with the service and with the partition of their store, creating the partition if needed. The
+     * partition's snapshot is not rebuilt here.
+     * @param user  User    The new user
+     * @return  User    The same user
+     */
+    private User addUser(User user)
+    {
+        TenantPartition partition = user.getStoreId() == null ? this.globalPartition :
+                this.partitions.computeIfAbsent(user.getStoreId(), storeId -> new TenantPartition(storeId,
+                        DECISION_CACHE_MAX_TOKENS, DECISION_CACHE_TTL_MILLIS, this.entitlementVersion));
+
+        this.users.put(user.getUserId(), user);
+        partition.getUsers().put(user.getUserId(), user);
+        this.indexInventory(InventorySectionEnum.USER, user.getUserId(), user);
+        return user;
+    }
+
+    /**
+     * Check whether a user holds a permission in the current entitlement snapshot of their partition. Reads no role
+     * or user state that a change may be writing, so it needs no lock and never sees a half-applied change.
+     * @param user  User    The user
+     * @param ordinal   int The ordinal of the permission to check
+     * @return  boolean True if the user held the permission when the current snapshot was published
+     */
+    public boolean hasPermission(User user, int ordinal)
+    {
+        return user != null &&
+                this.partitionOf(user).getEntitlementSnapshot().hasPermission(user.getUserId(), ordinal);
+    }
+
+    /**
+     * Find the partition holding a user and their tokens with one map lookup
+     * @param user  User    The user, or null
+     * @return  TenantPartition The user's store partition, or the global partition if the user belongs to no store
+     */
+    private TenantPartition partitionOf(User user)
+    {
+        if(user == null || user.getStoreId() == null)
+        {
+            return this.globalPartition;
+        }
+
+        TenantPartition partition = this.partitions.get(user.getStoreId());
+        return partition == null ? this.globalPartition : partition;
+    }
+
+    /**
+     * Find the partition holding an access token, from the user the token names
+     * @param accessToken   AccessToken The access token, or null
+     * @return  TenantPartition The partition to look the token up in
+     */
+    private TenantPartition partitionOf(AccessToken accessToken)
+    {
+        return this.partitionOf(accessToken == null ? null : accessToken.getUser());
+    }
+
+    /**
+     * List the global partition followed by every store partition
+     * @return  List    Every partition
+     */
+    private List<TenantPartition> allPartitions()
+    {
+        ArrayList<TenantPartition> all = new ArrayList<TenantPartition>(this.partitions.size() + 1);
+
+        all.add(this.globalPartition);
+        all.addAll(this.partitions.values());
+        return all;
+    }
+
+
+    /**
+     * Verify that the AccessToken provided has access to the Permission whose id is also provided. The token is found
+     * by its token Id with a single map lookup, its secret is compared in constant time, and then its state, expiration
+     * and permissions are checked. Validation cost does not depend on how many tokens have been issued. A grant that
+     * was recently verified for the same token and permission is answered from the decision cache.
+     * @param accessToken   AccessToken The access token which is to be verified
+     * @param permission    Permission  The permission to which this method will verify the token has access
+     * @throws InvalidAccessTokenException  Exception   Thrown when there is any issue with the AccessToken
+     */
+    public void checkAccess(AccessToken accessToken, Permission permission) throws InvalidAccessTokenException
+    {
+        this.expireTokens();
+        long now = System.currentTimeMillis();
+        TenantPartition partition = this.partitionOf(accessToken);
+        EntitlementSnapshot snapshot = partition.getEntitlementSnapshot();
+
+        if(accessToken == null || accessToken.getUser() == null || permission == null ||
+                !partition.getDecisionCache().isGranted(accessToken, permission, now,
+                        snapshot.getRevision(accessToken.getUser().getUserId())))
+        {
+            AccessToken issuedToken = this.resolveToken(accessToken);
+
+            if(issuedToken == null || permission == null ||
+                    !snapshot.hasPermission(issuedToken.getUser().getUserId(), permission.getOrdinal()))
+            {
+                this.auditAccess(AuditEventTypeEnum.ACCESS_DENIED, accessToken, permission);
+                throw new InvalidAccessTokenException("checkAccess method in AuthenticationService failed",
+                        "Issue with Access Token",
+                        accessToken);
+            }
+
+            if(this.slidingRefresh)
+            {
+                issuedToken.refreshExpiration(now);
+            }
+            partition.getDecisionCache().recordGrant(issuedToken, permission, now,
+                    snapshot.getRevision(issuedToken.getUser().getUserId()));
+        }
+        else if(this.slidingRefresh)
+        {
+            AccessToken issuedToken = partition.getTokens().get(accessToken.getTokenId());
+            if(issuedToken != null)
+            {
+                issuedToken.refreshExpiration(now);
+            }
+        }
+
+        this.auditAccess(AuditEventTypeEnum.ACCESS_GRANTED, accessToken, permission);
+        System.out.println("VERIFIED THAT THE TOKEN " + accessToken.getToken() + " ENABLES THE PERMISSION " +
+                permission.getId());
+        System.out.println("ACCESS VERIFIED" + "\n");
+    }
+
+    /**
+     * Verify that the AccessToken provided has access to the Permission on one resource. The permission may be held
+     * globally, or through a ResourceRole bound to the resource. Resource scoped permissions are indexed by resource
+     * in the entitlement snapshot, so the check costs the same however many resources and resource roles exist.
+     * @param accessToken   AccessToken The access token which is to be verified
+     * @param permission    Permission  The permission to which this method will verify the token has access
+     * @param resourceId    String  The Id of the resource the access is for
+     * @throws InvalidAccessTokenException  Exception   Thrown when there is any issue with the AccessToken
+     */
+    public void checkAccess(AccessToken accessToken, Permission permission, String resourceId)
+            throws InvalidAccessTokenException
+    {
+        this.expireTokens();
+        EntitlementSnapshot snapshot = this.partitionOf(accessToken).getEntitlementSnapshot();
+        AccessToken issuedToken = this.resolveToken(accessToken);
+
+        if(issuedToken == null || permission == null ||
+                !snapshot.hasPermission(issuedToken.getUser().getUserId(), permission.getOrdinal(), resourceId))
+        {
+            this.auditAccess(AuditEventTypeEnum.ACCESS_DENIED, accessToken, permission);
+            throw new InvalidAccessTokenException("checkAccess method in AuthenticationService failed",
+                    "Issue with Access Token",
+                    accessToken);
+        }
+
+        if(this.slidingRefresh)
+        {
+            issuedToken.refreshExpiration(System.currentTimeMillis());
+        }
+        this.auditAccess(AuditEventTypeEnum.ACCESS_GRANTED, issuedToken, permission);
+        System.out.println("VERIFIED THAT THE TOKEN " + issuedToken.getToken() + " ENABLES THE PERMISSION " +
+                permission.getId() + " ON RESOURCE " + resourceId);
+        System.out.println("ACCESS VERIFIED" + "\n");
+    }
+
+    /**
+     * Getter for the resource roles bound to a resource
+     * @param resourceId    String  The resource Id
+     * @return  List    The ResourceRoles bound to the resource, empty if there are none
+     */
+    public List<ResourceRole> getResourceRoles(String resourceId)
+    {
+        List<ResourceRole> resourceRoles = this.resourceRolesByResource.get(resourceId);
+
+        return resourceRoles == null ? new ArrayList<ResourceRole>() : resourceRoles;
+    }
+
+    /**
+     * Verify that the AccessToken provided is valid and find which of the given permissions it enables. The token is
+     * resolved once and all permissions are checked together against the current entitlement snapshot, so a caller
+     * needing several permissions for one event pays for one check. Each permission is audited as granted or denied.
+     * @param accessToken   AccessToken The access token which is to be verified
+     * @param permissions   Set The permissions to check
+     * @return  PermissionBitSet    Bitmap of the ordinals of the given permissions that the token enables
+     * @throws InvalidAccessTokenException  Exception   Thrown when the AccessToken is unknown, inactive or expired
+     */
+    public PermissionBitSet checkAccessAll(AccessToken accessToken, Set<Permission> permissions)
+            throws InvalidAccessTokenException
+    {
+        this.expireTokens();
+        EntitlementSnapshot snapshot = this.partitionOf(accessToken).getEntitlementSnapshot();
+        AccessToken issuedToken = this.resolveToken(accessToken);
+
+        if(issuedToken == null || permissions == null)
+        {
+            if(permissions != null)
+            {
+                for(Permission permission : permissions)
+                {
+                    this.auditAccess(AuditEventTypeEnum.ACCESS_DENIED, accessToken, permission);
+                }
+            }
+            throw new InvalidAccessTokenException("checkAccessAll method in AuthenticationService failed",
+                    "Issue with Access Token",
+                    accessToken);
+        }
+
+        PermissionBitSet requested = new PermissionBitSet();
+        for(Permission permission : permissions)
+        {
+            if(permission != null)
+            {
+                requested.add(permission.getOrdinal());
+            }
+        }
+
+        PermissionBitSet granted = snapshot.getGrantedPermissions(issuedToken.getUser().getUserId(), requested);
+
+        for(Permission permission : permissions)
+        {
+            this.auditAccess(permission != null && granted.contains(permission.getOrdinal()) ?
+                    AuditEventTypeEnum.ACCESS_GRANTED : AuditEventTypeEnum.ACCESS_DENIED, issuedToken, permission);
+        }
+
+        if(this.slidingRefresh)
+        {
+            issuedToken.refreshExpiration(System.currentTimeMillis());
+        }
+        System.out.println("VERIFIED THAT THE TOKEN " + issuedToken.getToken() + " ENABLES " + granted.size() +
+                " OF " + permissions.size() + " PERMISSIONS");
+
+        return granted;
+    }
+
+    /**
+     * Select the access tokens that enable the given permission, for example the staff devices that may receive an
+     * announcement. Every token is resolved and checked against the entitlement snapshot of its partition in one pass. Tokens
+     * that are unknown, inactive or expired are left out rather than reported as errors. Each token is audited as
+     * granted or denied.
+     * @param accessTokens  Collection  The access tokens to filter
+     * @param permission    Permission  The permission the tokens must enable
+     * @return  List    The given tokens that are valid and enable the permission, in their original order
+     */
+    public List<AccessToken> filterAuthorized(Collection<AccessToken> accessTokens, Permission permission)
+    {
+        this.expireTokens();
+        ArrayList<AccessToken> authorized = new ArrayList<AccessToken>();
+
+        if(accessTokens == null || permission == null)
+        {
+            return authorized;
+        }
+
+        for(AccessToken accessToken : accessTokens)
+        {
+            AccessToken issuedToken = this.resolveToken(accessToken);
+
+            if(issuedToken != null && this.partitionOf(issuedToken).getEntitlementSnapshot()
+                    .hasPermission(issuedToken.getUser().getUserId(), permission.getOrdinal()))
+            {
+                authorized.add(accessToken);
+                this.auditAccess(AuditEventTypeEnum.ACCESS_GRANTED, issuedToken, permission);
+            }
+            else
+            {
+                this.auditAccess(AuditEventTypeEnum.ACCESS_DENIED, accessToken, permission);
+            }
+        }
+
+        System.out.println("VERIFIED THAT " + authorized.size() + " OF " + accessTokens.size() +
+                " TOKENS ENABLE THE PERMISSION " + permission.getId());
+
+        return authorized;
+    }
 
     /**
-     * Top level root role
+     * Turn sliding refresh of token expiration on or off. When on, a token that is used after half of its expiration
+     * period has passed gets a full period from the time of use.
+     * @param slidingRefresh    boolean True to turn sliding refresh on
      */
-    private Role rootRole;
+    public void setSlidingRefresh(boolean slidingRefresh)
+    {
+        this.slidingRefresh = slidingRefresh;
+    }
 
     /**
-     * The authentication system root user with all permissions obtained with top level rootPermission Entitlement
+     * Turn issuing of signed access tokens on or off. When on, every token issued at login also carries a signed form
+     * holding the user's permissions, which StoreModelService and StoreControllerService verify locally.
+     * @param signedTokens  boolean True to issue signed tokens
      */
-    private User rootUser;
+    public void setSignedTokens(boolean signedTokens)
+    {
+        this.signedTokens = signedTokens;
+    }
 
     /**
-     * The automated system, such as Store Model Service, as a user too
+     * Getter for the authority that signs and verifies signed access tokens
+     * @return  SignedTokenAuthority    The signed token authority
      */
-    private User storeSystemAutomatedUser;
+    public SignedTokenAuthority getSignedTokenAuthority()
+    {
+        return this.signedTokenAuthority;
+    }
 
     /**
-     * Constant value for default root password, to be changed in a functioning system to obtain from other sources.
-     * Passwords for systems in production must not be stored in the code repository.
+     * Verify the signed form of an access token locally, without looking the token up. A grant is recorded in the
+     * audit log like one made by checkAccess. A token the signed token authority cannot vouch for is neither granted
+     * nor audited here; the caller falls back to checkAccess, which records the decision.
+     * @param accessToken   AccessToken The access token to verify
+     * @param permission    Permission  The permission the token must enable
+     * @return  boolean True if the signed token is authentic, current and enables the permission
      */
-    final static private String ROOT_PASSWORD_STRING = "default";
+    public boolean verifySignedToken(AccessToken accessToken, Permission permission)
+    {
+        if(accessToken == null || accessToken.getSignedToken() == null ||
+                !this.signedTokenAuthority.verify(accessToken.getSignedToken(), permission, System.currentTimeMillis()))
+        {
+            return false;
+        }
 
-    /**
-     * Constant value for automated system password, to be changed in a functioning system to obtain from other sources.
-     * Passwords for systems in production must not be stored in the code repository.
-     */
-    final static private String STORE_SYSTEM_PASSWORD_STRING = "automated-system-password";
+        this.auditAccess(AuditEventTypeEnum.ACCESS_GRANTED, accessToken, permission);
+        return true;
+    }
 
     /**
-     * Constant value for default user password, to be changed in a functioning system to obtain from other sources.
-     * Passwords for systems in production must not be stored in the code repository.
+     * Rebuild the entitlement snapshot of every partition from scratch, after the entitlement graph has been restored.
+     * Every partition drops its cached decisions, and signed tokens issued before no longer verify locally. Called with
+     * the service lock held.
      */
-    final static private String DEFAULT_USER_PASSWORD_STRING = "user-password";
+    private void entitlementsChanged()
+    {
+        this.entitlementVersion++;
+
+        for(TenantPartition partition : this.allPartitions())
+        {
+            partition.rebuildEntitlements(this.entitlementVersion);
+            this.publishEntitlementVersion(partition);
+        }
+    }
 
     /**
-     * For Singleton pattern - Create only 1 instance of this AuthenticationService.
+     * Record a change to the entitlements of one user. Only the user's entry in the user's partition is computed
+     * again, so the checks, cached decisions and signed tokens of other partitions are not disturbed. Called with the
+     * service lock held.
+     * @param user  User    The user whose entitlements changed
      */
-    public static AuthenticationService singletonInstance;
+    private void entitlementsChanged(User user)
+    {
+        TenantPartition partition = this.partitionOf(user);
+        this.entitlementVersion++;
+
+        partition.updateEntitlements(this.entitlementVersion, Collections.singletonList(user));
+        this.publishEntitlementVersion(partition);
+    }
 
     /**
-     * Static block to initialize a Singleton instance. Lazy initialization: Object is created only if it is needed.
-     * This may prevent resource wastage. Use the getInstance method to get an instance of the Authentication service.
-     * @return  AuthenticationService   A Singleton object of type AuthenticationService
+     * Record a change to a role shared by the partitions. Only the users holding a role whose permissions the change
+     * affects are computed again, each in their own partition. Those roles are the changed role, the roles including
+     * it, and the resource roles scoping any of these to a resource, together with the roles including those in turn.
+     * Called with the service lock held.
+     * @param role  Role    The role whose children changed
      */
-    public static AuthenticationService getInstance() {
-        if(singletonInstance == null)
+    private void entitlementsChanged(Role role)
+    {
+        HashMap<Role, List<ResourceRole>> resourceRolesByRole = new HashMap<Role, List<ResourceRole>>();
+        for(ResourceRole resourceRole : this.resourceRoles.values())
         {
-            singletonInstance = new AuthenticationService();
+            resourceRolesByRole.computeIfAbsent(resourceRole.getRole(), key -> new ArrayList<ResourceRole>())
+                    .add(resourceRole);
         }
-        return singletonInstance;
-    }
 
-    /**
-     * Private constructor for AuthenticationService so that it can only be instantiated as part of the Singleton
-     * pattern getInstance method.
-     */
-    private AuthenticationService(){
-        this.permissions = new HashMap<String, Permission>();
-        this.roles = new HashMap<String, Role>();
-        this.resourceRoles = new HashMap<String, ResourceRole>();
-        this.users = new HashMap<String, User>();
-        this.resources = new HashMap<String, Resource>();
-        this.tokens = new HashMap<String, AccessToken>();
+        Set<Role> affectedRoles = Collections.newSetFromMap(new IdentityHashMap<Role, Boolean>());
+        ArrayDeque<Role> pending = new ArrayDeque<Role>();
+        pending.push(role);
 
-        // Define permission to create, delete, update entitlements with roles and permissions
-        this.entitlementAdminPermission = new Permission("entitlement_admin_permission",
-                "Entitlement Admin Permission","Create, Update, Delete Entitlements");
-        this.permissions.put(this.entitlementAdminPermission.getId(), this.entitlementAdminPermission);
-        System.out.println("DEFINED ENTITLEMENT ADMIN PERMISSION " + this.entitlementAdminPermission);
+        while(!pending.isEmpty())
+        {
+            for(Role includingRole : pending.pop().findIncludingRoles())
+            {
+                if(affectedRoles.add(includingRole))
+                {
+                    resourceRolesByRole.getOrDefault(includingRole, Collections.<ResourceRole>emptyList())
+                            .forEach(pending::push);
+                }
+            }
+        }
 
-        // Define root role
-        this.rootRole = new Role("entitlement_admin_role", "Authentication Admin Role", "Root Role");
-        this.roles.put(rootRole.getId(), rootRole);
-        System.out.println("DEFINED ADMIN OR ROOT ROLE " + rootRole);
+        HashMap<TenantPartition, Set<User>> affectedUsers = new HashMap<TenantPartition, Set<User>>();
+        for(Role affectedRole : affectedRoles)
+        {
+            for(User user : this.roleHolders.getOrDefault(affectedRole, Collections.<User>emptySet()))
+            {
+                affectedUsers.computeIfAbsent(this.partitionOf(user), partition -> new HashSet<User>()).add(user);
+            }
+        }
 
-        // Assign permissions to the root role to be both root and entitlement admin
-        this.rootRole.addEntitlement(entitlementAdminPermission);
-        System.out.println("ASSIGNED ROOT ROLE AND THE ENTITLEMENT ADMIN PERMISSIONS");
+        if(affectedUsers.isEmpty())
+        {
+            return;
+        }
 
-        // Define root user, with password credentials
-        this.rootUser = new User("root", "Root User");
-        this.users.put(this.rootUser.getUserId(), this.rootUser);
-        this.rootUser.addCredential(new Credential(UUID.randomUUID().toString(), ROOT_PASSWORD_STRING,
-                CredentialTypeEnum.PASSWORD));
-        this.rootUser.addEntitlement(this.rootRole);
-        System.out.println("DEFINED ROOT USER WITH PASSWORD CREDENTIALS AND ROOT ROLE ENTITLEMENT");
+        this.entitlementVersion++;
+        affectedUsers.forEach((partition, users) -> {
+            partition.updateEntitlements(this.entitlementVersion, users);
+            this.publishEntitlementVersion(partition);
+        });
     }
 
     /**
-     * Getter for all permissions in this authentication service
-     * @return  HashMap Mapping of permission names to Permission objects
+     * Tell the signed token authority the version of a partition's current snapshot, so tokens of its store signed
+     * under an older version stop verifying locally while tokens of other stores are unaffected
+     * @param partition TenantPartition The partition whose snapshot changed
      */
-    public HashMap<String, Permission> getPermissions() { return this.permissions; }
+    private void publishEntitlementVersion(TenantPartition partition)
+    {
+        this.signedTokenAuthority.setEntitlementVersion(partition.getStoreId(),
+                partition.getEntitlementSnapshot().getVersion());
+    }
 
     /**
-     * Getter method for get the list of all users for whom AuthenticationService accounts have been created
-     * @return  Hashmap Mapping of userIds to User objects
+     * Give a user an entitlement and index the user as a holder of it. Called with the service lock held.
+     * @param user  User    The user
+     * @param entitlement   Entitlement The role or permission granted
      */
-    public HashMap<String, User> getUsers()
+    private void grantEntitlement(User user, Entitlement entitlement)
     {
-        return this.users;
+        user.addEntitlement(entitlement);
+
+        if(entitlement instanceof Role)
+        {
+            this.roleHolders.computeIfAbsent((Role) entitlement, key -> new HashSet<User>()).add(user);
+        }
     }
 
     /**
-     * Getter method for get the list of all tokens in AuthenticationService
-     * @return  Hashmap Mapping of tokenIds to AccessToken objects
+     * Advance the token timing wheels to the current time. Active tokens past their expiration are marked inactive,
+     * and inactive tokens past their grace period are removed from tokens. Tokens whose expiration was extended by
+     * sliding refresh are scheduled again. Called from login, logout and checkAccess, so the map of tokens stays
+     * bounded by the tokens issued within one expiration period plus the grace period. If another thread is already
+     * advancing the wheels this call returns at once rather than wait.
      */
-    public HashMap<String, AccessToken> getTokens()
+    public void expireTokens()
     {
-        return this.tokens;
-    }
+        if(!this.tokenWheelLock.tryLock())
+        {
+            return;
+        }
 
+        try
+        {
+            this.advanceTokenWheels(System.currentTimeMillis());
+        }
+        finally
+        {
+            this.tokenWheelLock.unlock();
+        }
+    }
 
     /**
-     * Verify that the AccessToken provided has access to the Permission whose id is also provided. Visitor pattern
-     * implementation of CheckAccessVisitor is utilized to perform this verification.
-     * @param accessToken   AccessToken The access token which is to be verified
-     * @param permission    Permission  The permission to which this method will verify the token has access
-     * @throws InvalidAccessTokenException  Exception   Thrown when there is any issue with the AccessToken
+     * Advance the token timing wheels to the given time. Called with the token wheel lock held.
+     * @param now   long    Current time in milliseconds
      */
-    public void checkAccess(AccessToken accessToken, Permission permission) throws InvalidAccessTokenException
+    private void advanceTokenWheels(long now)
     {
-        CheckAccessVisitor checkAccessVisitor = new CheckAccessVisitor(accessToken, permission);
 
-        this.tokens.forEach((key, value) -> {
-            value.acceptVisitor(checkAccessVisitor);
+        this.tokenExpiryWheel.advance(now, token -> {
+            if(token.getTokenState() != AccessTokenStateEnum.ACTIVE)
+            {
+                return;
+            }
+
+            if(token.getExpiration().getTime() > now)
+            {
+                this.tokenExpiryWheel.schedule(token, token.getExpiration().getTime());
+                return;
+            }
+
+            token.setTokenState(AccessTokenStateEnum.INACTIVE);
+            this.partitionOf(token).getDecisionCache().invalidateToken(token.getTokenId());
+            token.getUser().removeAccessToken(token);
+            this.tokenReclaimWheel.schedule(token, now + TOKEN_RECLAIM_GRACE_MILLIS);
+        });
+
+        this.tokenReclaimWheel.advance(now, token -> {
+            if(token.getTokenState() != AccessTokenStateEnum.ACTIVE)
+            {
+                this.partitionOf(token).getTokens().remove(token.getTokenId());
+                this.inventoryIndex.get(InventorySectionEnum.TOKEN).remove(token.getTokenId(), token);
+            }
         });
+    }
+
+    /**
+     * Find the issued token matching the presented token. The presented token's secret must match the issued one,
+     * and the issued token must be active and not yet expired.
+     * @param accessToken   AccessToken The access token presented by the caller
+     * @return  AccessToken The issued token, or null if the presented token is unknown, inactive or expired
+     */
+    private AccessToken resolveToken(AccessToken accessToken)
+    {
+        if(accessToken == null)
+        {
+            return null;
+        }
 
-        if(checkAccessVisitor.doesUserHaveAccess() == false)
+        AccessToken issuedToken = this.partitionOf(accessToken).getTokens().get(accessToken.getTokenId());
+
+        if(issuedToken == null ||
+                !MessageDigest.isEqual(issuedToken.getToken().getBytes(StandardCharsets.UTF_8),
+                        accessToken.getToken().getBytes(StandardCharsets.UTF_8)) ||
+                issuedToken.getTokenState() != AccessTokenStateEnum.ACTIVE ||
+                issuedToken.getExpiration().compareTo(new Date()) <= 0)
         {
-            throw new InvalidAccessTokenException("checkAccess method in AuthenticationService failed",
-                    "Issue with Access Token",
-                    accessToken);
+            return null;
         }
-        System.out.println("ACCESS VERIFIED" + "\n");
+
+        return issuedToken;
     }
 
 
@@ -200,7 +1087,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify that this token is eligible to create new permissions
      * @throws AuthenticationException  Exception   Thrown when there is any issue with the AccessToken
      */
-    public void definePermission(String permissionid, String name, String description, AccessToken token)
+    public synchronized void definePermission(String permissionid, String name, String description, AccessToken token)
             throws AuthenticationException {
         try
         {
@@ -231,11 +1118,16 @@ public class AuthenticationService implements iVisitableElement{
                     "Role with this ID already exists", permissionid);
         }
 
-        Permission newPermission = new Permission(permissionid, name, description);
+        this.persist("definePermission method in AuthenticationService", permissionid, EntitlementStore.PERMISSION,
+                permissionid, name, description);
+        Permission newPermission = new Permission(permissionid, name, description, this.permissionsByOrdinal.size());
         this.permissions.put(newPermission.getId(), newPermission);
+        this.permissionsByOrdinal.add(newPermission);
+        this.indexInventory(InventorySectionEnum.PERMISSION, newPermission.getId(), newPermission);
 
         // Add the new permission to the tree under rootRole
         this.rootRole.addEntitlement(newPermission);
+        this.entitlementsChanged(this.rootRole);
         System.out.println("SUCCESS!!! NEW PERMISSION CREATED: " + newPermission + "\n\n");
     }
 
@@ -247,7 +1139,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify eligibility to define a new Role
      * @throws AuthenticationException  Thrown if the token is invalid, or if a Role with the provided Id already exists
      */
-    public void defineRole(String roleId, String name, String description, AccessToken token)
+    public synchronized void defineRole(String roleId, String name, String description, AccessToken token)
             throws AuthenticationException {
         try
         {
@@ -278,21 +1170,27 @@ public class AuthenticationService implements iVisitableElement{
                     "Permission with this ID already exists", roleId);
         }
 
+        this.persist("defineRole method in AuthenticationService", roleId, EntitlementStore.ROLE, roleId, name,
+                description);
         Role newRole = new Role(roleId, name, description);
         this.roles.put(newRole.getId(), newRole);
+        this.indexInventory(InventorySectionEnum.ROLE, newRole.getId(), newRole);
 
         this.rootRole.addEntitlement(newRole);
+        this.entitlementsChanged(this.rootRole);
         System.out.println("SUCCESS!!! NEW ROLE CREATED: " + newRole);
     }
 
     /**
-     * Add permission to a role
+     * Add permission to a role. The Id may also name another role, which makes that role a child of this one. Roles
+     * must form a directed acyclic graph, so a role that already includes this role is refused.
      * @param roleId    String  The role Id provided
-     * @param permissionId  String The permission Id provided
+     * @param permissionId  String The permission Id provided, or the Id of a child role
      * @param token AccessToken The access token to verify eligibility to perform this action
-     * @throws AuthenticationException  Thrown if the access token is invalid or if the role or permission don't exist.
+     * @throws AuthenticationException  Thrown if the access token is invalid, if the role or permission don't exist,
+     * or if the child role would make a cycle.
      */
-    public void addPermissionToRole(String roleId, String permissionId, AccessToken token)
+    public synchronized void addPermissionToRole(String roleId, String permissionId, AccessToken token)
             throws AuthenticationException {
         try
         {
@@ -319,26 +1217,54 @@ public class AuthenticationService implements iVisitableElement{
                     "Role does not exist", roleId);
         }
 
-        Permission permission = this.permissions.get(permissionId);
-        if(permission == null)
+        Entitlement entitlement = this.permissions.get(permissionId);
+        if(entitlement == null)
+        {
+            entitlement = this.roles.get(permissionId);
+        }
+        if(entitlement == null)
         {
             throw new AuthenticationException("addPermissionToRole method in AuthenticationService",
                     "Permission does not exist", permissionId);
         }
 
-        role.addEntitlement(permission);
+        if(entitlement instanceof Role && ((Role) entitlement).includes(role))
+        {
+            throw new AuthenticationException("addPermissionToRole method in AuthenticationService",
+                    "Role would create a cycle", permissionId);
+        }
+
+        this.persist("addPermissionToRole method in AuthenticationService", permissionId, EntitlementStore.ROLE_CHILD,
+                roleId, permissionId);
+        role.addEntitlement(entitlement);
+        this.entitlementsChanged(role);
+        this.audit(AuditEventTypeEnum.GRANT, null, roleId + AuditRecord.GRANT_SEPARATOR + permissionId);
         System.out.println("SUCCESS!!! PERMISSION " + permissionId + " ADDED TO ROLE " + roleId + "\n");
         System.out.println(role);
     }
 
     /**
-     * Define a new User
+     * Define a new User who belongs to no store
      * @param userId    String  The user Id to use
      * @param name  String  The name to use for the user
      * @param token Access Token    The access token to verify eligibility to perform this action
      * @throws AuthenticationException  Thrown if the access token is invalid or if the user Id already exists
      */
     public void createUser(String userId, String name, AccessToken token) throws AuthenticationException {
+        this.createUser(userId, name, null, token);
+    }
+
+    /**
+     * Define a new User belonging to a store. The user, their tokens and their entitlement snapshot are kept in the
+     * store's partition, which is created with the store's first user.
+     * @param userId    String  The user Id to use
+     * @param name  String  The name to use for the user
+     * @param storeId   String  The Id of the store the user belongs to, or null for none
+     * @param token Access Token    The access token to verify eligibility to perform this action
+     * @throws AuthenticationException  Thrown if the access token is invalid or if the user Id already exists
+     */
+    public synchronized void createUser(String userId, String name, String storeId, AccessToken token)
+            throws AuthenticationException {
         try
         {
             if(token.getUser().getUserId().equals("root"))
@@ -360,8 +1286,10 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("createUser method in AuthenticationService", "User Id Already Exists", userId);
         }
 
-        User newUser = new User(userId, name);
-        this.users.put(newUser.getUserId(), newUser);
+        this.persist("createUser method in AuthenticationService", userId, EntitlementStore.USER, userId, name,
+                storeId);
+        User newUser = this.addUser(new User(userId, name, storeId));
+        this.entitlementsChanged(newUser);
         System.out.println("SUCCESS!!! NEW USER CREATED: " + newUser + "\n\n");
     }
 
@@ -373,7 +1301,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify eligibility to perform this action
      * @throws AuthenticationException  Thrown when the token is invalid or if there is not such user
      */
-    public void addUserCredential(String userId, String credentialValue, CredentialTypeEnum credentialType,
+    public synchronized void addUserCredential(String userId, String credentialValue, CredentialTypeEnum credentialType,
                                   AccessToken token) throws AuthenticationException {
         try
         {
@@ -398,11 +1326,65 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("addUserCredential method in AuthenticationService", "No such user", userId);
         }
 
-        user.addCredential(new Credential(UUID.randomUUID().toString(), credentialValue, credentialType));
+        Credential credential = new Credential(UUID.randomUUID().toString(), credentialValue, credentialType);
+        this.persist("addUserCredential method in AuthenticationService", userId, EntitlementStore.CREDENTIAL, userId,
+                credential.getID(), credentialType.name(), credential.getHashedCredential(), credential.getTemplate());
+        user.addCredential(credential);
+        this.indexCredential(user, credential);
 
         System.out.println("SUCCESS!!! CREDENTIAL " + credentialValue + " ADDED TO USER " + userId + "\n\n");
     }
 
+    /**
+     * Add a biometric credential to the biometric credential index, and its template, if it has one, to the template
+     * index of its type. Passwords are not indexed.
+     * @param user  User    The user holding the credential
+     * @param credential    Credential  The credential to index
+     */
+    private void indexCredential(User user, Credential credential)
+    {
+        ConcurrentHashMap<String, User> biometricIndex =
+                this.biometricCredentialIndex.get(credential.getCredentialType());
+        if(biometricIndex == null)
+        {
+            return;
+        }
+
+        biometricIndex.put(credential.getHashedCredential(), user);
+
+        float[] template = credential.getTemplate() == null ? null :
+                BiometricTemplateIndex.parseTemplate(credential.getTemplate());
+        if(template != null)
+        {
+            this.biometricTemplateIndexes.computeIfAbsent(credential.getCredentialType(),
+                    type -> new BiometricTemplateIndex(template.length, BIOMETRIC_INDEX_TABLES,
+                            BIOMETRIC_INDEX_BITS, type.ordinal())).add(template, user);
+        }
+    }
+
+    /**
+     * Remove the credentials of a user from the biometric credential index and the template indexes, before they are
+     * replaced. Index entries that now belong to another user are left alone.
+     * @param user  User    The user whose credentials are removed
+     */
+    private void unindexCredentials(User user)
+    {
+        for(Credential credential : user.getCredentials().values())
+        {
+            ConcurrentHashMap<String, User> biometricIndex =
+                    this.biometricCredentialIndex.get(credential.getCredentialType());
+            if(biometricIndex != null)
+            {
+                biometricIndex.remove(credential.getHashedCredential(), user);
+            }
+        }
+
+        for(BiometricTemplateIndex templateIndex : this.biometricTemplateIndexes.values())
+        {
+            templateIndex.remove(user);
+        }
+    }
+
     /**
      * Method to add a given role to a given user
      * @param userId    String  The user Id to use
@@ -410,7 +1392,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify eligibility to perform this action
      * @throws AuthenticationException  Thrown if the access token is invalid or if there is no such role or user
      */
-    public void addRoleToUser(String userId, String roleId, AccessToken token) throws AuthenticationException {
+    public synchronized void addRoleToUser(String userId, String roleId, AccessToken token) throws AuthenticationException {
         try
         {
             if(token.getUser().getUserId().equals("root"))
@@ -440,7 +1422,11 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("addRoleToUser method in AuthenticationService", "No such role", roleId);
         }
 
-        user.addEntitlement(role);
+        this.persist("addRoleToUser method in AuthenticationService", roleId, EntitlementStore.USER_ENTITLEMENT, userId,
+                roleId);
+        this.grantEntitlement(user, role);
+        this.entitlementsChanged(user);
+        this.audit(AuditEventTypeEnum.GRANT, userId, roleId);
 
         System.out.println("SUCCESS!!! ENTITLEMENT ROLE " + roleId + " ADDED TO USER " + userId + "\n\n");
     }
@@ -450,27 +1436,247 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify whether the requester has permissions for this method
      * @throws AuthenticationException  Thrown if the access token is invalid or if there is no such role or user
      */
-    public void printInventory(AccessToken token) throws AuthenticationException {
-        try
+    public void printInventory(AccessToken token) throws AuthenticationException {
+        try
+        {
+            if(token.getUser().getUserId().equals("root"))
+            {
+                this.checkAccess(token, this.entitlementAdminPermission);
+            }
+            else
+            {
+                this.checkAccess(token, this.permissions.get("read_entitlement"));
+            }
+        }
+        catch (InvalidAccessTokenException e)
+        {
+            throw new AuthenticationException("addRoleToUser method in AuthenticationService", "Invalid Access Token",
+                    token.getTokenId());
+        }
+
+        InventoryVisitor inventoryVisitor = new InventoryVisitor();
+        this.rootRole.acceptVisitor(inventoryVisitor);
+        this.acceptVisitor(inventoryVisitor);
+    }
+
+    /**
+     * Write one page of the inventory to a Writer as JSON Lines, one line per permission, role, resource role,
+     * resource, user or access token. Sections are exported in InventorySectionEnum order and elements within a
+     * section in Id order. Each page starts with a seek to the cursor in the Id ordered index of its section. The page
+     * is chosen and rendered while holding the service lock, and written to the caller only after the lock is
+     * released, so a slow reader never holds up other changes. Credential hashes and token secrets are never written.
+     * @param writer    Writer  Where the lines are written. It is flushed but not closed.
+     * @param sections  Set The sections to export
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param cursor    String  The cursor returned with the previous page, or null for the first page
+     * @param limit int Largest number of lines to write
+     * @param token AccessToken The access token to verify eligibility to perform this action
+     * @return  String  The cursor to pass for the next page, or null if the export is complete
+     * @throws AuthenticationException  Thrown if the access token is invalid or the cursor is malformed
+     * @throws IOException  Thrown if the lines cannot be written
+     */
+    public String exportInventory(Writer writer, Set<InventorySectionEnum> sections, boolean activeTokensOnly,
+                                  String cursor, int limit, AccessToken token)
+            throws AuthenticationException, IOException
+    {
+        try
+        {
+            if(token.getUser().getUserId().equals("root"))
+            {
+                this.checkAccess(token, this.entitlementAdminPermission);
+            }
+            else
+            {
+                this.checkAccess(token, this.permissions.get("read_entitlement"));
+            }
+        }
+        catch (InvalidAccessTokenException e)
+        {
+            throw new AuthenticationException("exportInventory method in AuthenticationService",
+                    "Invalid Access Token", token.getTokenId());
+        }
+
+        InventorySectionEnum startSection = InventorySectionEnum.PERMISSION;
+        String after = null;
+        if(cursor != null)
+        {
+            int separator = cursor.indexOf(':');
+            try
+            {
+                startSection = InventorySectionEnum.valueOf(cursor.substring(0, Math.max(separator, 0)));
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new AuthenticationException("exportInventory method in AuthenticationService",
+                        "Malformed cursor", cursor);
+            }
+            after = cursor.substring(separator + 1);
+        }
+
+        StringWriter page = new StringWriter();
+        String nextCursor = this.renderInventoryPage(page, sections, activeTokensOnly, startSection, after,
+                Math.max(limit, 1));
+
+        writer.write(page.toString());
+        writer.flush();
+
+        return nextCursor;
+    }
+
+    /**
+     * Choose one page of the inventory and render it as JSON Lines. Holding the service lock keeps the roles and
+     * users on the page from changing while their lines are built.
+     * @param page  StringWriter    Receives the lines
+     * @param sections  Set The sections to export
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param startSection  InventorySectionEnum    The section the page starts in
+     * @param after String  The Id after which the page starts within startSection, or null to start at its first Id
+     * @param limit int Largest number of lines to render
+     * @return  String  The cursor to pass for the next page, or null if the export is complete
+     */
+    private synchronized String renderInventoryPage(StringWriter page, Set<InventorySectionEnum> sections,
+                                                    boolean activeTokensOnly, InventorySectionEnum startSection,
+                                                    String after, int limit)
+    {
+        InventoryExportVisitor visitor = new InventoryExportVisitor(page);
+        int remaining = limit;
+
+        for(InventorySectionEnum section : InventorySectionEnum.values())
+        {
+            if(section.ordinal() < startSection.ordinal() || !sections.contains(section))
+            {
+                continue;
+            }
+
+            String lastId = selectPage(this.inventoryIndex.get(section), section == startSection ? after : null,
+                    remaining, inventoryFilter(section, activeTokensOnly), visitor);
+            remaining = limit - visitor.getLineCount();
+
+            if(remaining == 0)
+            {
+                return this.hasMoreInventory(sections, activeTokensOnly, section, lastId) ? section + ":" + lastId :
+                        null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether any element remains to be exported after a given Id, so a page that ends exactly at the end of
+     * the export returns no cursor
+     * @param sections  Set The sections being exported
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param section   InventorySectionEnum    The section of the last element exported
+     * @param lastId    String  The Id of the last element exported
+     * @return  boolean True if an element after lastId, in its section or a later one, would be exported
+     */
+    private boolean hasMoreInventory(Set<InventorySectionEnum> sections, boolean activeTokensOnly,
+                                     InventorySectionEnum section, String lastId)
+    {
+        for(InventorySectionEnum nextSection : InventorySectionEnum.values())
+        {
+            if(nextSection.ordinal() < section.ordinal() || !sections.contains(nextSection))
+            {
+                continue;
+            }
+
+            NavigableMap<String, iVisitableElement> rest = this.inventoryIndex.get(nextSection);
+            if(nextSection == section)
+            {
+                rest = rest.tailMap(lastId, false);
+            }
+
+            Predicate<iVisitableElement> filter = inventoryFilter(nextSection, activeTokensOnly);
+            for(iVisitableElement element : rest.values())
+            {
+                if(filter == null || filter.test(element))
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Getter for the test an element of a section must pass to be exported
+     * @param section   InventorySectionEnum    The section
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @return  Predicate   The test, or null if every element of the section is exported
+     */
+    private static Predicate<iVisitableElement> inventoryFilter(InventorySectionEnum section, boolean activeTokensOnly)
+    {
+        return section == InventorySectionEnum.TOKEN && activeTokensOnly ?
+                element -> ((AccessToken) element).getTokenState() == AccessTokenStateEnum.ACTIVE : null;
+    }
+
+    /**
+     * Write one page of the inventory to a channel as UTF-8 JSON Lines
+     * @param channel   WritableByteChannel Where the lines are written. It is not closed.
+     * @param sections  Set The sections to export
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param cursor    String  The cursor returned with the previous page, or null for the first page
+     * @param limit int Largest number of lines to write
+     * @param token AccessToken The access token to verify eligibility to perform this action
+     * @return  String  The cursor to pass for the next page, or null if the export is complete
+     * @throws AuthenticationException  Thrown if the access token is invalid or the cursor is malformed
+     * @throws IOException  Thrown if the lines cannot be written
+     */
+    public String exportInventory(WritableByteChannel channel, Set<InventorySectionEnum> sections,
+                                  boolean activeTokensOnly, String cursor, int limit, AccessToken token)
+            throws AuthenticationException, IOException
+    {
+        return this.exportInventory(Channels.newWriter(channel, StandardCharsets.UTF_8), sections, activeTokensOnly,
+                cursor, limit, token);
+    }
+
+    /**
+     * Visit the elements with the smallest Ids after a given Id, in Id order. The index is ordered by Id, so this is
+     * a seek to the Id followed by a walk over the page.
+     * @param index ConcurrentSkipListMap   The elements of a section, keyed by Id
+     * @param after String  Only Ids after this one are selected, or null to start at the first Id
+     * @param limit int Largest number of elements to visit
+     * @param filter    Predicate   Elements to leave out fail this test, or null to visit every element
+     * @param visitor   iVisitor    Visits each selected element
+     * @return  String  The Id of the last element visited, or null if none was
+     */
+    private static String selectPage(ConcurrentSkipListMap<String, iVisitableElement> index, String after, int limit,
+                                     Predicate<iVisitableElement> filter, iVisitor visitor)
+    {
+        NavigableMap<String, iVisitableElement> page = after == null ? index : index.tailMap(after, false);
+        String lastId = null;
+        int selected = 0;
+
+        for(Map.Entry<String, iVisitableElement> entry : page.entrySet())
         {
-            if(token.getUser().getUserId().equals("root"))
+            if(selected == limit)
             {
-                this.checkAccess(token, this.entitlementAdminPermission);
+                break;
             }
-            else
+            if(filter != null && !filter.test(entry.getValue()))
             {
-                this.checkAccess(token, this.permissions.get("read_entitlement"));
+                continue;
             }
-        }
-        catch (InvalidAccessTokenException e)
-        {
-            throw new AuthenticationException("addRoleToUser method in AuthenticationService", "Invalid Access Token",
-                    token.getTokenId());
+
+            entry.getValue().acceptVisitor(visitor);
+            lastId = entry.getKey();
+            selected++;
         }
 
-        InventoryVisitor inventoryVisitor = new InventoryVisitor();
-        this.rootRole.acceptVisitor(inventoryVisitor);
-        this.acceptVisitor(inventoryVisitor);
+        return lastId;
+    }
+
+    /**
+     * Add an element to the Id ordered index of its inventory export section
+     * @param section   InventorySectionEnum    The section the element is exported in
+     * @param id    String  The element Id
+     * @param element   iVisitableElement   The element
+     */
+    private void indexInventory(InventorySectionEnum section, String id, iVisitableElement element)
+    {
+        this.inventoryIndex.get(section).put(id, element);
     }
 
     /**
@@ -481,7 +1687,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify eligibility to perform this action
      * @throws AuthenticationException  Thrown if the access token is invalid or if there is no such resource or role
      */
-    public void createResourceRole(String resourceRoleId, String roleId, String resourceId, AccessToken token) throws AuthenticationException {
+    public synchronized void createResourceRole(String resourceRoleId, String roleId, String resourceId, AccessToken token) throws AuthenticationException {
         try
         {
             if(token.getUser().getUserId().equals("root"))
@@ -511,10 +1717,10 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("createResourceRole method in AuthenticationService", "No such role", roleId);
         }
 
-        ResourceRole resourceRole = new ResourceRole(resourceRoleId, resourceRoleId, resourceRoleId, role, resource);
-        this.resourceRoles.put(resourceRoleId, resourceRole);
-
-        role.addEntitlement(resourceRole);
+        this.persist("createResourceRole method in AuthenticationService", resourceRoleId,
+                EntitlementStore.RESOURCE_ROLE, resourceRoleId, roleId, resource.getId());
+        ResourceRole resourceRole = this.addResourceRole(resourceRoleId, role, resource);
+        this.entitlementsChanged(role);
 
         System.out.println("SUCCESS!!! CREATED NEW RESOURCE ROLE " + resourceRole.getId() + " FOR ROLE " + role.getId() +
                 " TO ACCESS " + resource.getId() + "\n\n");
@@ -528,7 +1734,7 @@ public class AuthenticationService implements iVisitableElement{
      * @param token AccessToken The access token to verify eligibility to perform this action
      * @throws AuthenticationException  Thrown if the access token is invalid or if there is no such user
      */
-    public void addResourceRoleToUser(String userId, String resourceRoleId, AccessToken token) throws AuthenticationException {
+    public synchronized void addResourceRoleToUser(String userId, String resourceRoleId, AccessToken token) throws AuthenticationException {
         try
         {
             if(token.getUser().getUserId().equals("root"))
@@ -558,7 +1764,11 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("addResourceRoleToUser method in AuthenticationService", "No such resource role", resourceRoleId);
         }
 
-        user.addEntitlement(resourceRole);
+        this.persist("addResourceRoleToUser method in AuthenticationService", resourceRoleId,
+                EntitlementStore.USER_ENTITLEMENT, userId, resourceRoleId);
+        this.grantEntitlement(user, resourceRole);
+        this.entitlementsChanged(user);
+        this.audit(AuditEventTypeEnum.GRANT, userId, resourceRoleId);
 
         System.out.println("SUCCESS!!! RESOURCE ROLE " + resourceRoleId + " ADDED TO USER " + userId + "\n\n");
     }
@@ -571,7 +1781,7 @@ public class AuthenticationService implements iVisitableElement{
      * @return  Resource    Resource created using the parameters passed
      * @throws AuthenticationException   Thrown if the access token is invalid or if such a Resource already exists
      */
-    public Resource defineResource(String id, String description, AccessToken token) throws AuthenticationException {
+    public synchronized Resource defineResource(String id, String description, AccessToken token) throws AuthenticationException {
         try
         {
             if(token.getUser().getUserId().equals("root"))
@@ -594,8 +1804,10 @@ public class AuthenticationService implements iVisitableElement{
             throw new AuthenticationException("defineResource method in AuthenticationService", "Resource already defined", id);
         }
 
+        this.persist("defineResource method in AuthenticationService", id, EntitlementStore.RESOURCE, id, description);
         Resource resource = new Resource(id, description);
         this.resources.put(resource.getId(), resource);
+        this.indexInventory(InventorySectionEnum.RESOURCE, resource.getId(), resource);
         System.out.printf("SUCCESS!!! DEFINED RESOURCE: " + resource);
 
         return resource;
@@ -612,29 +1824,158 @@ public class AuthenticationService implements iVisitableElement{
     public AccessToken login(String userId, String credentialString, CredentialTypeEnum credentialType)
             throws AuthenticationException
     {
+        return this.login(userId, credentialString, credentialType, null);
+    }
+
+    /**
+     * Log in a user from a given device. Attempts beyond the per user or per device limit are refused before the
+     * credential is hashed, so repeated attempts cannot tie up the service. A successful login is not counted against
+     * the user.
+     * @param userId    String  The user's Id
+     * @param credentialString  String  The string such as a password used to authenticate the user
+     * @param credentialType    CredentialTypeEnum  The type of credential such as password, faceprint, voiceprint
+     * @param deviceId  String  The Id of the device the attempt comes from, or null if it is not known
+     * @return  AccessToken The object containing the AccessToken to verify access to the particular resource
+     * @throws AuthenticationException  Exception thrown if the attempt is throttled or the user can't be found.
+     */
+    public AccessToken login(String userId, String credentialString, CredentialTypeEnum credentialType,
+                             String deviceId) throws AuthenticationException
+    {
+        this.throttleLogin(userId, credentialType, deviceId);
+
         User user = this.users.get(userId);
 
         // No such user
         if(user == null)
         {
+            this.audit(AuditEventTypeEnum.LOGIN_FAILED, userId, String.valueOf(credentialType));
             throw new AuthenticationException("login()", "No such user", userId);
         }
 
         // If such a user exists, verify their credential and generate accessToken
-        AccessToken accessToken = null;
-        if(user.verifyCredentialString(credentialString))
+        Credential credential = user.findMatchingCredential(credentialString);
+        if(credential == null)
         {
-            accessToken = new AccessToken(user);
-            accessToken.setTokenState(AccessTokenStateEnum.ACTIVE);
-            this.tokens.put(accessToken.getTokenId(), accessToken);
-            System.out.println("ACCESS TOKEN CREATED: " + accessToken.getTokenId());
+            this.audit(AuditEventTypeEnum.LOGIN_FAILED, userId, String.valueOf(credentialType));
+            throw new AuthenticationException("login()", "Password incorrect", credentialString);
         }
-        else
+
+        // Passwords hashed with older parameters are hashed again while the plain password is at hand
+        if(credential.needsRehash())
         {
-            throw new AuthenticationException("login()", "Password incorrect", credentialString);
+            this.updateCredentialHash(user, credential, PasswordHasher.hash(credentialString));
+        }
+
+        this.releaseLoginAttempt(userId, credentialType, deviceId);
+        return this.issueAccessToken(user, credentialString, credentialType);
+    }
+
+    /**
+     * Replace the hash of a credential, persisting the new hash first. If it cannot be persisted the old hash, which
+     * still verifies the credential, is kept so the stored and the live hash never differ.
+     * @param user  User    The user holding the credential
+     * @param credential    Credential  The credential to update
+     * @param hashedCredential  String  The new hash of the credential string
+     */
+    private synchronized void updateCredentialHash(User user, Credential credential, String hashedCredential)
+    {
+        try
+        {
+            this.persist("login()", user.getUserId(), EntitlementStore.CREDENTIAL_UPDATE, user.getUserId(),
+                    credential.getID(), hashedCredential);
+            credential.setHashedCredential(hashedCredential);
+        }
+        catch(AuthenticationException e)
+        {
+            System.out.println("CREDENTIAL " + credential.getID() + " OF USER " + user.getUserId() +
+                    " KEPT ITS OLD HASH: " + e.getReason());
+        }
+    }
+
+    /**
+     * Log in a user on the credential executor rather than the calling thread. Password hashing is deliberately slow,
+     * so event processing threads use this method to avoid waiting on it. The executor has a bounded number of
+     * threads and a bounded queue; when both are full the login fails at once instead of queueing without limit.
+     * @param userId    String  The user Id of the user to log in
+     * @param credentialString  String  The credential string for the user
+     * @param credentialType    CredentialTypeEnum  The type of credential used
+     * @return  CompletableFuture   Completes with the new access token, or exceptionally with an AuthenticationException
+     */
+    public CompletableFuture<AccessToken> loginAsync(String userId, String credentialString,
+                                                     CredentialTypeEnum credentialType)
+    {
+        return this.loginAsync(userId, credentialString, credentialType, null);
+    }
+
+    /**
+     * Log in a user from a given device on the credential executor rather than the calling thread
+     * @param userId    String  The user Id of the user to log in
+     * @param credentialString  String  The credential string for the user
+     * @param credentialType    CredentialTypeEnum  The type of credential used
+     * @param deviceId  String  The Id of the device the attempt comes from, or null if it is not known
+     * @return  CompletableFuture   Completes with the new access token, or exceptionally with an AuthenticationException
+     */
+    public CompletableFuture<AccessToken> loginAsync(String userId, String credentialString,
+                                                     CredentialTypeEnum credentialType, String deviceId)
+    {
+        try
+        {
+            return CompletableFuture.supplyAsync(() -> {
+                try
+                {
+                    return this.login(userId, credentialString, credentialType, deviceId);
+                }
+                catch(AuthenticationException e)
+                {
+                    throw new CompletionException(e);
+                }
+            }, this.credentialExecutor);
+        }
+        catch(RejectedExecutionException e)
+        {
+            CompletableFuture<AccessToken> rejected = new CompletableFuture<AccessToken>();
+            rejected.completeExceptionally(new AuthenticationException("loginAsync()", "Too many logins in progress",
+                    userId));
+            return rejected;
+        }
+    }
+
+    /**
+     * Generate an active access token for a user whose credential has been verified
+     * @param user  User    The user whose credential has been verified
+     * @param credentialString  String  The credential used, for logging purposes
+     * @param credentialType    CredentialTypeEnum  The type of credential used, for logging purposes
+     * @return  AccessToken The newly issued access token
+     */
+    private AccessToken issueAccessToken(User user, String credentialString, CredentialTypeEnum credentialType)
+    {
+        this.expireTokens();
+
+        AccessToken accessToken = new AccessToken(user);
+        accessToken.setTokenState(AccessTokenStateEnum.ACTIVE);
+        if(this.signedTokens)
+        {
+            EntitlementSnapshot snapshot = this.partitionOf(user).getEntitlementSnapshot();
+            accessToken.setSignedToken(this.signedTokenAuthority.sign(accessToken,
+                    snapshot.getPermissions(user.getUserId()), snapshot.getVersion()));
+        }
+        this.partitionOf(user).getTokens().put(accessToken.getTokenId(), accessToken);
+        this.indexInventory(InventorySectionEnum.TOKEN, accessToken.getTokenId(), accessToken);
+        user.addAccessToken(accessToken);
+
+        this.tokenWheelLock.lock();
+        try
+        {
+            this.tokenExpiryWheel.schedule(accessToken, accessToken.getExpiration().getTime());
+        }
+        finally
+        {
+            this.tokenWheelLock.unlock();
         }
+        System.out.println("ACCESS TOKEN CREATED: " + accessToken.getTokenId());
 
-        System.out.println("SUCCESS!!! LOGGED IN USER " + userId + " WITH " + credentialType + " CREDENTIAL " + credentialString);
+        this.audit(AuditEventTypeEnum.LOGIN, user.getUserId(), String.valueOf(credentialType));
+        System.out.println("SUCCESS!!! LOGGED IN USER " + user.getUserId() + " WITH " + credentialType + " CREDENTIAL " + credentialString);
         System.out.println("ACCESS TOKEN CREATED: " + accessToken.getTokenId());
 
         return accessToken;
@@ -642,25 +1983,138 @@ public class AuthenticationService implements iVisitableElement{
 
     /**
      * This overlaoded login method is called for biometric identification when faceprint or voiceprint are used as
-     * credentials to login. This method calls the more generic login method after identifying the user from biometrics.
+     * credentials to login. The user is identified from the biometric credential index with one hash and one lookup,
+     * so identification time does not grow with the number of users.
      * @param credentialString  String  The faceprint or voiceprint information represented as a String
      * @param credentialType    CredentialTypeEnum  One of FACEPRINT or VOICEPRINT. Can be entered in any case
-     * @return  AccessToken     The token derived from the call to the generic login method
+     * @return  AccessToken     The token for the identified user
      * @throws AuthenticationException  Exception thrown if the user cannot be logged in.
      */
     public AccessToken login(String credentialString, CredentialTypeEnum credentialType)
             throws AuthenticationException
     {
-        User user = null;
+        return this.login(credentialString, credentialType, null);
+    }
+
+    /**
+     * Log in a user identified by a biometric credential captured by a given device. Attempts beyond the per device
+     * limit are refused before the biometric indexes are searched. Without a device Id, failed attempts are limited
+     * per credential type instead, so unattributed guesses are still throttled.
+     * @param credentialString  String  The faceprint or voiceprint information represented as a String
+     * @param credentialType    CredentialTypeEnum  One of FACEPRINT or VOICEPRINT. Can be entered in any case
+     * @param deviceId  String  The Id of the camera or microphone that captured the credential, or null
+     * @return  AccessToken     The token for the identified user
+     * @throws AuthenticationException  Exception thrown if the attempt is throttled or the user cannot be logged in.
+     */
+    public AccessToken login(String credentialString, CredentialTypeEnum credentialType, String deviceId)
+            throws AuthenticationException
+    {
+        this.throttleLogin(null, credentialType, deviceId);
+
+        User user = this.findUserByBiometric(credentialString, credentialType);
+
+        if(user == null)
+        {
+            this.audit(AuditEventTypeEnum.LOGIN_FAILED, null, String.valueOf(credentialType));
+            throw new AuthenticationException("login()", "No such user", credentialString);
+        }
+
+        this.releaseLoginAttempt(null, credentialType, deviceId);
+        return this.issueAccessToken(user, credentialString, credentialType);
+    }
+
+    /**
+     * Count a login attempt against the device and user limits, and refuse it if either limit is reached. An attempt
+     * that names no device is counted against its credential type instead.
+     * @param userId    String  The user Id the attempt is for, or null if it is not known yet
+     * @param credentialType    CredentialTypeEnum  The type of credential presented
+     * @param deviceId  String  The device Id the attempt comes from, or null if it is not known
+     * @throws AuthenticationException  Thrown if the attempt is throttled
+     */
+    private void throttleLogin(String userId, CredentialTypeEnum credentialType, String deviceId)
+            throws AuthenticationException
+    {
+        long now = System.currentTimeMillis();
+        String deviceKey = deviceId != null ? deviceId : UNKNOWN_DEVICE_KEY + credentialType;
+        this.metricsRegistry.incrementCounter("login.attempts");
+
+        if(!this.deviceLoginThrottle.tryAcquire(deviceKey, now))
+        {
+            this.metricsRegistry.incrementCounter("login.throttled.device");
+            this.audit(AuditEventTypeEnum.LOGIN_FAILED, userId, "THROTTLED");
+            throw new AuthenticationException("login()", "Too many login attempts from device", deviceKey);
+        }
+
+        if(userId != null && !this.userLoginThrottle.tryAcquire(userId, now))
+        {
+            this.metricsRegistry.incrementCounter("login.throttled.user");
+            this.audit(AuditEventTypeEnum.LOGIN_FAILED, userId, "THROTTLED");
+            throw new AuthenticationException("login()", "Too many login attempts for user", userId);
+        }
+    }
+
+    /**
+     * Take back the attempts counted for a login that succeeded, so only failed attempts count against the user and
+     * against a credential type used without a device. Attempts from a known device keep counting, which bounds the
+     * rate of a device whether or not its attempts succeed.
+     * @param userId    String  The user Id that logged in, or null if the attempt was not counted against a user
+     * @param credentialType    CredentialTypeEnum  The type of credential presented
+     * @param deviceId  String  The device Id the attempt came from, or null if it is not known
+     */
+    private void releaseLoginAttempt(String userId, CredentialTypeEnum credentialType, String deviceId)
+    {
+        long now = System.currentTimeMillis();
+
+        if(userId != null)
+        {
+            this.userLoginThrottle.release(userId, now);
+        }
+
+        if(deviceId == null)
+        {
+            this.deviceLoginThrottle.release(UNKNOWN_DEVICE_KEY + credentialType, now);
+        }
+    }
+
+    /**
+     * Identify the user holding a biometric credential. An exact match of the credential string is looked up first.
+     * If there is none and the credential string is a biometric template, the user with the nearest enrolled template
+     * within the match threshold is returned.
+     * @param credentialString  String  The faceprint or voiceprint information represented as a String
+     * @param credentialType    CredentialTypeEnum  One of FACEPRINT or VOICEPRINT
+     * @return  User    The user holding that credential, or null if no user holds it
+     */
+    public User findUserByBiometric(String credentialString, CredentialTypeEnum credentialType)
+    {
+        ConcurrentHashMap<String, User> biometricIndex = this.biometricCredentialIndex.get(credentialType);
+
+        if(biometricIndex == null)
+        {
+            return null;
+        }
 
-        for (Map.Entry<String, User> entry : this.users.entrySet()) {
-            User checkUser = entry.getValue();
-            if (checkUser.verifyCredentialString(credentialString)) {
-                user = checkUser;
+        User user = biometricIndex.get(Util.sha256(credentialString));
+
+        BiometricTemplateIndex templateIndex = this.biometricTemplateIndexes.get(credentialType);
+        if(user == null && templateIndex != null)
+        {
+            float[] template = BiometricTemplateIndex.parseTemplate(credentialString);
+            if(template != null)
+            {
+                user = templateIndex.findNearest(template, this.biometricMatchThreshold);
             }
         }
 
-        return login(user.getUserId(), credentialString, credentialType);
+        return user;
+    }
+
+    /**
+     * Setter for how close a captured biometric template must be to an enrolled one to count as a match
+     * @param biometricMatchThreshold   double  Largest cosine distance, between 0 and 2, that counts as a match
+     */
+    public void setBiometricMatchThreshold(double biometricMatchThreshold)
+    {
+        this.biometricMatchThreshold = biometricMatchThreshold;
     }
 
     /**
@@ -682,13 +2136,345 @@ public class AuthenticationService implements iVisitableElement{
         }
 
         // Logout marks the given Auth Token as invalid.
-        this.tokens.forEach((key, value) -> {
-            if(value.getUser().getUserId().equals(user.getUserId())) {
+        this.deactivateUserTokens(user);
+
+        this.audit(AuditEventTypeEnum.LOGOUT, user.getUserId(), null);
+        System.out.println("SUCCESS!!! LOGGED OUT USER " + user.getUserId());
+    }
+
+    /**
+     * Revoke every session of the given user, for example when a device is lost or an account is compromised. All of
+     * the user's active access tokens are marked invalid.
+     * @param userId    String  The user Id whose sessions are revoked
+     * @param token AccessToken The access token to verify eligibility to perform this action
+     * @throws AuthenticationException  Thrown if the access token is invalid or if there is no such user
+     */
+    public void revokeUserSessions(String userId, AccessToken token) throws AuthenticationException {
+        try
+        {
+            if(token.getUser().getUserId().equals("root"))
+            {
+                this.checkAccess(token, this.entitlementAdminPermission);
+            }
+            else
+            {
+                this.checkAccess(token, this.permissions.get("update_user"));
+            }
+        }
+        catch (InvalidAccessTokenException e)
+        {
+            throw new AuthenticationException("revokeUserSessions method in AuthenticationService",
+                    "Invalid Access Token", token.getTokenId());
+        }
+
+        User user = this.users.get(userId);
+        if(user == null)
+        {
+            throw new AuthenticationException("revokeUserSessions method in AuthenticationService", "No such user",
+                    userId);
+        }
+
+        int revokedCount = this.deactivateUserTokens(user);
+        this.audit(AuditEventTypeEnum.LOGOUT, userId, "REVOKED");
+
+        System.out.println("SUCCESS!!! REVOKED " + revokedCount + " SESSIONS OF USER " + userId + "\n\n");
+    }
+
+    /**
+     * Mark every active token of the user as invalid and schedule them for removal after the grace period. Only the
+     * user's own tokens are visited, so the cost does not depend on how many sessions are open in the store.
+     * @param user  User    The user whose tokens are deactivated
+     * @return  int The number of tokens deactivated
+     */
+    private int deactivateUserTokens(User user)
+    {
+        this.expireTokens();
+        long now = System.currentTimeMillis();
+        long reclaimTime = now + TOKEN_RECLAIM_GRACE_MILLIS;
+        int deactivatedCount = 0;
+
+        this.tokenWheelLock.lock();
+        try
+        {
+            for(AccessToken value : user.getCurrentAccessTokens().values())
+            {
+                // Only the thread that removes the token deactivates it, so concurrent logouts count it once
+                if(!user.getCurrentAccessTokens().remove(value.getTokenId(), value))
+                {
+                    continue;
+                }
+
                 value.setTokenState(AccessTokenStateEnum.INACTIVE);
+                this.partitionOf(user).getDecisionCache().invalidateToken(value.getTokenId());
+                if(value.getSignedToken() != null)
+                {
+                    this.signedTokenAuthority.revoke(value, now);
+                }
+                this.tokenReclaimWheel.schedule(value, reclaimTime);
+                deactivatedCount++;
             }
-        });
+        }
+        finally
+        {
+            this.tokenWheelLock.unlock();
+        }
 
-        System.out.println("SUCCESS!!! LOGGED OUT USER " + user.getUserId());
+        return deactivatedCount;
+    }
+
+    /**
+     * Persist entitlement and credential changes to a directory. The snapshot and change log already in the directory
+     * are loaded first and merged into the current entitlement graph, which takes one pass over the memory-mapped
+     * files rather than a replay of the commands that built the graph. From then on every change is logged before it
+     * is applied, and a new snapshot is written whenever the change log grows past a limit.
+     * @param directory Path    Directory holding the entitlement snapshot and change log
+     * @return  int Number of records loaded
+     * @throws IOException  Thrown if the files cannot be read or written
+     */
+    public synchronized int enableEntitlementStore(Path directory) throws IOException
+    {
+        long start = System.nanoTime();
+        EntitlementStore store = new EntitlementStore(directory);
+
+        int count = store.load(this::restoreRecord);
+        store.open();
+        this.entitlementStore = store;
+        this.entitlementsChanged();
+
+        System.out.println("RESTORED " + count + " ENTITLEMENT RECORDS FROM " + directory + " IN " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " MS");
+        return count;
+    }
+
+    /**
+     * Write the whole entitlement graph and every credential hash to a new snapshot, and empty the change log.
+     * Permissions are written in ordinal order and every entitlement before anything that refers to it.
+     * @throws IOException  Thrown if no entitlement store is enabled or the snapshot cannot be written
+     */
+    public synchronized void saveEntitlementSnapshot() throws IOException
+    {
+        EntitlementStore store = this.entitlementStore;
+        if(store == null)
+        {
+            throw new IOException("No entitlement store is enabled");
+        }
+
+        store.startSnapshot();
+        for(Permission permission : this.permissionsByOrdinal)
+        {
+            store.appendSnapshot(EntitlementStore.PERMISSION, permission.getId(), permission.getName(),
+                    permission.getDescription());
+        }
+        for(Resource resource : this.resources.values())
+        {
+            store.appendSnapshot(EntitlementStore.RESOURCE, resource.getId(), resource.getDescription());
+        }
+        for(Role role : this.roles.values())
+        {
+            store.appendSnapshot(EntitlementStore.ROLE, role.getId(), role.getName(), role.getDescription());
+        }
+        for(ResourceRole resourceRole : this.resourceRoles.values())
+        {
+            store.appendSnapshot(EntitlementStore.RESOURCE_ROLE, resourceRole.getId(), resourceRole.getRole().getId(),
+                    resourceRole.getResource().getId());
+        }
+        for(Role role : this.roles.values())
+        {
+            for(String childId : role.getAllEntitlements().keySet())
+            {
+                store.appendSnapshot(EntitlementStore.ROLE_CHILD, role.getId(), childId);
+            }
+        }
+        for(User user : this.users.values())
+        {
+            store.appendSnapshot(EntitlementStore.USER, user.getUserId(), user.getName(), user.getStoreId());
+            for(Credential credential : user.getCredentials().values())
+            {
+                store.appendSnapshot(EntitlementStore.CREDENTIAL, user.getUserId(), credential.getID(),
+                        credential.getCredentialType().name(), credential.getHashedCredential(),
+                        credential.getTemplate());
+            }
+            for(String entitlementId : user.getEntitlements().keySet())
+            {
+                store.appendSnapshot(EntitlementStore.USER_ENTITLEMENT, user.getUserId(), entitlementId);
+            }
+        }
+        store.finishSnapshot();
+    }
+
+    /**
+     * Log a change to the entitlement store, if one is enabled, before the change is applied. A new snapshot is
+     * written when the change log has grown past its limit.
+     * @param action    String  The action being performed, for the exception
+     * @param value String  The Id being changed, for the exception
+     * @param type  byte    The record type
+     * @param fields    String  The fields of the record
+     * @throws AuthenticationException  Thrown if the change cannot be persisted, in which case it must not be applied
+     */
+    private void persist(String action, String value, byte type, String... fields) throws AuthenticationException
+    {
+        EntitlementStore store = this.entitlementStore;
+        if(store == null)
+        {
+            return;
+        }
+
+        try
+        {
+            if(store.getChangeLogBytes() > ENTITLEMENT_COMPACTION_BYTES)
+            {
+                this.saveEntitlementSnapshot();
+            }
+            store.append(type, fields);
+        }
+        catch(IOException e)
+        {
+            throw new AuthenticationException(action, "Could not persist change: " + e.getMessage(), value);
+        }
+    }
+
+    /**
+     * Apply one record loaded from the entitlement store, without access checks or output. Records already applied
+     * and records referring to unknown Ids are skipped, so the same record may safely be loaded twice.
+     * @param type  Byte    The record type
+     * @param fields    String[]    The fields of the record
+     */
+    private void restoreRecord(Byte type, String[] fields)
+    {
+        switch(type)
+        {
+            case EntitlementStore.PERMISSION:
+                if(!this.permissions.containsKey(fields[0]))
+                {
+                    Permission permission = new Permission(fields[0], fields[1], fields[2],
+                            this.permissionsByOrdinal.size());
+                    this.permissions.put(permission.getId(), permission);
+                    this.permissionsByOrdinal.add(permission);
+                    this.indexInventory(InventorySectionEnum.PERMISSION, permission.getId(), permission);
+                    this.rootRole.addEntitlement(permission);
+                }
+                break;
+            case EntitlementStore.RESOURCE:
+                if(!this.resources.containsKey(fields[0]))
+                {
+                    Resource restoredResource = new Resource(fields[0], fields[1]);
+                    this.resources.put(restoredResource.getId(), restoredResource);
+                    this.indexInventory(InventorySectionEnum.RESOURCE, restoredResource.getId(), restoredResource);
+                }
+                break;
+            case EntitlementStore.ROLE:
+                if(!this.roles.containsKey(fields[0]))
+                {
+                    Role role = new Role(fields[0], fields[1], fields[2]);
+                    this.roles.put(role.getId(), role);
+                    this.indexInventory(InventorySectionEnum.ROLE, role.getId(), role);
+                    this.rootRole.addEntitlement(role);
+                }
+                break;
+            case EntitlementStore.RESOURCE_ROLE:
+                Role role = this.roles.get(fields[1]);
+                Resource resource = this.resources.get(fields[2]);
+                if(!this.resourceRoles.containsKey(fields[0]) && role != null && resource != null)
+                {
+                    this.addResourceRole(fields[0], role, resource);
+                }
+                break;
+            case EntitlementStore.ROLE_CHILD:
+                Role parent = this.roles.get(fields[0]);
+                Entitlement child = this.findEntitlement(fields[1]);
+                if(parent != null && child != null)
+                {
+                    // A child that would make a cycle is refused by the role and skipped
+                    parent.addEntitlement(child);
+                }
+                break;
+            case EntitlementStore.USER:
+                User existingUser = this.users.get(fields[0]);
+                if(existingUser == null)
+                {
+                    // Users saved before stores were partitioned have no store field
+                    String storeId = fields.length > 2 && !fields[2].isEmpty() ? fields[2] : null;
+                    this.addUser(new User(fields[0], fields[1], storeId));
+                }
+                else
+                {
+                    // A stored user replaces the credentials of a built in user, such as root, with the stored ones
+                    this.unindexCredentials(existingUser);
+                    existingUser.getCredentials().clear();
+                }
+                break;
+            case EntitlementStore.CREDENTIAL:
+                User credentialUser = this.users.get(fields[0]);
+                if(credentialUser != null && !credentialUser.getCredentials().containsKey(fields[1]))
+                {
+                    // Credentials saved before templates were stored have no template field
+                    String template = fields.length > 4 && !fields[4].isEmpty() ? fields[4] : null;
+                    Credential restoredCredential = new Credential(fields[1], CredentialTypeEnum.valueOf(fields[2]),
+                            fields[3], template);
+                    credentialUser.addCredential(restoredCredential);
+                    this.indexCredential(credentialUser, restoredCredential);
+                }
+                break;
+            case EntitlementStore.CREDENTIAL_UPDATE:
+                User updatedUser = this.users.get(fields[0]);
+                Credential updatedCredential = updatedUser == null ? null :
+                        updatedUser.getCredentials().get(fields[1]);
+                if(updatedCredential != null && updatedCredential.getCredentialType() == CredentialTypeEnum.PASSWORD)
+                {
+                    updatedCredential.setHashedCredential(fields[2]);
+                }
+                break;
+            case EntitlementStore.USER_ENTITLEMENT:
+                User entitledUser = this.users.get(fields[0]);
+                Entitlement entitlement = this.findEntitlement(fields[1]);
+                if(entitledUser != null && entitlement != null)
+                {
+                    this.grantEntitlement(entitledUser, entitlement);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Create a resource role, index it by its resource and add it below its role
+     * @param resourceRoleId    String  The resource role Id
+     * @param role  Role    The role whose permissions the resource role grants
+     * @param resource  Resource    The resource the permissions are scoped to
+     * @return  ResourceRole    The new resource role
+     */
+    private ResourceRole addResourceRole(String resourceRoleId, Role role, Resource resource)
+    {
+        ResourceRole resourceRole = new ResourceRole(resourceRoleId, resourceRoleId, resourceRoleId, role, resource);
+        this.resourceRoles.put(resourceRoleId, resourceRole);
+        this.indexInventory(InventorySectionEnum.RESOURCE_ROLE, resourceRoleId, resourceRole);
+        this.resourceRolesByResource.computeIfAbsent(resource.getId(),
+                key -> new CopyOnWriteArrayList<ResourceRole>()).add(resourceRole);
+
+        role.addEntitlement(resourceRole);
+        return resourceRole;
+    }
+
+    /**
+     * Find a permission, role or resource role by its Id
+     * @param entitlementId String  The entitlement Id
+     * @return  Entitlement The entitlement, or null if there is none with that Id
+     */
+    private Entitlement findEntitlement(String entitlementId)
+    {
+        Entitlement entitlement = this.permissions.get(entitlementId);
+
+        if(entitlement == null)
+        {
+            entitlement = this.roles.get(entitlementId);
+        }
+        if(entitlement == null)
+        {
+            entitlement = this.resourceRoles.get(entitlementId);
+        }
+
+        return entitlement;
     }
 
     /**
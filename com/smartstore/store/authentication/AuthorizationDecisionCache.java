@@ -0,0 +1,277 @@
+package com.cscie97.store.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of positive authorization decisions, keyed by access token and permission. For each recently used
+ * token it remembers the token secret, the time the cached decisions expire, and the permissions already granted.
+ * A repeated check of the same token and permission is then one map lookup, one secret compare and one bit test.
+ *
+ * Entries live for a fixed time to live, capped at the token's own expiration, and only answer checks made while the
+ * token user's entitlements are at the revision they were recorded at. When the cache is full, expired entries are
+ * dropped first and then the least recently used ones, judged by the time each entry was last used. The
+ * AuthenticationService invalidates a token's entry when its state changes and clears the whole cache when every
+ * entitlement is rebuilt. Only grants are cached, so a denied check is always re-evaluated.
+ *
+ * The cache is safe for concurrent use without locking. An entry's decisions are never modified once published;
+ * recording another grant for the same token replaces it. Only its last use time is updated in place.
+ */
+public class AuthorizationDecisionCache {
+    /**
+     * Cached decisions, keyed by token Id
+     */
+    private final ConcurrentHashMap<String, CachedDecisions> entries;
+
+    /**
+     * Largest number of tokens whose decisions are cached
+     */
+    private final int maximumTokens;
+
+    /**
+     * Longest time a decision is cached, in milliseconds
+     */
+    private final long timeToLiveMillis;
+
+    /**
+     * Number of checks answered from the cache
+     */
+    private final LongAdder hitCount;
+
+    /**
+     * Number of checks that had to be evaluated in full
+     */
+    private final LongAdder missCount;
+
+    /**
+     * Constructor for an AuthorizationDecisionCache
+     * @param maximumTokens int Largest number of tokens whose decisions are cached
+     * @param timeToLiveMillis  long    Longest time a decision is cached, in milliseconds
+     */
+    public AuthorizationDecisionCache(int maximumTokens, long timeToLiveMillis)
+    {
+        this.maximumTokens = maximumTokens;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new ConcurrentHashMap<String, CachedDecisions>();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+    }
+
+    /**
+     * Check whether a grant of the permission to the token is cached. Counts a hit or a miss.
+     * @param accessToken   AccessToken The access token presented by the caller
+     * @param permission    Permission  The permission being checked
+     * @param nowMillis long    Current time in milliseconds
+     * @param entitlementRevision   long    Revision of the token user's entitlements the check is made under
+     * @return  boolean True if the grant is cached and still fresh
+     */
+    public boolean isGranted(AccessToken accessToken, Permission permission, long nowMillis, long entitlementRevision)
+    {
+        CachedDecisions decisions = this.entries.get(accessToken.getTokenId());
+
+        if(decisions != null && decisions.expiresAtMillis <= nowMillis)
+        {
+            this.entries.remove(accessToken.getTokenId(), decisions);
+            decisions = null;
+        }
+
+        if(decisions != null &&
+                decisions.entitlementRevision == entitlementRevision &&
+                decisions.grantedPermissions.contains(permission.getOrdinal()) &&
+                MessageDigest.isEqual(decisions.tokenSecret,
+                        accessToken.getToken().getBytes(StandardCharsets.UTF_8)))
+        {
+            decisions.lastUsedMillis = nowMillis;
+            this.hitCount.increment();
+            return true;
+        }
+
+        this.missCount.increment();
+        return false;
+    }
+
+    /**
+     * Remember that the issued token was granted the permission. If the token stopped being active while the grant
+     * was being recorded, the grant is dropped again, so a concurrent logout is never undone.
+     * @param issuedToken   AccessToken The issued token that passed a full check
+     * @param permission    Permission  The permission it was granted
+     * @param nowMillis long    Current time in milliseconds
+     * @param entitlementRevision   long    Revision of the token user's entitlements the check was made under
+     */
+    public void recordGrant(AccessToken issuedToken, Permission permission, long nowMillis, long entitlementRevision)
+    {
+        CachedDecisions recorded = this.entries.compute(issuedToken.getTokenId(), (key, decisions) -> {
+            PermissionBitSet granted = new PermissionBitSet();
+
+            if(decisions != null && decisions.entitlementRevision == entitlementRevision &&
+                    decisions.expiresAtMillis > nowMillis)
+            {
+                granted.addAll(decisions.grantedPermissions);
+            }
+            granted.add(permission.getOrdinal());
+
+            return new CachedDecisions(issuedToken.getToken().getBytes(StandardCharsets.UTF_8),
+                    Math.min(nowMillis + this.timeToLiveMillis, issuedToken.getExpiration().getTime()),
+                    entitlementRevision, granted, nowMillis);
+        });
+
+        if(issuedToken.getTokenState() != AccessTokenStateEnum.ACTIVE)
+        {
+            this.entries.remove(issuedToken.getTokenId(), recorded);
+        }
+
+        if(this.entries.size() > this.maximumTokens)
+        {
+            this.evict(nowMillis);
+        }
+    }
+
+    /**
+     * Shrink the cache to three quarters of its maximum size, dropping expired entries first and then the least
+     * recently used ones. Eviction sorts the entries once and then frees a quarter of the cache, so its cost is spread
+     * over the grants recorded until the next eviction.
+     * @param nowMillis long    Current time in milliseconds
+     */
+    private void evict(long nowMillis)
+    {
+        this.entries.values().removeIf(decisions -> decisions.expiresAtMillis <= nowMillis);
+
+        int excess = this.entries.size() - this.maximumTokens * 3 / 4;
+        if(excess <= 0)
+        {
+            return;
+        }
+
+        ArrayList<Map.Entry<String, CachedDecisions>> leastRecentlyUsed =
+                new ArrayList<Map.Entry<String, CachedDecisions>>(this.entries.entrySet());
+        leastRecentlyUsed.sort((a, b) -> Long.compare(a.getValue().lastUsedMillis, b.getValue().lastUsedMillis));
+
+        for(int i = 0; i < excess && i < leastRecentlyUsed.size(); i++)
+        {
+            this.entries.remove(leastRecentlyUsed.get(i).getKey(), leastRecentlyUsed.get(i).getValue());
+        }
+    }
+
+    /**
+     * Drop the cached decisions of one token, when it is logged out, revoked or expires
+     * @param tokenId   String  The Id of the token
+     */
+    public void invalidateToken(String tokenId)
+    {
+        this.entries.remove(tokenId);
+    }
+
+    /**
+     * Drop every cached decision, when every entitlement is rebuilt
+     */
+    public void invalidateAll()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * Getter for the number of checks answered from the cache
+     * @return  long    The hit count
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * Getter for the number of checks that had to be evaluated in full
+     * @return  long    The miss count
+     */
+    public long getMissCount()
+    {
+        return this.missCount.sum();
+    }
+
+    /**
+     * Getter for the share of checks answered from the cache
+     * @return  double  Hits divided by all checks, or 0 before any check
+     */
+    public double getHitRate()
+    {
+        long hits = this.hitCount.sum();
+        long total = hits + this.missCount.sum();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Getter for the number of tokens with cached decisions
+     * @return  int The number of cached tokens
+     */
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Printable JSON-like view of this object and its contents
+     * @return String   Text containing all parts of the object information available
+     */
+    public String toString()
+    {
+        return "SHOWING AUTHORIZATION DECISION CACHE \n{\n " +
+                "\t Cached Tokens = " + this.entries.size() + "\n" +
+                "\t Hits = " + this.hitCount.sum() + "\n" +
+                "\t Misses = " + this.missCount.sum() + "\n" +
+                "\t Hit Rate = " + this.getHitRate() + "\n" +
+                "}\n\n";
+    }
+
+    /**
+     * The decisions cached for one token
+     */
+    private static class CachedDecisions {
+        /**
+         * The token secret the decisions were made for
+         */
+        private final byte[] tokenSecret;
+
+        /**
+         * Time in milliseconds after which the decisions must be evaluated again
+         */
+        private final long expiresAtMillis;
+
+        /**
+         * Revision of the token user's entitlements the decisions were made under
+         */
+        private final long entitlementRevision;
+
+        /**
+         * Ordinals of the permissions granted to the token
+         */
+        private final PermissionBitSet grantedPermissions;
+
+        /**
+         * Time in milliseconds the decisions were last used, for least recently used eviction. Updated without a
+         * lock, so concurrent hits may leave a slightly older time.
+         */
+        private volatile long lastUsedMillis;
+
+        /**
+         * Constructor for CachedDecisions
+         * @param tokenSecret   byte[]  The token secret the decisions are made for
+         * @param expiresAtMillis   long    Time in milliseconds after which the decisions expire
+         * @param entitlementRevision   long    Revision of the token user's entitlements the decisions are made under
+         * @param grantedPermissions    PermissionBitSet    Ordinals of the permissions granted to the token
+         * @param lastUsedMillis    long    Time in milliseconds the decisions were recorded
+         */
+        private CachedDecisions(byte[] tokenSecret, long expiresAtMillis, long entitlementRevision,
+                                PermissionBitSet grantedPermissions, long lastUsedMillis)
+        {
+            this.tokenSecret = tokenSecret;
+            this.expiresAtMillis = expiresAtMillis;
+            this.entitlementRevision = entitlementRevision;
+            this.grantedPermissions = grantedPermissions;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+}
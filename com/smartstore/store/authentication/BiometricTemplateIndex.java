@@ -0,0 +1,423 @@
+package com.cscie97.store.authentication;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest neighbour index for biometric templates, such as the feature vectors a camera or microphone
+ * extracts from a face or a voice. Two captures of the same person never produce exactly the same template, so
+ * templates are matched by cosine distance instead of equality.
+ *
+ * The index uses random hyperplane locality sensitive hashing. Each of several hash tables signs every template
+ * against its own set of random hyperplanes, and templates pointing in similar directions land in the same buckets.
+ * A lookup probes the probe's bucket, plus every bucket one bit away, in each table. It then measures the exact
+ * distance only to the templates found there, so lookup time stays close to flat as enrolment grows.
+ *
+ * Lookups share a read lock, so any number of turnstiles can identify users at once. Enrolment takes the write lock
+ * only to add the template to the tables; bucket keys are computed before the lock is taken. Removing a user's
+ * templates takes them out of the tables and leaves their positions empty; positions are never reused.
+ */
+public class BiometricTemplateIndex {
+    /**
+     * Number of values in every template held by this index
+     */
+    private final int dimension;
+
+    /**
+     * Random hyperplanes, [table][bit][dimension]. The sign of a template's dot product with each hyperplane gives one
+     * bit of its bucket key in that table.
+     */
+    private final float[][][] hyperplanes;
+
+    /**
+     * One hash table per set of hyperplanes, mapping bucket key to the positions of the templates in that bucket
+     */
+    private final ArrayList<HashMap<Integer, ArrayList<Integer>>> tables;
+
+    /**
+     * Enrolled templates, normalized to unit length, or null where a template was removed
+     */
+    private final ArrayList<float[]> templates;
+
+    /**
+     * The user each enrolled template belongs to, at the same position as the template, or null where a template was
+     * removed
+     */
+    private final ArrayList<User> users;
+
+    /**
+     * Number of templates currently enrolled
+     */
+    private int enrolledCount;
+
+    /**
+     * Read lock shared by lookups, write lock held while a template is enrolled
+     */
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * Constructor for a BiometricTemplateIndex
+     * @param dimension int Number of values in every template
+     * @param tableCount    int Number of hash tables. More tables find more true matches at the cost of memory.
+     * @param bitsPerTable  int Number of hyperplanes per table, at most 30. More bits give smaller buckets.
+     * @param seed  long    Seed for the random hyperplanes
+     */
+    public BiometricTemplateIndex(int dimension, int tableCount, int bitsPerTable, long seed)
+    {
+        Random random = new Random(seed);
+        int bits = Math.min(Math.max(bitsPerTable, 1), 30);
+
+        this.dimension = dimension;
+        this.hyperplanes = new float[tableCount][bits][dimension];
+        this.tables = new ArrayList<HashMap<Integer, ArrayList<Integer>>>(tableCount);
+        this.templates = new ArrayList<float[]>();
+        this.users = new ArrayList<User>();
+        this.lock = new ReentrantReadWriteLock();
+
+        for(int table = 0; table < tableCount; table++)
+        {
+            this.tables.add(new HashMap<Integer, ArrayList<Integer>>());
+
+            for(int bit = 0; bit < bits; bit++)
+            {
+                for(int i = 0; i < dimension; i++)
+                {
+                    this.hyperplanes[table][bit][i] = (float) random.nextGaussian();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse a credential string holding a biometric template, written as comma separated numbers
+     * (e.g. "0.12,-0.4,0.93"). Credential strings that are not templates, such as passwords, give null.
+     * @param credentialString  String  The credential string to parse
+     * @return  float[] The template, or null if the string is not a list of at least two numbers
+     */
+    public static float[] parseTemplate(String credentialString)
+    {
+        String[] values = credentialString.split(",");
+
+        if(values.length < 2)
+        {
+            return null;
+        }
+
+        float[] template = new float[values.length];
+
+        try
+        {
+            for(int i = 0; i < values.length; i++)
+            {
+                template[i] = Float.parseFloat(values[i].trim());
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            return null;
+        }
+
+        return template;
+    }
+
+    /**
+     * Format a template as the comma separated numbers parseTemplate reads, scaled to unit length. Matching only
+     * depends on the direction of a template, so the formatted template identifies the user as well as the captured
+     * one.
+     * @param template  float[] The template to format
+     * @return  String  The unit length template, or null if the template is null or has no length
+     */
+    public static String formatTemplate(float[] template)
+    {
+        float[] normalized = template == null ? null : toUnitLength(template);
+
+        if(normalized == null)
+        {
+            return null;
+        }
+
+        StringBuilder formatted = new StringBuilder();
+
+        for(int i = 0; i < normalized.length; i++)
+        {
+            formatted.append(i == 0 ? "" : ",").append(normalized[i]);
+        }
+
+        return formatted.toString();
+    }
+
+    /**
+     * Getter for the number of values in every template held by this index
+     * @return  int The template dimension
+     */
+    public int getDimension()
+    {
+        return this.dimension;
+    }
+
+    /**
+     * Getter for the number of templates enrolled
+     * @return  int The number of templates
+     */
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.enrolledCount;
+        }
+        finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Enrol a template for a user. Templates of the wrong dimension or with no length are ignored.
+     * @param template  float[] The template to enrol
+     * @param user  User    The user the template belongs to
+     * @return  boolean True if the template was enrolled
+     */
+    public boolean add(float[] template, User user)
+    {
+        float[] normalized = normalize(template);
+
+        if(normalized == null)
+        {
+            return false;
+        }
+
+        int[] keys = new int[this.tables.size()];
+        for(int table = 0; table < keys.length; table++)
+        {
+            keys[table] = this.bucketKey(table, normalized);
+        }
+
+        this.lock.writeLock().lock();
+        try
+        {
+            int position = this.templates.size();
+            this.templates.add(normalized);
+            this.users.add(user);
+
+            for(int table = 0; table < keys.length; table++)
+            {
+                this.tables.get(table).computeIfAbsent(keys[table], k -> new ArrayList<Integer>()).add(position);
+            }
+            this.enrolledCount++;
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove every template enrolled for a user, so lookups no longer find the user through them
+     * @param user  User    The user whose templates are removed
+     * @return  int The number of templates removed
+     */
+    public int remove(User user)
+    {
+        int removedCount = 0;
+
+        this.lock.writeLock().lock();
+        try
+        {
+            for(int position = 0; position < this.users.size(); position++)
+            {
+                if(this.users.get(position) != user)
+                {
+                    continue;
+                }
+
+                for(int table = 0; table < this.tables.size(); table++)
+                {
+                    int key = this.bucketKey(table, this.templates.get(position));
+                    ArrayList<Integer> bucket = this.tables.get(table).get(key);
+                    bucket.remove(Integer.valueOf(position));
+                    if(bucket.isEmpty())
+                    {
+                        this.tables.get(table).remove(key);
+                    }
+                }
+
+                this.templates.set(position, null);
+                this.users.set(position, null);
+                removedCount++;
+            }
+            this.enrolledCount -= removedCount;
+        }
+        finally
+        {
+            this.lock.writeLock().unlock();
+        }
+
+        return removedCount;
+    }
+
+    /**
+     * Find the user whose enrolled template is closest to the probe, if it is close enough
+     * @param probe float[] The captured template
+     * @param maximumDistance   double  Largest cosine distance, between 0 and 2, that counts as a match
+     * @return  User    The user with the closest template within the distance, or null if there is none
+     */
+    public User findNearest(float[] probe, double maximumDistance)
+    {
+        float[] normalized = normalize(probe);
+
+        if(normalized == null)
+        {
+            return null;
+        }
+
+        int[] keys = new int[this.tables.size()];
+        for(int table = 0; table < keys.length; table++)
+        {
+            keys[table] = this.bucketKey(table, normalized);
+        }
+
+        this.lock.readLock().lock();
+        try
+        {
+            return this.findNearest(normalized, keys, maximumDistance);
+        }
+        finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search the probe's buckets, and every bucket one bit away, for the closest template. Called with the read lock
+     * held.
+     * @param normalized    float[] The probe, normalized to unit length
+     * @param keys  int[]   The bucket key of the probe in each table
+     * @param maximumDistance   double  Largest cosine distance that counts as a match
+     * @return  User    The user with the closest template within the distance, or null if there is none
+     */
+    private User findNearest(float[] normalized, int[] keys, double maximumDistance)
+    {
+        HashSet<Integer> visited = new HashSet<Integer>();
+        int bestPosition = -1;
+        double bestDistance = maximumDistance;
+
+        for(int table = 0; table < this.tables.size(); table++)
+        {
+            HashMap<Integer, ArrayList<Integer>> buckets = this.tables.get(table);
+            int key = keys[table];
+
+            for(int flippedBit = -1; flippedBit < this.hyperplanes[table].length; flippedBit++)
+            {
+                ArrayList<Integer> bucket = buckets.get(flippedBit < 0 ? key : key ^ (1 << flippedBit));
+
+                if(bucket == null)
+                {
+                    continue;
+                }
+
+                for(int position : bucket)
+                {
+                    if(!visited.add(position))
+                    {
+                        continue;
+                    }
+
+                    double distance = 1.0 - dot(normalized, this.templates.get(position));
+
+                    if(distance <= bestDistance)
+                    {
+                        bestDistance = distance;
+                        bestPosition = position;
+                    }
+                }
+            }
+        }
+
+        return bestPosition < 0 ? null : this.users.get(bestPosition);
+    }
+
+    /**
+     * Compute the bucket key of a template in one table
+     * @param table int The table
+     * @param template  float[] The normalized template
+     * @return  int One bit per hyperplane, set when the template is on its positive side
+     */
+    private int bucketKey(int table, float[] template)
+    {
+        float[][] tableHyperplanes = this.hyperplanes[table];
+        int key = 0;
+
+        for(int bit = 0; bit < tableHyperplanes.length; bit++)
+        {
+            if(dot(tableHyperplanes[bit], template) >= 0)
+            {
+                key |= 1 << bit;
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Scale a template of this index's dimension to unit length
+     * @param template  float[] The template
+     * @return  float[] A unit length copy, or null if the template has the wrong dimension or no length
+     */
+    private float[] normalize(float[] template)
+    {
+        if(template == null || template.length != this.dimension)
+        {
+            return null;
+        }
+
+        return toUnitLength(template);
+    }
+
+    /**
+     * Scale a template to unit length
+     * @param template  float[] The template
+     * @return  float[] A unit length copy, or null if the template has no length
+     */
+    private static float[] toUnitLength(float[] template)
+    {
+        double length = Math.sqrt(dot(template, template));
+
+        if(length == 0)
+        {
+            return null;
+        }
+
+        float[] normalized = new float[template.length];
+
+        for(int i = 0; i < template.length; i++)
+        {
+            normalized[i] = (float) (template[i] / length);
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Dot product of two vectors of the same length
+     * @param a float[] First vector
+     * @param b float[] Second vector
+     * @return  double  The dot product
+     */
+    private static double dot(float[] a, float[] b)
+    {
+        double sum = 0;
+
+        for(int i = 0; i < a.length; i++)
+        {
+            sum += a[i] * b[i];
+        }
+
+        return sum;
+    }
+}
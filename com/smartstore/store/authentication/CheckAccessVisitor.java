@@ -5,7 +5,8 @@ import java.util.Date;
 /**
  * Visitor pattern implementation of the concrete Visitor class that implements the iVisitor interface. This class
  * implements the overloaded visit method for visiting AccessToken object. Use doesUserHaveAccess method to get the
- * result.
+ * result. AuthenticationService.checkAccess looks tokens up by Id instead of visiting every token, so this visitor is
+ * only needed for traversals over all issued tokens.
  */
 public class CheckAccessVisitor implements iVisitor{
     /**
@@ -1,8 +1,13 @@
 package com.cscie97.store.authentication;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
 /**
  * Visitor pattern implementation of the concrete Visitor class that implements the iVisitor interface. This class
- * implements the overloaded visit methods for permission and role objects.
+ * implements the overloaded visit methods for permission and role objects. Each role is visited at most once, so a
+ * role shared by several parents is not walked again and the check is linear in the size of the role graph.
  */
 public class CheckPermissionVisitor implements iVisitor{
     /**
@@ -15,6 +20,11 @@ public class CheckPermissionVisitor implements iVisitor{
      */
     private String permissionIdToCheck;
 
+    /**
+     * The roles already visited
+     */
+    private Set<Role> visitedRoles = Collections.newSetFromMap(new IdentityHashMap<Role, Boolean>());
+
     /**
      * Constructor for this concrete Visitor class
      * @param permission    Permission  The permission to check for the user
@@ -62,9 +72,19 @@ public class CheckPermissionVisitor implements iVisitor{
      */
     @Override
     public void visit(Role role) {
-        role.getAllEntitlements().forEach((key, value) -> {
-            value.acceptVisitor(this);
-        });
+        if(!this.visitedRoles.add(role))
+        {
+            return;
+        }
+
+        for(Entitlement entitlement : role.getAllEntitlements().values())
+        {
+            if(this.result != null)
+            {
+                return;
+            }
+            entitlement.acceptVisitor(this);
+        }
     }
 
     /**
@@ -11,15 +11,24 @@ public class Credential implements iVisitableElement{
     private String id;
 
     /**
-     * The credential string which can be password, faceprint and voiceprint
+     * The hashed credential string. Passwords are hashed with a salted scrypt hash. Faceprints and voiceprints keep an
+     * unsalted SHA-256 digest, which the biometric credential index uses as its lookup key.
      */
-    private String credential;
+    private volatile String credential;
 
     /**
      * The type of the credential whether password or biometrics (face or voice)
      */
     private CredentialTypeEnum credentialType;
 
+    /**
+     * The biometric template of a faceprint or voiceprint given as a template, scaled to unit length and formatted as
+     * comma separated numbers, or null for a password or a biometric credential that is not a template. It is stored
+     * with the credential so the template index can be rebuilt when credentials are restored; the digest alone only
+     * matches an exact capture.
+     */
+    private String template;
+
     /**
      * Constructor for the Credential class
      * @param id    String  Id for this credential
@@ -29,8 +38,26 @@ public class Credential implements iVisitableElement{
     public Credential(String id, String credential, CredentialTypeEnum credentialType)
     {
         this.id = id;
-        this.credential = Util.sha256(credential);
         this.credentialType = credentialType;
+        this.credential = credentialType == CredentialTypeEnum.PASSWORD ? PasswordHasher.hash(credential) :
+                Util.sha256(credential);
+        this.template = credentialType == CredentialTypeEnum.PASSWORD ? null :
+                BiometricTemplateIndex.formatTemplate(BiometricTemplateIndex.parseTemplate(credential));
+    }
+
+    /**
+     * Constructor for a Credential restored from storage, whose credential string has already been hashed
+     * @param id    String  Id for this credential
+     * @param credentialType    CredentialTypeEnum  Type of the credential whether password or biometrics (face or voice)
+     * @param hashedCredential  String  The stored hash of the credential string
+     * @param template  String  The stored unit length biometric template, or null if there is none
+     */
+    Credential(String id, CredentialTypeEnum credentialType, String hashedCredential, String template)
+    {
+        this.id = id;
+        this.credentialType = credentialType;
+        this.credential = hashedCredential;
+        this.template = template;
     }
 
     /**
@@ -41,15 +68,60 @@ public class Credential implements iVisitableElement{
         return this.id;
     }
 
+    /**
+     * Getter for the type of this credential
+     * @return  CredentialTypeEnum  Type of the credential whether password or biometrics (face or voice)
+     */
+    public CredentialTypeEnum getCredentialType() {
+        return this.credentialType;
+    }
+
+    /**
+     * Getter for the hashed credential string stored in this credential
+     * @return  String  The scrypt hash of a password, or the sha256 hash of a biometric credential string
+     */
+    public String getHashedCredential() {
+        return this.credential;
+    }
+
+    /**
+     * Getter for the biometric template of this credential, for storing and restoring it
+     * @return  String  The unit length template as comma separated numbers, or null if there is none
+     */
+    String getTemplate() {
+        return this.template;
+    }
+
     /**
      * Method to check if the provided credential matches the credential stored in this Credential object
      * @param credentialString  String  The credential string to check if there's a match
      * @return  Boolean True if there is a perfect match, false if not
      */
     public boolean isCredentialStringMatching(String credentialString) {
+        if(this.credentialType == CredentialTypeEnum.PASSWORD)
+        {
+            return PasswordHasher.verify(credentialString, this.credential);
+        }
         return this.credential.equals(Util.sha256(credentialString));
     }
 
+    /**
+     * Check whether this password was hashed with older parameters than the current ones
+     * @return  boolean True if the password should be hashed again the next time it is presented
+     */
+    public boolean needsRehash() {
+        return this.credentialType == CredentialTypeEnum.PASSWORD && PasswordHasher.needsRehash(this.credential);
+    }
+
+    /**
+     * Replace the stored hash, when a password has been hashed again with current parameters at login or such an
+     * update is restored from storage
+     * @param hashedCredential  String  The new hash of the credential string
+     */
+    void setHashedCredential(String hashedCredential) {
+        this.credential = hashedCredential;
+    }
+
     /**
      * The method that accepts a visitor for this element
      * @param visitor   iVisitor    An iVisitor object that is being accepted as a visitor to this element
@@ -0,0 +1,302 @@
+package com.cscie97.store.authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of the effective permissions of every user at one version of the entitlement graph. The
+ * AuthenticationService publishes a new snapshot after every entitlement change with a single volatile write. Access
+ * checks read whichever snapshot is current without taking a lock, and never see a half-applied change.
+ *
+ * Users are spread over a fixed number of shards by user Id. A change to some users builds a new snapshot that copies
+ * only the shards holding those users and shares every other shard with the previous snapshot, so the cost of a change
+ * grows with the number of users it touches rather than the number of users in the snapshot. Each user's entry records
+ * the version it was computed at, so decisions cached for users a change did not touch stay valid.
+ *
+ * Besides the global permissions, the snapshot indexes resource scoped permissions. A user holding a ResourceRole,
+ * directly or through a role, gets the permissions of the ResourceRole's role on its resource only. These are kept per
+ * user and resource Id, so a check scoped to a resource is two map lookups and a bit test.
+ */
+public final class EntitlementSnapshot {
+    /**
+     * Number of shards the users are spread over
+     */
+    final static private int SHARD_COUNT = 256;
+
+    /**
+     * Version of the entitlement graph this snapshot was built from
+     */
+    private final long version;
+
+    /**
+     * Entries of the users, keyed by user Id, one map per shard. Neither the maps nor the entries change once the
+     * snapshot is published; a later snapshot may share them.
+     */
+    private final List<HashMap<String, UserPermissions>> shards;
+
+    /**
+     * Constructor for an EntitlementSnapshot. The effective permissions of every user are copied, so later changes to
+     * the users and roles do not show through.
+     * @param version   long    Version of the entitlement graph
+     * @param users Map Mapping of user Ids to the users whose permissions are captured
+     */
+    public EntitlementSnapshot(long version, Map<String, User> users)
+    {
+        ArrayList<HashMap<String, UserPermissions>> newShards = new ArrayList<HashMap<String, UserPermissions>>(
+                SHARD_COUNT);
+        HashMap<Role, List<ResourceRole>> reachableResourceRoles = new HashMap<Role, List<ResourceRole>>();
+
+        for(int shard = 0; shard < SHARD_COUNT; shard++)
+        {
+            newShards.add(new HashMap<String, UserPermissions>());
+        }
+        users.forEach((key, value) -> newShards.get(shardOf(key)).put(key,
+                new UserPermissions(version, value, reachableResourceRoles)));
+
+        this.version = version;
+        this.shards = newShards;
+    }
+
+    /**
+     * Constructor for a snapshot made from the shards of an earlier one
+     * @param version   long    Version of the entitlement graph
+     * @param shards    List    The shards, which must not change after this call
+     */
+    private EntitlementSnapshot(long version, List<HashMap<String, UserPermissions>> shards)
+    {
+        this.version = version;
+        this.shards = shards;
+    }
+
+    /**
+     * Build the snapshot that follows this one after a change to some users. The entries of the changed users are
+     * computed again; every other entry, and every shard holding no changed user, is shared with this snapshot.
+     * @param version   long    Version of the entitlement graph after the change
+     * @param changedUsers  Collection  The users whose entitlements changed, or who are new
+     * @return  EntitlementSnapshot The new snapshot
+     */
+    public EntitlementSnapshot withUsers(long version, Collection<User> changedUsers)
+    {
+        ArrayList<HashMap<String, UserPermissions>> newShards =
+                new ArrayList<HashMap<String, UserPermissions>>(this.shards);
+        boolean[] copied = new boolean[SHARD_COUNT];
+        HashMap<Role, List<ResourceRole>> reachableResourceRoles = new HashMap<Role, List<ResourceRole>>();
+
+        for(User user : changedUsers)
+        {
+            int shard = shardOf(user.getUserId());
+
+            if(!copied[shard])
+            {
+                newShards.set(shard, new HashMap<String, UserPermissions>(newShards.get(shard)));
+                copied[shard] = true;
+            }
+            newShards.get(shard).put(user.getUserId(), new UserPermissions(version, user, reachableResourceRoles));
+        }
+
+        return new EntitlementSnapshot(version, newShards);
+    }
+
+    /**
+     * Find the shard holding a user
+     * @param userId    String  The user Id
+     * @return  int The shard
+     */
+    private static int shardOf(String userId)
+    {
+        return (userId.hashCode() & 0x7fffffff) % SHARD_COUNT;
+    }
+
+    /**
+     * Find the entry of a user
+     * @param userId    String  The user Id
+     * @return  UserPermissions The entry, or null if the user is unknown
+     */
+    private UserPermissions entryOf(String userId)
+    {
+        return userId == null ? null : this.shards.get(shardOf(userId)).get(userId);
+    }
+
+    /**
+     * Find the ResourceRoles reachable from a role, including the role itself. Results are memoized per role, so a
+     * role shared by many users is walked once per snapshot.
+     * @param role  Role    The role to start from
+     * @param memo  HashMap Results found so far, keyed by role
+     * @return  List    The reachable ResourceRoles
+     */
+    private static List<ResourceRole> findResourceRoles(Role role, HashMap<Role, List<ResourceRole>> memo)
+    {
+        List<ResourceRole> found = memo.get(role);
+
+        if(found != null)
+        {
+            return found;
+        }
+
+        ArrayList<ResourceRole> resourceRoles = new ArrayList<ResourceRole>();
+        memo.put(role, resourceRoles);
+
+        if(role instanceof ResourceRole)
+        {
+            resourceRoles.add((ResourceRole) role);
+        }
+
+        for(Entitlement child : role.getAllEntitlements().values())
+        {
+            if(child instanceof Role)
+            {
+                for(ResourceRole resourceRole : findResourceRoles((Role) child, memo))
+                {
+                    if(!resourceRoles.contains(resourceRole))
+                    {
+                        resourceRoles.add(resourceRole);
+                    }
+                }
+            }
+        }
+
+        return resourceRoles;
+    }
+
+    /**
+     * Getter for the version of the entitlement graph this snapshot was built from
+     * @return  long    The version
+     */
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Getter for the version at which a user's entry was last computed. Decisions cached for the user remain valid
+     * while it is unchanged.
+     * @param userId    String  The user Id
+     * @return  long    The version of the user's entry, or -1 if the user is unknown
+     */
+    public long getRevision(String userId)
+    {
+        UserPermissions entry = this.entryOf(userId);
+
+        return entry == null ? -1 : entry.revision;
+    }
+
+    /**
+     * Check whether a user held a permission in this snapshot
+     * @param userId    String  The user Id
+     * @param ordinal   int The permission ordinal
+     * @return  boolean True if the user is known and held the permission
+     */
+    public boolean hasPermission(String userId, int ordinal)
+    {
+        UserPermissions entry = this.entryOf(userId);
+
+        return entry != null && entry.permissions.contains(ordinal);
+    }
+
+    /**
+     * Check whether a user held a permission on a resource in this snapshot, either globally or through a
+     * ResourceRole for that resource
+     * @param userId    String  The user Id
+     * @param ordinal   int The permission ordinal
+     * @param resourceId    String  The resource Id
+     * @return  boolean True if the user held the permission on the resource
+     */
+    public boolean hasPermission(String userId, int ordinal, String resourceId)
+    {
+        UserPermissions entry = this.entryOf(userId);
+
+        if(entry == null)
+        {
+            return false;
+        }
+
+        PermissionBitSet scopedPermissions = entry.resourcePermissions.get(resourceId);
+
+        return entry.permissions.contains(ordinal) || (scopedPermissions != null && scopedPermissions.contains(ordinal));
+    }
+
+    /**
+     * Find which of the requested permissions a user held in this snapshot
+     * @param userId    String  The user Id
+     * @param requested PermissionBitSet    Ordinals of the permissions requested
+     * @return  PermissionBitSet    A new set holding the requested ordinals the user held
+     */
+    public PermissionBitSet getGrantedPermissions(String userId, PermissionBitSet requested)
+    {
+        UserPermissions entry = this.entryOf(userId);
+
+        return entry == null ? new PermissionBitSet() : entry.permissions.intersect(requested);
+    }
+
+    /**
+     * Getter for a copy of the effective permissions of a user in this snapshot
+     * @param userId    String  The user Id
+     * @return  PermissionBitSet    The user's permissions, empty if the user is unknown
+     */
+    public PermissionBitSet getPermissions(String userId)
+    {
+        UserPermissions entry = this.entryOf(userId);
+
+        return entry == null ? new PermissionBitSet() : PermissionBitSet.fromWords(entry.permissions.toWords());
+    }
+
+    /**
+     * The permissions of one user, captured when the entry was computed
+     */
+    private static final class UserPermissions {
+        /**
+         * Version of the entitlement graph at which this entry was computed
+         */
+        private final long revision;
+
+        /**
+         * Effective permissions of the user
+         */
+        private final PermissionBitSet permissions;
+
+        /**
+         * Permissions the user holds on single resources through ResourceRoles, keyed by resource Id
+         */
+        private final Map<String, PermissionBitSet> resourcePermissions;
+
+        /**
+         * Constructor for the entry of a user
+         * @param revision  long    Version of the entitlement graph
+         * @param user  User    The user whose permissions are captured
+         * @param reachableResourceRoles    HashMap ResourceRoles reachable from each role, shared by the entries
+         *                                          built for one snapshot
+         */
+        private UserPermissions(long revision, User user, HashMap<Role, List<ResourceRole>> reachableResourceRoles)
+        {
+            HashMap<String, PermissionBitSet> scopedPermissions = null;
+
+            for(Entitlement entitlement : user.getEntitlements().values())
+            {
+                if(!(entitlement instanceof Role))
+                {
+                    continue;
+                }
+
+                for(ResourceRole resourceRole : findResourceRoles((Role) entitlement, reachableResourceRoles))
+                {
+                    if(scopedPermissions == null)
+                    {
+                        scopedPermissions = new HashMap<String, PermissionBitSet>();
+                    }
+                    scopedPermissions.computeIfAbsent(resourceRole.getResource().getId(),
+                                    resourceId -> new PermissionBitSet())
+                            .addAll(resourceRole.getRole().getEffectivePermissions());
+                }
+            }
+
+            this.revision = revision;
+            this.permissions = PermissionBitSet.fromWords(user.getEffectivePermissions().toWords());
+            this.resourcePermissions = scopedPermissions == null ? Collections.<String, PermissionBitSet>emptyMap() :
+                    scopedPermissions;
+        }
+    }
+}
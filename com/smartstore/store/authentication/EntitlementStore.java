@@ -0,0 +1,412 @@
+package com.cscie97.store.authentication;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * Persists the entitlement graph and credential hashes of the AuthenticationService so it can be restored at startup
+ * without replaying the commands that built it. State is kept in two files in one directory: a snapshot holding the
+ * whole graph, and a change log holding every change made since the snapshot was written.
+ *
+ * Both files are sequences of the same binary records. A record is a type byte, the payload length as an int, and a
+ * payload of length-prefixed UTF-8 fields. Changes are appended to the log before they are applied, so a change that
+ * was applied has been logged. At startup both files are memory-mapped and decoded in one pass with no parsing of
+ * text. A record cut short by a crash at the end of the log is ignored.
+ *
+ * Writing a new snapshot forces it to disk, replaces the old one with an atomic rename, forces the directory so the
+ * rename is durable, and only then empties the log. Replaying a record that is already applied has no effect, so a
+ * crash between any two steps loses nothing.
+ */
+public class EntitlementStore {
+    /**
+     * Record type of a permission: Id, name, description
+     */
+    public final static byte PERMISSION = 1;
+
+    /**
+     * Record type of a resource: Id, description
+     */
+    public final static byte RESOURCE = 2;
+
+    /**
+     * Record type of a role: Id, name, description
+     */
+    public final static byte ROLE = 3;
+
+    /**
+     * Record type of a resource role: Id, role Id, resource Id
+     */
+    public final static byte RESOURCE_ROLE = 4;
+
+    /**
+     * Record type of an entitlement added to a role: role Id, entitlement Id
+     */
+    public final static byte ROLE_CHILD = 5;
+
+    /**
+     * Record type of a user: Id, name, store Id
+     */
+    public final static byte USER = 6;
+
+    /**
+     * Record type of a credential: user Id, credential Id, credential type, hashed credential, unit length biometric
+     * template
+     */
+    public final static byte CREDENTIAL = 7;
+
+    /**
+     * Record type of an entitlement added to a user: user Id, entitlement Id
+     */
+    public final static byte USER_ENTITLEMENT = 8;
+
+    /**
+     * Record type of a new hash for an existing credential, when a password is hashed again with current parameters:
+     * user Id, credential Id, hashed credential
+     */
+    public final static byte CREDENTIAL_UPDATE = 9;
+
+    /**
+     * First bytes of a snapshot file, "ENTS"
+     */
+    final static private int SNAPSHOT_MAGIC = 0x454E5453;
+
+    /**
+     * Version of the snapshot format
+     */
+    final static private int FORMAT_VERSION = 1;
+
+    /**
+     * Size of a record header: the type byte and the payload length
+     */
+    final static private int RECORD_HEADER_BYTES = 5;
+
+    /**
+     * Name of the snapshot file
+     */
+    final static private String SNAPSHOT_FILE = "entitlements.snapshot";
+
+    /**
+     * Name of the change log file
+     */
+    final static private String CHANGE_LOG_FILE = "entitlements.changes";
+
+    /**
+     * Directory holding the snapshot and the change log
+     */
+    private final Path directory;
+
+    /**
+     * Reused buffer in which a record payload is encoded before it is written
+     */
+    private final ByteArrayOutputStream payload;
+
+    /**
+     * Open change log, or null before open is called
+     */
+    private FileChannel changeLog;
+
+    /**
+     * Temporary file of the snapshot being written, or null when no snapshot is being written
+     */
+    private FileChannel snapshotFile;
+
+    /**
+     * Buffered output to snapshotFile, or null when no snapshot is being written
+     */
+    private DataOutputStream snapshotOutput;
+
+    /**
+     * Constructor for an EntitlementStore. Creates the directory if needed.
+     * @param directory Path    Directory holding the snapshot and the change log
+     * @throws IOException  Thrown if the directory cannot be created
+     */
+    public EntitlementStore(Path directory) throws IOException
+    {
+        this.directory = directory;
+        this.payload = new ByteArrayOutputStream();
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Decode the snapshot and then the change log, passing each record to the handler in the order it was written
+     * @param handler   BiConsumer  Receives the type and the fields of each record
+     * @return  int Number of records decoded
+     * @throws IOException  Thrown if a file cannot be read or the snapshot is not in a known format
+     */
+    public int load(BiConsumer<Byte, String[]> handler) throws IOException
+    {
+        int count = 0;
+        Path snapshot = this.directory.resolve(SNAPSHOT_FILE);
+
+        if(Files.exists(snapshot))
+        {
+            ByteBuffer buffer = map(snapshot);
+
+            if(buffer.remaining() < 8 || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != FORMAT_VERSION)
+            {
+                throw new IOException("Not an entitlement snapshot: " + snapshot);
+            }
+            count += replay(buffer, handler);
+        }
+
+        Path changeLog = this.directory.resolve(CHANGE_LOG_FILE);
+        if(Files.exists(changeLog))
+        {
+            count += replay(map(changeLog), handler);
+        }
+
+        return count;
+    }
+
+    /**
+     * Open the change log for appending. Any record cut short at its end is removed first.
+     * @throws IOException  Thrown if the change log cannot be opened
+     */
+    public void open() throws IOException
+    {
+        Path changeLog = this.directory.resolve(CHANGE_LOG_FILE);
+        long validBytes = Files.exists(changeLog) ? validLength(map(changeLog)) : 0;
+
+        this.changeLog = FileChannel.open(changeLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.changeLog.truncate(validBytes);
+        this.changeLog.position(validBytes);
+    }
+
+    /**
+     * Append a record to the change log and force it to disk
+     * @param type  byte    The record type
+     * @param fields    String  The fields of the record
+     * @throws IOException  Thrown if the record cannot be written
+     */
+    public void append(byte type, String... fields) throws IOException
+    {
+        ByteBuffer record = ByteBuffer.wrap(this.encode(type, fields));
+
+        while(record.hasRemaining())
+        {
+            this.changeLog.write(record);
+        }
+        this.changeLog.force(false);
+    }
+
+    /**
+     * Getter for the size of the change log
+     * @return  long    Number of bytes in the change log
+     * @throws IOException  Thrown if the size cannot be read
+     */
+    public long getChangeLogBytes() throws IOException
+    {
+        return this.changeLog == null ? 0 : this.changeLog.size();
+    }
+
+    /**
+     * Start writing a new snapshot to a temporary file. Records are added with appendSnapshot.
+     * @throws IOException  Thrown if the temporary file cannot be created
+     */
+    public void startSnapshot() throws IOException
+    {
+        this.snapshotFile = FileChannel.open(this.directory.resolve(SNAPSHOT_FILE + ".tmp"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.snapshotOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.snapshotFile),
+                1 << 16));
+        this.snapshotOutput.writeInt(SNAPSHOT_MAGIC);
+        this.snapshotOutput.writeInt(FORMAT_VERSION);
+    }
+
+    /**
+     * Add a record to the snapshot being written
+     * @param type  byte    The record type
+     * @param fields    String  The fields of the record
+     * @throws IOException  Thrown if the record cannot be written
+     */
+    public void appendSnapshot(byte type, String... fields) throws IOException
+    {
+        this.snapshotOutput.write(this.encode(type, fields));
+    }
+
+    /**
+     * Finish the snapshot being written, replace the previous snapshot with it and empty the change log. The log is
+     * emptied only once the new snapshot and its name are on disk.
+     * @throws IOException  Thrown if the snapshot cannot be written or moved into place
+     */
+    public void finishSnapshot() throws IOException
+    {
+        try
+        {
+            this.snapshotOutput.flush();
+            this.snapshotFile.force(true);
+        }
+        finally
+        {
+            this.snapshotOutput.close();
+            this.snapshotOutput = null;
+            this.snapshotFile = null;
+        }
+
+        Files.move(this.directory.resolve(SNAPSHOT_FILE + ".tmp"), this.directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.forceDirectory();
+
+        if(this.changeLog != null)
+        {
+            this.changeLog.truncate(0);
+            this.changeLog.position(0);
+            this.changeLog.force(true);
+        }
+    }
+
+    /**
+     * Force the entries of the directory to disk, so a file moved into it survives a crash. Platforms that cannot open
+     * a directory for this, such as Windows, make the rename durable themselves.
+     * @throws IOException  Thrown if the directory was opened but could not be forced
+     */
+    private void forceDirectory() throws IOException
+    {
+        FileChannel directoryChannel;
+        try
+        {
+            directoryChannel = FileChannel.open(this.directory, StandardOpenOption.READ);
+        }
+        catch(IOException e)
+        {
+            return;
+        }
+
+        try(FileChannel channel = directoryChannel)
+        {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Close the change log
+     * @throws IOException  Thrown if the change log cannot be closed
+     */
+    public void close() throws IOException
+    {
+        if(this.changeLog != null)
+        {
+            this.changeLog.close();
+            this.changeLog = null;
+        }
+    }
+
+    /**
+     * Encode one record
+     * @param type  byte    The record type
+     * @param fields    String  The fields of the record
+     * @return  byte[]  The header and payload of the record
+     * @throws IOException  Never thrown when writing to memory
+     */
+    private byte[] encode(byte type, String[] fields) throws IOException
+    {
+        this.payload.reset();
+        DataOutputStream output = new DataOutputStream(this.payload);
+
+        output.writeByte(type);
+        output.writeInt(0);
+        output.writeByte(fields.length);
+        for(String field : fields)
+        {
+            byte[] bytes = (field == null ? "" : field).getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        byte[] record = this.payload.toByteArray();
+        ByteBuffer.wrap(record, 1, 4).putInt(record.length - RECORD_HEADER_BYTES);
+
+        return record;
+    }
+
+    /**
+     * Decode records from a buffer until its end or a record cut short
+     * @param buffer    ByteBuffer  The records
+     * @param handler   BiConsumer  Receives the type and the fields of each record
+     * @return  int Number of records decoded
+     */
+    private static int replay(ByteBuffer buffer, BiConsumer<Byte, String[]> handler)
+    {
+        int count = 0;
+        byte[] scratch = new byte[256];
+
+        while(buffer.remaining() >= RECORD_HEADER_BYTES)
+        {
+            byte type = buffer.get();
+            int length = buffer.getInt();
+
+            if(length < 1 || length > buffer.remaining())
+            {
+                break;
+            }
+
+            int end = buffer.position() + length;
+            String[] fields = new String[buffer.get() & 0xff];
+            for(int i = 0; i < fields.length; i++)
+            {
+                int fieldLength = buffer.getInt();
+                if(fieldLength > scratch.length)
+                {
+                    scratch = new byte[fieldLength];
+                }
+                buffer.get(scratch, 0, fieldLength);
+                fields[i] = new String(scratch, 0, fieldLength, StandardCharsets.UTF_8);
+            }
+            buffer.position(end);
+
+            handler.accept(type, fields);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Find how much of a change log holds whole records
+     * @param buffer    ByteBuffer  The change log
+     * @return  long    Number of bytes up to the end of the last whole record
+     */
+    private static long validLength(ByteBuffer buffer)
+    {
+        while(buffer.remaining() >= RECORD_HEADER_BYTES)
+        {
+            int start = buffer.position();
+            buffer.get();
+            int length = buffer.getInt();
+
+            if(length < 1 || length > buffer.remaining())
+            {
+                return start;
+            }
+            buffer.position(buffer.position() + length);
+        }
+
+        return buffer.position();
+    }
+
+    /**
+     * Memory-map a file for reading
+     * @param file  Path    The file
+     * @return  MappedByteBuffer    The contents of the file
+     * @throws IOException  Thrown if the file cannot be mapped
+     */
+    private static MappedByteBuffer map(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.cscie97.store.authentication;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Visitor pattern behavior implementation of the iVisitor interface that writes each visited element as one line of
+ * JSON to a Writer, in the JSON Lines format. Unlike the InventoryVisitor it does not descend into children: a role
+ * lists the Ids of its child entitlements and a user lists their entitlement Ids, so every element is written once
+ * however many roles refer to it. Lines are built in one reused buffer rather than with toString.
+ *
+ * Credential hashes and token secrets are never written. The iVisitor methods cannot throw, so the first write error
+ * is kept, later elements are skipped, and the caller checks getError once the export is done.
+ */
+public class InventoryExportVisitor implements iVisitor{
+    /**
+     * Where the lines are written
+     */
+    private final Writer writer;
+
+    /**
+     * Buffer in which each line is built
+     */
+    private final StringBuilder line;
+
+    /**
+     * Number of lines written
+     */
+    private int lineCount;
+
+    /**
+     * The first write error, or null if there has been none
+     */
+    private IOException error;
+
+    /**
+     * Constructor of this class
+     * @param writer    Writer  Where the lines are written. The caller flushes and closes it.
+     */
+    public InventoryExportVisitor(Writer writer)
+    {
+        this.writer = writer;
+        this.line = new StringBuilder(256);
+    }
+
+    /**
+     * Getter for the number of lines written
+     * @return  int The number of lines written
+     */
+    public int getLineCount()
+    {
+        return this.lineCount;
+    }
+
+    /**
+     * Getter for the first write error
+     * @return  IOException The first write error, or null if every line was written
+     */
+    public IOException getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * Overloaded method that can visit Resource objects to perform custom actions.
+     * @param resource  Resource    The resource object
+     */
+    @Override
+    public void visit(Resource resource) {
+        this.start("resource", resource.getId());
+        this.field("description", resource.getDescription());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit Permission objects to perform custom actions.
+     * @param permission    Permission  The permission object
+     */
+    @Override
+    public void visit(Permission permission) {
+        this.start("permission", permission.getId());
+        this.field("name", permission.getName());
+        this.field("description", permission.getDescription());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit Role objects to perform custom actions. ResourceRoles also list their role
+     * and resource.
+     * @param role  Role    The role object
+     */
+    @Override
+    public void visit(Role role) {
+        if(role instanceof ResourceRole)
+        {
+            this.start("resource_role", role.getId());
+            this.field("role", ((ResourceRole) role).getRole().getId());
+            this.field("resource", ((ResourceRole) role).getResource().getId());
+        }
+        else
+        {
+            this.start("role", role.getId());
+            this.field("name", role.getName());
+            this.field("description", role.getDescription());
+        }
+        this.array("children", role.getAllEntitlements().keySet());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit User objects to perform custom actions.
+     * @param user  User    The user object
+     */
+    @Override
+    public void visit(User user) {
+        this.start("user", user.getUserId());
+        this.field("name", user.getName());
+
+        this.line.append(",\"credentials\":[");
+        boolean first = true;
+        for(Credential credential : user.getCredentials().values())
+        {
+            this.line.append(first ? "{" : ",{");
+            this.line.append("\"id\":");
+            this.string(credential.getID());
+            this.field("credential_type", credential.getCredentialType().name());
+            this.line.append('}');
+            first = false;
+        }
+        this.line.append(']');
+
+        this.array("entitlements", user.getEntitlements().keySet());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit Credential objects to perform custom actions. The hash is not written.
+     * @param credential    Credential  The credential object
+     */
+    @Override
+    public void visit(Credential credential) {
+        this.start("credential", credential.getID());
+        this.field("credential_type", credential.getCredentialType().name());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit AccessToken objects to perform custom actions. The token secret is not written.
+     * @param accessToken   AccessToken The access token object
+     */
+    @Override
+    public void visit(AccessToken accessToken) {
+        this.start("token", accessToken.getTokenId());
+        this.field("user", accessToken.getUser().getUserId());
+        this.field("state", String.valueOf(accessToken.getTokenState()));
+        this.line.append(",\"expiration\":").append(accessToken.getExpiration().getTime());
+        this.finish();
+    }
+
+    /**
+     * Overloaded method that can visit AuthenticationService objects to perform custom actions. Writes a summary line
+     * with the size of each registry.
+     * @param authenticationService AuthenticationService   The authentication service object
+     */
+    @Override
+    public void visit(AuthenticationService authenticationService) {
+        this.start("service", "authentication");
+        this.line.append(",\"permissions\":").append(authenticationService.getPermissions().size());
+        this.line.append(",\"users\":").append(authenticationService.getUsers().size());
+        this.line.append(",\"tokens\":").append(authenticationService.getTokenCount());
+        this.finish();
+    }
+
+    /**
+     * Begin a line with the element type and Id
+     * @param type  String  The element type
+     * @param id    String  The element Id
+     */
+    private void start(String type, String id)
+    {
+        this.line.setLength(0);
+        this.line.append("{\"type\":\"").append(type).append("\",\"id\":");
+        this.string(id);
+    }
+
+    /**
+     * Append a string field to the line
+     * @param name  String  The field name
+     * @param value String  The field value, or null
+     */
+    private void field(String name, String value)
+    {
+        this.line.append(",\"").append(name).append("\":");
+        this.string(value);
+    }
+
+    /**
+     * Append an array of strings to the line
+     * @param name  String  The field name
+     * @param values    Iterable    The values
+     */
+    private void array(String name, Iterable<String> values)
+    {
+        this.line.append(",\"").append(name).append("\":[");
+        boolean first = true;
+        for(String value : values)
+        {
+            if(!first)
+            {
+                this.line.append(',');
+            }
+            this.string(value);
+            first = false;
+        }
+        this.line.append(']');
+    }
+
+    /**
+     * Append a JSON string, escaping quotes, backslashes and control characters
+     * @param value String  The string, or null
+     */
+    private void string(String value)
+    {
+        if(value == null)
+        {
+            this.line.append("null");
+            return;
+        }
+
+        this.line.append('"');
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if(c == '"' || c == '\\')
+            {
+                this.line.append('\\').append(c);
+            }
+            else if(c < 0x20)
+            {
+                this.line.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                this.line.append(c);
+            }
+        }
+        this.line.append('"');
+    }
+
+    /**
+     * End the line and write it, unless an earlier write has failed
+     */
+    private void finish()
+    {
+        if(this.error != null)
+        {
+            return;
+        }
+
+        this.line.append("}\n");
+        try
+        {
+            this.writer.append(this.line);
+            this.lineCount++;
+        }
+        catch(IOException e)
+        {
+            this.error = e;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cscie97.store.authentication;
+
+/**
+ * Enum of the sections of an inventory export. Sections are exported in the order listed here, and an export cursor
+ * names the section it stopped in.
+ */
+public enum InventorySectionEnum {
+    /**
+     * Every permission
+     */
+    PERMISSION,
+
+    /**
+     * Every role, with the Ids of its child entitlements
+     */
+    ROLE,
+
+    /**
+     * Every resource role, with its role and resource
+     */
+    RESOURCE_ROLE,
+
+    /**
+     * Every resource
+     */
+    RESOURCE,
+
+    /**
+     * Every user, with their credential types and entitlement Ids
+     */
+    USER,
+
+    /**
+     * Every access token still held by the service
+     */
+    TOKEN
+}
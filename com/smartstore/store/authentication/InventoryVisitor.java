@@ -1,11 +1,20 @@
 package com.cscie97.store.authentication;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Locale;
+import java.util.Set;
 
 /**
- * Visitor pattern behavior implementation of the iVisitor interface.
+ * Visitor pattern behavior implementation of the iVisitor interface. A role shared by several parents is shown in
+ * full the first time it is reached and by Id after that, so the inventory is linear in the size of the role graph.
  */
 public class InventoryVisitor implements iVisitor{
+    /**
+     * The roles already shown
+     */
+    private Set<Role> visitedRoles = Collections.newSetFromMap(new IdentityHashMap<Role, Boolean>());
+
     /**
      * Constructor of this class
      */
@@ -35,6 +44,12 @@ public class InventoryVisitor implements iVisitor{
      */
     @Override
     public void visit(Role role) {
+        if(!this.visitedRoles.add(role))
+        {
+            System.out.println("ROLE " + role.getId() + " SHOWN ABOVE");
+            return;
+        }
+
         System.out.println(role);
 
         // If role is a ResourceRole, visit the Resource
@@ -0,0 +1,170 @@
+package com.cscie97.store.authentication;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sliding window rate limiter for login attempts, keyed by an arbitrary string such as a user Id or a device Id.
+ * Time is cut into fixed windows. The number of attempts in the last full window length is estimated from the count
+ * in the current window plus the count in the previous window, weighted by how much of the previous window is still
+ * inside the sliding window. This needs two counters per key rather than a timestamp per attempt.
+ *
+ * The window index and both counters of a key are packed into one AtomicLong and updated with compare-and-set, so
+ * attempts never take a lock. Keys idle for two windows are dropped once the number of keys passes a limit.
+ */
+public class LoginThrottle {
+    /**
+     * Largest number of attempts allowed per key within one window length
+     */
+    private final int maximumAttempts;
+
+    /**
+     * Length of the window in milliseconds
+     */
+    private final long windowMillis;
+
+    /**
+     * Packed state per key: window index in the high 32 bits, previous window count in the next 16 bits and current
+     * window count in the low 16 bits
+     */
+    private final ConcurrentHashMap<String, AtomicLong> windows;
+
+    /**
+     * Number of keys above which idle keys are dropped
+     */
+    final static private int PRUNE_THRESHOLD = 10000;
+
+    /**
+     * Largest count a packed counter can hold
+     */
+    final static private int COUNT_MASK = 0xFFFF;
+
+    /**
+     * Mask for the packed window index, which wraps around after 2^32 windows
+     */
+    final static private long INDEX_MASK = 0xFFFFFFFFL;
+
+    /**
+     * Constructor for a LoginThrottle
+     * @param maximumAttempts   int Largest number of attempts allowed per key within one window length
+     * @param windowMillis  long    Length of the window in milliseconds
+     */
+    public LoginThrottle(int maximumAttempts, long windowMillis)
+    {
+        this.maximumAttempts = Math.min(maximumAttempts, COUNT_MASK);
+        this.windowMillis = windowMillis;
+        this.windows = new ConcurrentHashMap<String, AtomicLong>();
+    }
+
+    /**
+     * Record an attempt for the key if it is within the limit. Attempts that are refused are not counted, so a key
+     * recovers as soon as its earlier attempts slide out of the window.
+     * @param key   String  The user Id or device Id making the attempt
+     * @param nowMillis long    Current time in milliseconds
+     * @return  boolean True if the attempt is allowed, false if it is throttled
+     */
+    public boolean tryAcquire(String key, long nowMillis)
+    {
+        if(this.windows.size() > PRUNE_THRESHOLD)
+        {
+            this.prune(nowMillis);
+        }
+
+        AtomicLong window = this.windows.computeIfAbsent(key, k -> new AtomicLong());
+        long windowIndex = (nowMillis / this.windowMillis) & INDEX_MASK;
+        double previousWeight = 1.0 - (double) (nowMillis % this.windowMillis) / this.windowMillis;
+
+        while(true)
+        {
+            long state = window.get();
+            long stateIndex = state >>> 32;
+            int previous = (int) (state >>> 16) & COUNT_MASK;
+            int current = (int) state & COUNT_MASK;
+
+            if(stateIndex != windowIndex)
+            {
+                // The window has moved on: the current count becomes the previous one, or both lapse
+                previous = stateIndex == ((windowIndex - 1) & INDEX_MASK) ? current : 0;
+                current = 0;
+            }
+
+            if(previous * previousWeight + current >= this.maximumAttempts)
+            {
+                return false;
+            }
+
+            long updated = windowIndex << 32 | (long) previous << 16 | (current + 1);
+            if(window.compareAndSet(state, updated))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take back an attempt recorded by tryAcquire that should not count against the key, such as a login that
+     * succeeded. The attempt is taken from the current window count, or from the previous one if the window moved on
+     * in the meantime.
+     * @param key   String  The user Id or device Id that made the attempt
+     * @param nowMillis long    Current time in milliseconds
+     */
+    public void release(String key, long nowMillis)
+    {
+        AtomicLong window = this.windows.get(key);
+
+        if(window == null)
+        {
+            return;
+        }
+
+        while(true)
+        {
+            long state = window.get();
+            int previous = (int) (state >>> 16) & COUNT_MASK;
+            int current = (int) state & COUNT_MASK;
+
+            if(current > 0)
+            {
+                current--;
+            }
+            else if(previous > 0)
+            {
+                previous--;
+            }
+            else
+            {
+                return;
+            }
+
+            long updated = (state >>> 32) << 32 | (long) previous << 16 | current;
+            if(window.compareAndSet(state, updated))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of keys currently tracked
+     * @return  int The number of keys
+     */
+    public int size()
+    {
+        return this.windows.size();
+    }
+
+    /**
+     * Drop keys with no attempts in the current or previous window
+     * @param nowMillis long    Current time in milliseconds
+     */
+    private void prune(long nowMillis)
+    {
+        long windowIndex = (nowMillis / this.windowMillis) & INDEX_MASK;
+        long previousIndex = (windowIndex - 1) & INDEX_MASK;
+
+        this.windows.values().removeIf(window -> {
+            long stateIndex = window.get() >>> 32;
+            return stateIndex != windowIndex && stateIndex != previousIndex;
+        });
+    }
+}
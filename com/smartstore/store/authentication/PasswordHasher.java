@@ -0,0 +1,310 @@
+package com.cscie97.store.authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Hashes and verifies passwords with scrypt (RFC 7914), a salted key derivation function that is deliberately slow
+ * and needs a large block of memory per hash, so guessing passwords from a stolen hash is expensive even on
+ * specialised hardware.
+ *
+ * Every hash is stored as "$scrypt$version$salt$hash", where the version names the cost parameters it was made with.
+ * When the current parameters are raised, hashes made with older versions still verify, and needsRehash tells the
+ * caller to hash the password again the next time it is presented. Hashes from before scrypt, a bare SHA-256 digest,
+ * count as version 0.
+ */
+public class PasswordHasher {
+    /**
+     * Marker at the start of every scrypt hash
+     */
+    final static private String PREFIX = "$scrypt$";
+
+    /**
+     * Cost parameters by version. Index 0 is the legacy unsalted SHA-256 digest and has no parameters.
+     * Each entry is { log2 of N, block size r, parallelism p }. Version 1 uses 16 MB of memory per hash.
+     */
+    final static private int[][] PARAMETERS = { null, { 14, 8, 1 } };
+
+    /**
+     * The parameter version used for new hashes
+     */
+    final static private int CURRENT_VERSION = 1;
+
+    /**
+     * Number of random salt bytes per hash
+     */
+    final static private int SALT_BYTES = 16;
+
+    /**
+     * Number of bytes of derived key stored
+     */
+    final static private int HASH_BYTES = 32;
+
+    /**
+     * Source of salts
+     */
+    final static private SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Hash a password with a fresh salt and the current parameters
+     * @param password  String  The password to hash
+     * @return  String  The encoded hash
+     */
+    public static String hash(String password)
+    {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+
+        int[] parameters = PARAMETERS[CURRENT_VERSION];
+        byte[] derived = scrypt(password.getBytes(StandardCharsets.UTF_8), salt, 1 << parameters[0], parameters[1],
+                parameters[2], HASH_BYTES);
+
+        return PREFIX + CURRENT_VERSION + "$" + Base64.getEncoder().encodeToString(salt) + "$" +
+                Base64.getEncoder().encodeToString(derived);
+    }
+
+    /**
+     * Verify a password against an encoded hash, comparing in constant time
+     * @param password  String  The password presented
+     * @param encodedHash   String  The stored hash, in scrypt or legacy form
+     * @return  boolean True if the password matches
+     */
+    public static boolean verify(String password, String encodedHash)
+    {
+        if(!encodedHash.startsWith(PREFIX))
+        {
+            return MessageDigest.isEqual(encodedHash.getBytes(StandardCharsets.UTF_8),
+                    Util.sha256(password).getBytes(StandardCharsets.UTF_8));
+        }
+
+        String[] fields = encodedHash.substring(PREFIX.length()).split("\\$");
+        int version = fields.length == 3 ? parseVersion(fields[0]) : -1;
+
+        if(version < 1)
+        {
+            return false;
+        }
+
+        byte[] salt = Base64.getDecoder().decode(fields[1]);
+        byte[] expected = Base64.getDecoder().decode(fields[2]);
+        int[] parameters = PARAMETERS[version];
+        byte[] derived = scrypt(password.getBytes(StandardCharsets.UTF_8), salt, 1 << parameters[0], parameters[1],
+                parameters[2], expected.length);
+
+        return MessageDigest.isEqual(derived, expected);
+    }
+
+    /**
+     * Check whether a stored hash was made with anything other than the current parameters
+     * @param encodedHash   String  The stored hash
+     * @return  boolean True if the password should be hashed again when it is next presented
+     */
+    public static boolean needsRehash(String encodedHash)
+    {
+        if(!encodedHash.startsWith(PREFIX))
+        {
+            return true;
+        }
+
+        return !encodedHash.startsWith(PREFIX + CURRENT_VERSION + "$");
+    }
+
+    /**
+     * Parse the parameter version of a hash
+     * @param field String  The version field
+     * @return  int The version, or -1 if it is not a known version
+     */
+    private static int parseVersion(String field)
+    {
+        try
+        {
+            int version = Integer.parseInt(field);
+            return version < PARAMETERS.length ? version : -1;
+        }
+        catch(NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * The scrypt key derivation function
+     * @param password  byte[]  The password
+     * @param salt  byte[]  The salt
+     * @param n int CPU and memory cost, a power of two
+     * @param r int Block size
+     * @param p int Parallelism
+     * @param length    int Number of bytes to derive
+     * @return  byte[]  The derived key
+     */
+    static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int length)
+    {
+        Mac mac = hmacSha256(password);
+        byte[] blocks = pbkdf2(mac, salt, p * 128 * r);
+        int[] x = new int[32 * r];
+        int[] v = new int[32 * r * n];
+        int[] scratch = new int[16];
+        int[] y = new int[32 * r];
+
+        for(int i = 0; i < p; i++)
+        {
+            int offset = i * 128 * r;
+
+            for(int k = 0; k < x.length; k++)
+            {
+                x[k] = (blocks[offset + 4 * k] & 0xff) | (blocks[offset + 4 * k + 1] & 0xff) << 8 |
+                        (blocks[offset + 4 * k + 2] & 0xff) << 16 | (blocks[offset + 4 * k + 3] & 0xff) << 24;
+            }
+
+            roMix(x, v, y, scratch, r, n);
+
+            for(int k = 0; k < x.length; k++)
+            {
+                blocks[offset + 4 * k] = (byte) x[k];
+                blocks[offset + 4 * k + 1] = (byte) (x[k] >>> 8);
+                blocks[offset + 4 * k + 2] = (byte) (x[k] >>> 16);
+                blocks[offset + 4 * k + 3] = (byte) (x[k] >>> 24);
+            }
+        }
+
+        return pbkdf2(mac, blocks, length);
+    }
+
+    /**
+     * The scrypt ROMix function. Fills v with n successive mixes of x, then mixes x with n entries of v picked by x
+     * itself, so the whole of v must be kept in memory.
+     * @param x int[]   The block to mix, replaced by the result
+     * @param v int[]   Working memory of n blocks
+     * @param y int[]   Working block
+     * @param scratch   int[]   Working Salsa20 state
+     * @param r int Block size
+     * @param n int CPU and memory cost
+     */
+    private static void roMix(int[] x, int[] v, int[] y, int[] scratch, int r, int n)
+    {
+        int blockLength = 32 * r;
+
+        for(int i = 0; i < n; i++)
+        {
+            System.arraycopy(x, 0, v, i * blockLength, blockLength);
+            blockMix(x, y, scratch, r);
+        }
+
+        for(int i = 0; i < n; i++)
+        {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+
+            for(int k = 0; k < blockLength; k++)
+            {
+                x[k] ^= v[j * blockLength + k];
+            }
+            blockMix(x, y, scratch, r);
+        }
+    }
+
+    /**
+     * The scrypt BlockMix function over Salsa20/8
+     * @param b int[]   The block to mix, replaced by the result
+     * @param y int[]   Working block
+     * @param scratch   int[]   Working Salsa20 state
+     * @param r int Block size
+     */
+    private static void blockMix(int[] b, int[] y, int[] scratch, int r)
+    {
+        System.arraycopy(b, (2 * r - 1) * 16, scratch, 0, 16);
+
+        for(int i = 0; i < 2 * r; i++)
+        {
+            for(int k = 0; k < 16; k++)
+            {
+                scratch[k] ^= b[i * 16 + k];
+            }
+            salsa20(scratch);
+
+            // Even sub-blocks go to the first half of the output, odd ones to the second half
+            System.arraycopy(scratch, 0, y, ((i & 1) * r + (i >> 1)) * 16, 16);
+        }
+
+        System.arraycopy(y, 0, b, 0, b.length);
+    }
+
+    /**
+     * The Salsa20/8 core, applied in place
+     * @param b int[]   The 16 word state
+     */
+    private static void salsa20(int[] b)
+    {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for(int i = 0; i < 8; i += 2)
+        {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);    x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);   x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);     x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);   x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);   x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);   x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);   x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);   x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);     x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);    x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);     x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);    x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);   x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);   x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);  x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA256 and a single iteration, as used inside scrypt
+     * @param mac   Mac HMAC-SHA256 keyed with the password
+     * @param salt  byte[]  The salt
+     * @param length    int Number of bytes to derive
+     * @return  byte[]  The derived bytes
+     */
+    private static byte[] pbkdf2(Mac mac, byte[] salt, int length)
+    {
+        byte[] derived = new byte[length];
+
+        for(int block = 1, offset = 0; offset < length; block++, offset += 32)
+        {
+            mac.update(salt);
+            mac.update(new byte[] { (byte) (block >>> 24), (byte) (block >>> 16), (byte) (block >>> 8), (byte) block });
+            System.arraycopy(mac.doFinal(), 0, derived, offset, Math.min(32, length - offset));
+        }
+
+        return derived;
+    }
+
+    /**
+     * Create an HMAC-SHA256 keyed with the password. An empty password is keyed with a single zero byte, which HMAC
+     * treats the same as an empty key.
+     * @param password  byte[]  The password
+     * @return  Mac The keyed Mac
+     */
+    private static Mac hmacSha256(byte[] password)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, "HmacSHA256"));
+            return mac;
+        }
+        catch(GeneralSecurityException e)
+        {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
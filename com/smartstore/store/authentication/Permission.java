@@ -5,15 +5,32 @@ package com.cscie97.store.authentication;
  * authentication service.
  */
 public class Permission extends Entitlement{
+    /**
+     * Dense ordinal assigned by the AuthenticationService when the permission is defined. It is the bit position of
+     * this permission in a PermissionBitSet.
+     */
+    private int ordinal;
+
     /**
      * Constructor for the Permission objects
      * @param id    String  Id of the permissions
      * @param name  String  Name of the permission
      * @param description   String  Description of the permission
+     * @param ordinal   int Dense ordinal of the permission, unique within the AuthenticationService
      */
-    public Permission(String id, String name, String description)
+    public Permission(String id, String name, String description, int ordinal)
     {
         super(id, name, description);
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Getter for the dense ordinal of this permission
+     * @return  int The ordinal, used as the bit position of this permission in a PermissionBitSet
+     */
+    public int getOrdinal()
+    {
+        return this.ordinal;
     }
 
     /**
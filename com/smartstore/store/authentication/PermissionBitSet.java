@@ -0,0 +1,146 @@
+package com.cscie97.store.authentication;
+
+import java.util.Arrays;
+
+/**
+ * A set of permissions held as a bitset, where bit n is set when the permission with ordinal n is granted. Checking
+ * one permission is a single bit test, and checking several at once is an AND against a mask built from their
+ * ordinals. The bitset grows as higher ordinals are added.
+ */
+public class PermissionBitSet {
+    /**
+     * The bits of this set, 64 permission ordinals per word
+     */
+    private long[] words;
+
+    /**
+     * Constructor for an empty PermissionBitSet
+     */
+    public PermissionBitSet()
+    {
+        this.words = new long[1];
+    }
+
+    /**
+     * Add a permission ordinal to this set
+     * @param ordinal   int The permission ordinal to add
+     */
+    public void add(int ordinal)
+    {
+        int word = ordinal >>> 6;
+
+        if(word >= this.words.length)
+        {
+            this.words = Arrays.copyOf(this.words, Math.max(word + 1, this.words.length * 2));
+        }
+
+        this.words[word] |= 1L << ordinal;
+    }
+
+    /**
+     * Add every permission ordinal in another set to this set
+     * @param other PermissionBitSet    The set whose ordinals are added
+     */
+    public void addAll(PermissionBitSet other)
+    {
+        if(other.words.length > this.words.length)
+        {
+            this.words = Arrays.copyOf(this.words, other.words.length);
+        }
+
+        for(int i = 0; i < other.words.length; i++)
+        {
+            this.words[i] |= other.words[i];
+        }
+    }
+
+    /**
+     * Check whether a permission ordinal is in this set
+     * @param ordinal   int The permission ordinal to check
+     * @return  boolean True if the ordinal is in this set
+     */
+    public boolean contains(int ordinal)
+    {
+        int word = ordinal >>> 6;
+
+        return ordinal >= 0 && word < this.words.length && (this.words[word] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * Check whether every permission ordinal in another set is also in this set
+     * @param mask  PermissionBitSet    The ordinals that must all be present
+     * @return  boolean True if this set holds every ordinal in the mask
+     */
+    public boolean containsAll(PermissionBitSet mask)
+    {
+        for(int i = 0; i < mask.words.length; i++)
+        {
+            long word = i < this.words.length ? this.words[i] : 0;
+
+            if((word & mask.words[i]) != mask.words[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the permission ordinals that are in both this set and another set
+     * @param mask  PermissionBitSet    The ordinals to intersect with
+     * @return  PermissionBitSet    A new set holding the ordinals present in both
+     */
+    public PermissionBitSet intersect(PermissionBitSet mask)
+    {
+        PermissionBitSet result = new PermissionBitSet();
+        int length = Math.min(this.words.length, mask.words.length);
+
+        result.words = new long[Math.max(1, length)];
+
+        for(int i = 0; i < length; i++)
+        {
+            result.words[i] = this.words[i] & mask.words[i];
+        }
+
+        return result;
+    }
+
+    /**
+     * Create a set from the words returned by toWords
+     * @param words long[]  The bits of the set, 64 permission ordinals per word
+     * @return  PermissionBitSet    A new set holding the given bits
+     */
+    public static PermissionBitSet fromWords(long[] words)
+    {
+        PermissionBitSet result = new PermissionBitSet();
+
+        result.words = words.length == 0 ? new long[1] : words.clone();
+        return result;
+    }
+
+    /**
+     * Getter for a copy of the bits of this set, for example to embed them in a signed token
+     * @return  long[]  The bits of the set, 64 permission ordinals per word
+     */
+    public long[] toWords()
+    {
+        return this.words.clone();
+    }
+
+    /**
+     * Getter for the number of permission ordinals in this set
+     * @return  int The number of ordinals in this set
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for(long word : this.words)
+        {
+            size += Long.bitCount(word);
+        }
+
+        return size;
+    }
+}
@@ -32,6 +32,12 @@ public class Resource implements iVisitableElement{
      */
     public String getId() { return this.id; }
 
+    /**
+     * Getter for the description
+     * @return description  String  Description of the resource
+     */
+    public String getDescription() { return this.description; }
+
     /**
      * The method that accepts a visitor for this element
      * @param visitor   iVisitor    An iVisitor object that is being accepted as a visitor to this element
@@ -1,10 +1,16 @@
 package com.cscie97.store.authentication;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * Role is a concrete class that extends the abstract class Entitlement and represents each role in the authentication
- * service.
+ * service. Roles may contain other roles, and the roles form a directed acyclic graph: addEntitlement refuses a role
+ * that already includes this one, so walks down the graph always end.
  */
 public class Role extends Entitlement{
     /**
@@ -12,6 +18,23 @@ public class Role extends Entitlement{
      */
     private HashMap<String, Entitlement> childEntitlements;
 
+    /**
+     * The roles that have this role as a child entitlement, used to invalidate their cached permissions
+     */
+    private HashSet<Role> parentRoles;
+
+    /**
+     * Cached transitive closure of the permission ordinals granted by this role, or null when it needs to be
+     * recomputed
+     */
+    private PermissionBitSet effectivePermissions;
+
+    /**
+     * Incremented every time the cached permissions are invalidated, so holders of this role can tell their own
+     * caches are stale
+     */
+    private long revision;
+
     /**
      * Constructor for the Role objects
      * @param id    String  Id of the role
@@ -22,6 +45,7 @@ public class Role extends Entitlement{
     {
         super(id, name, description);
         this.childEntitlements = new HashMap<String, Entitlement>();
+        this.parentRoles = new HashSet<Role>();
     }
 
     /**
@@ -34,12 +58,144 @@ public class Role extends Entitlement{
     }
 
     /**
-     * Method to add entitlements to this role
+     * Method to add entitlements to this role. A role that already includes this role, directly or through its
+     * children, is refused, since adding it would make a cycle.
      * @param entitlement   Entitlement The entitlement to add for this role.
+     * @return  boolean True if the entitlement was added, false if it was refused because it would make a cycle
      */
-    public void addEntitlement(Entitlement entitlement)
+    public boolean addEntitlement(Entitlement entitlement)
     {
+        if(entitlement instanceof Role && ((Role) entitlement).includes(this))
+        {
+            return false;
+        }
+
         this.childEntitlements.put(entitlement.getId(), entitlement);
+
+        if(entitlement instanceof Role)
+        {
+            ((Role) entitlement).parentRoles.add(this);
+        }
+
+        this.invalidateEffectivePermissions();
+        return true;
+    }
+
+    /**
+     * Check whether a role is this role or is reachable from it through child roles. Each role below this one is
+     * visited at most once, so the cost is linear in the size of the graph below this role even when roles are shared.
+     * @param role  Role    The role to look for
+     * @return  boolean True if the role is this role or one of its descendants
+     */
+    public boolean includes(Role role)
+    {
+        Set<Role> visited = Collections.newSetFromMap(new IdentityHashMap<Role, Boolean>());
+        ArrayDeque<Role> pending = new ArrayDeque<Role>();
+        pending.push(this);
+
+        while(!pending.isEmpty())
+        {
+            Role current = pending.pop();
+
+            if(current == role)
+            {
+                return true;
+            }
+
+            if(visited.add(current))
+            {
+                for(Entitlement child : current.childEntitlements.values())
+                {
+                    if(child instanceof Role)
+                    {
+                        pending.push((Role) child);
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Find this role and every role that includes it, directly or through other roles. These are the roles whose
+     * permissions change when this role changes.
+     * @return  Set Identity set of this role and the roles above it
+     */
+    public Set<Role> findIncludingRoles()
+    {
+        Set<Role> found = Collections.newSetFromMap(new IdentityHashMap<Role, Boolean>());
+        ArrayDeque<Role> pending = new ArrayDeque<Role>();
+        pending.push(this);
+
+        while(!pending.isEmpty())
+        {
+            Role current = pending.pop();
+
+            if(found.add(current))
+            {
+                current.parentRoles.forEach(pending::push);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Getter for the ordinals of every permission granted by this role, directly or through child roles. The set is
+     * computed on first use and cached until the role graph below this role changes. Callers must not modify it.
+     * Only called with the AuthenticationService lock held, while an entitlement snapshot is built, so the cache is
+     * never filled from children that are changing. Readers without the lock use the snapshot instead.
+     * @return  PermissionBitSet    Bitset of permission ordinals
+     */
+    PermissionBitSet getEffectivePermissions()
+    {
+        if(this.effectivePermissions == null)
+        {
+            PermissionBitSet permissions = new PermissionBitSet();
+
+            this.childEntitlements.forEach((key, value) -> {
+                if(value instanceof Role)
+                {
+                    permissions.addAll(((Role) value).getEffectivePermissions());
+                }
+                else if(value instanceof Permission)
+                {
+                    permissions.add(((Permission) value).getOrdinal());
+                }
+            });
+
+            this.effectivePermissions = permissions;
+        }
+
+        return this.effectivePermissions;
+    }
+
+    /**
+     * Getter for the revision of this role's cached permissions
+     * @return  long    A number that changes every time the cached permissions are invalidated
+     */
+    public long getRevision()
+    {
+        return this.revision;
+    }
+
+    /**
+     * Drop the cached permissions of this role and of every role above it. A role whose cache is already empty
+     * has no ancestor with a cache built on it, so the walk stops there. This holds because caches are only filled
+     * and dropped with the AuthenticationService lock held.
+     */
+    private void invalidateEffectivePermissions()
+    {
+        if(this.effectivePermissions == null)
+        {
+            return;
+        }
+
+        this.effectivePermissions = null;
+        this.revision++;
+
+        this.parentRoles.forEach(Role::invalidateEffectivePermissions);
     }
 
     /**
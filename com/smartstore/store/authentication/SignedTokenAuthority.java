@@ -0,0 +1,249 @@
+package com.cscie97.store.authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies self-contained signed access tokens. A signed token carries the token Id, the user Id, the
+ * expiration, the store of the user, the entitlement version of that store's partition it was issued under and the
+ * user's effective permissions, followed by an HMAC-SHA256 of all of these. Any service holding this authority can
+ * check a signed token with one MAC and a bit test, without looking the token up in the AuthenticationService.
+ *
+ * The signed permissions are only trusted while the entitlement version of the token's store is unchanged. A grant
+ * change moves on the version of the partitions it touches, and older tokens of those stores no longer verify locally.
+ * Tokens of other stores keep verifying. Tokens logged out before they expire are kept on a small revocation list
+ * until their expiration passes.
+ */
+public class SignedTokenAuthority {
+    /**
+     * Format marker at the start of every signed token payload
+     */
+    final static private String FORMAT_VERSION = "v2";
+
+    /**
+     * Name of the MAC algorithm used to sign tokens
+     */
+    final static private String MAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Secret key used to sign and verify tokens. It never leaves this object.
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * One Mac per thread, since a Mac instance cannot be shared between threads
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Current entitlement version of each partition. Tokens signed under an older version of their store's partition
+     * do not verify.
+     * key = encoded store Id, as written in the payload, value = entitlement version of the store's partition
+     */
+    private final ConcurrentHashMap<String, Long> entitlementVersions;
+
+    /**
+     * Token Ids revoked before their expiration, mapped to that expiration in milliseconds
+     */
+    private final ConcurrentHashMap<String, Long> revokedTokens;
+
+    /**
+     * Constructor for a SignedTokenAuthority with a fresh random key
+     */
+    public SignedTokenAuthority()
+    {
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::createMac);
+        this.revokedTokens = new ConcurrentHashMap<String, Long>();
+        this.entitlementVersions = new ConcurrentHashMap<String, Long>();
+    }
+
+    /**
+     * Sign an issued access token together with the permissions of its user
+     * @param accessToken   AccessToken The issued access token
+     * @param permissions   PermissionBitSet    The effective permissions of the token's user
+     * @param entitlementVersion    long    Version of the user's partition the permissions were read from
+     * @return  String  The signed token
+     */
+    public String sign(AccessToken accessToken, PermissionBitSet permissions, long entitlementVersion)
+    {
+        StringBuilder words = new StringBuilder();
+
+        for(long word : permissions.toWords())
+        {
+            if(words.length() > 0)
+            {
+                words.append(',');
+            }
+            words.append(Long.toHexString(word));
+        }
+
+        String payload = FORMAT_VERSION + "|" + accessToken.getTokenId() + "|" +
+                accessToken.getExpiration().getTime() + "|" + encodeStoreId(accessToken.getUser().getStoreId()) + "|" +
+                entitlementVersion + "|" + words + "|" + accessToken.getUser().getUserId();
+        String encodedPayload = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+
+        return encodedPayload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(this.mac(encodedPayload));
+    }
+
+    /**
+     * Verify a signed token locally and check that it grants the permission. The MAC is compared in constant time
+     * before any field of the payload is trusted.
+     * @param signedToken   String  The signed token presented by the caller
+     * @param permission    Permission  The permission being checked
+     * @param nowMillis long    Current time in milliseconds
+     * @return  boolean True if the token is authentic, unexpired, not revoked, issued under the current entitlement
+     * version of its store and grants the permission. False means the token must be checked with the
+     * AuthenticationService.
+     */
+    public boolean verify(String signedToken, Permission permission, long nowMillis)
+    {
+        if(signedToken == null || permission == null)
+        {
+            return false;
+        }
+
+        int separator = signedToken.lastIndexOf('.');
+        if(separator < 0)
+        {
+            return false;
+        }
+
+        String encodedPayload = signedToken.substring(0, separator);
+        String[] fields;
+
+        try
+        {
+            byte[] presentedMac = Base64.getUrlDecoder().decode(signedToken.substring(separator + 1));
+            if(!MessageDigest.isEqual(this.mac(encodedPayload), presentedMac))
+            {
+                return false;
+            }
+
+            fields = new String(Base64.getUrlDecoder().decode(encodedPayload), StandardCharsets.UTF_8)
+                    .split("\\|", 7);
+        }
+        catch(IllegalArgumentException e)
+        {
+            return false;
+        }
+
+        if(fields.length != 7 || !FORMAT_VERSION.equals(fields[0]))
+        {
+            return false;
+        }
+
+        Long storeVersion = this.entitlementVersions.get(fields[3]);
+        if(Long.parseLong(fields[2]) <= nowMillis || storeVersion == null ||
+                Long.parseLong(fields[4]) != storeVersion || this.revokedTokens.containsKey(fields[1]))
+        {
+            return false;
+        }
+
+        String[] hexWords = fields[5].split(",");
+        long[] words = new long[hexWords.length];
+
+        for(int i = 0; i < hexWords.length; i++)
+        {
+            words[i] = Long.parseUnsignedLong(hexWords[i], 16);
+        }
+
+        return PermissionBitSet.fromWords(words).contains(permission.getOrdinal());
+    }
+
+    /**
+     * Revoke a signed token before its expiration, for example at logout. Revocations whose tokens have expired are
+     * dropped at the same time, so the list only holds tokens that could still verify.
+     * @param accessToken   AccessToken The issued access token whose signed form is revoked
+     * @param nowMillis long    Current time in milliseconds
+     */
+    public void revoke(AccessToken accessToken, long nowMillis)
+    {
+        this.revokedTokens.values().removeIf(expiration -> expiration <= nowMillis);
+
+        if(accessToken.getExpiration().getTime() > nowMillis)
+        {
+            this.revokedTokens.put(accessToken.getTokenId(), accessToken.getExpiration().getTime());
+        }
+    }
+
+    /**
+     * Setter for the current entitlement version of a store's partition, so tokens of that store signed with older
+     * permissions no longer verify locally
+     * @param storeId   String  The store Id, or null for the global partition
+     * @param entitlementVersion    long    The version of the store's partition now in effect
+     */
+    public void setEntitlementVersion(String storeId, long entitlementVersion)
+    {
+        this.entitlementVersions.put(encodeStoreId(storeId), entitlementVersion);
+    }
+
+    /**
+     * Getter for the current entitlement version of a store's partition
+     * @param storeId   String  The store Id, or null for the global partition
+     * @return  long    The entitlement version, or -1 if none has been set for the store
+     */
+    public long getEntitlementVersion(String storeId)
+    {
+        return this.entitlementVersions.getOrDefault(encodeStoreId(storeId), -1L);
+    }
+
+    /**
+     * Getter for the number of revoked tokens that have not expired yet
+     * @return  int The size of the revocation list
+     */
+    public int getRevokedCount()
+    {
+        return this.revokedTokens.size();
+    }
+
+    /**
+     * Encode a store Id for the payload. The encoding never contains the field separator, so a store Id cannot move
+     * the fields after it.
+     * @param storeId   String  The store Id, or null for the global partition
+     * @return  String  The encoded store Id, empty for the global partition
+     */
+    private static String encodeStoreId(String storeId)
+    {
+        return storeId == null ? "" : "s" +
+                Base64.getUrlEncoder().withoutPadding().encodeToString(storeId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compute the MAC of an encoded payload
+     * @param encodedPayload    String  The encoded payload
+     * @return  byte[]  The MAC
+     */
+    private byte[] mac(String encodedPayload)
+    {
+        return this.macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Create a Mac initialized with the signing key
+     * @return  Mac The Mac
+     */
+    private Mac createMac()
+    {
+        try
+        {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(this.key);
+            return mac;
+        }
+        catch(GeneralSecurityException e)
+        {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+}
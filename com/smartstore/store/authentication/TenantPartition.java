@@ -0,0 +1,138 @@
+package com.cscie97.store.authentication;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One tenant partition of the AuthenticationService. Each store has its own partition holding the users that belong
+ * to the store, the access tokens issued to them, their entitlement snapshot and their authorization decision cache.
+ * Users that belong to no store, such as root and the store system user, live in the global partition.
+ *
+ * Permissions, roles and resources are shared by every partition. A change to a single user's entitlements updates
+ * only that user's entry in that user's partition, and a change to a role updates only the users holding it, so the
+ * cost of a change grows with the number of users it touches rather than the size of the store or the system. Each
+ * partition's snapshot carries its own version, which moves on only when the partition changes, so signed tokens of
+ * other stores keep verifying. Access checks find their partition from the token's user in a single map lookup, and
+ * never touch the maps of other stores.
+ */
+public class TenantPartition {
+    /**
+     * Id of the store this partition belongs to, or null for the global partition
+     */
+    private final String storeId;
+
+    /**
+     * Users belonging to this partition
+     * key = user Id, value = User object
+     */
+    private final ConcurrentHashMap<String, User> users;
+
+    /**
+     * Access tokens issued to users of this partition
+     * key = access token Id, value = AccessToken object
+     */
+    private final ConcurrentHashMap<String, AccessToken> tokens;
+
+    /**
+     * Cache of recent positive checkAccess decisions for tokens of this partition
+     */
+    private final AuthorizationDecisionCache decisionCache;
+
+    /**
+     * Immutable effective permissions of the users of this partition
+     */
+    private volatile EntitlementSnapshot entitlementSnapshot;
+
+    /**
+     * Constructor for a TenantPartition
+     * @param storeId   String  Id of the store, or null for the global partition
+     * @param decisionCacheMaxTokens    int Largest number of tokens whose decisions are cached
+     * @param decisionCacheTtlMillis    long    Longest time a decision is cached
+     * @param version   long    Entitlement version of the first snapshot
+     */
+    public TenantPartition(String storeId, int decisionCacheMaxTokens, long decisionCacheTtlMillis, long version)
+    {
+        this.storeId = storeId;
+        this.users = new ConcurrentHashMap<String, User>();
+        this.tokens = new ConcurrentHashMap<String, AccessToken>();
+        this.decisionCache = new AuthorizationDecisionCache(decisionCacheMaxTokens, decisionCacheTtlMillis);
+        this.entitlementSnapshot = new EntitlementSnapshot(version, this.users);
+    }
+
+    /**
+     * Getter for the store Id
+     * @return  String  Id of the store, or null for the global partition
+     */
+    public String getStoreId()
+    {
+        return this.storeId;
+    }
+
+    /**
+     * Getter for the users of this partition
+     * @return  ConcurrentHashMap   Mapping of user Ids to the users of this partition
+     */
+    public ConcurrentHashMap<String, User> getUsers()
+    {
+        return this.users;
+    }
+
+    /**
+     * Getter for the access tokens of this partition
+     * @return  ConcurrentHashMap   Mapping of token Ids to the access tokens issued to users of this partition
+     */
+    public ConcurrentHashMap<String, AccessToken> getTokens()
+    {
+        return this.tokens;
+    }
+
+    /**
+     * Getter for the authorization decision cache of this partition
+     * @return  AuthorizationDecisionCache  The decision cache
+     */
+    public AuthorizationDecisionCache getDecisionCache()
+    {
+        return this.decisionCache;
+    }
+
+    /**
+     * Getter for the current entitlement snapshot of this partition
+     * @return  EntitlementSnapshot The current snapshot
+     */
+    public EntitlementSnapshot getEntitlementSnapshot()
+    {
+        return this.entitlementSnapshot;
+    }
+
+    /**
+     * Build and publish a new entitlement snapshot for all the users of this partition and drop its cached decisions.
+     * Called with the AuthenticationService lock held.
+     * @param version   long    Entitlement version of the new snapshot
+     */
+    public void rebuildEntitlements(long version)
+    {
+        this.entitlementSnapshot = new EntitlementSnapshot(version, this.users);
+        this.decisionCache.invalidateAll();
+    }
+
+    /**
+     * Publish a new entitlement snapshot in which only the given users of this partition are computed again. Cached
+     * decisions of the other users stay valid. Called with the AuthenticationService lock held.
+     * @param version   long    Entitlement version of the new snapshot
+     * @param changedUsers  Collection  Users of this partition whose entitlements changed, or who are new
+     */
+    public void updateEntitlements(long version, Collection<User> changedUsers)
+    {
+        this.entitlementSnapshot = this.entitlementSnapshot.withUsers(version, changedUsers);
+    }
+
+    /**
+     * Printable view of this partition on one line
+     * @return String   Text containing the store Id and the sizes of the partition
+     */
+    public String toString()
+    {
+        return "PARTITION " + (this.storeId == null ? "GLOBAL" : this.storeId) + " USERS " + this.users.size() +
+                " TOKENS " + this.tokens.size();
+    }
+}
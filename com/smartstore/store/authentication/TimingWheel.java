@@ -0,0 +1,156 @@
+package com.cscie97.store.authentication;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel that holds items until their deadline passes. The wheel is a ring of slots, one per tick.
+ * Each item is placed in the slot for its deadline tick, and remembers that tick so deadlines further away than one
+ * turn of the wheel wait for later turns. Scheduling is O(1). Advancing visits only the slots for the ticks that have
+ * passed and compacts each in a single pass, so the cost of expiring items grows with the size of those slots and not
+ * with how many items are waiting elsewhere. The wheel has no thread of its
+ * own; its owner advances it with the current time.
+ * @param <T>   Type of the items held by the wheel
+ */
+public class TimingWheel<T> {
+    /**
+     * Length of one tick in milliseconds
+     */
+    private final long tickMillis;
+
+    /**
+     * Number of slots minus one. The number of slots is a power of two so a tick maps to its slot with a mask.
+     */
+    private final int mask;
+
+    /**
+     * The slots of the wheel, each holding the entries whose deadline tick maps to it
+     */
+    private final ArrayList<ArrayList<Entry<T>>> slots;
+
+    /**
+     * The last tick the wheel has been advanced to
+     */
+    private long currentTick;
+
+    /**
+     * Number of items waiting in the wheel
+     */
+    private int size;
+
+    /**
+     * Constructor for a TimingWheel
+     * @param tickMillis    long    Length of one tick in milliseconds
+     * @param slotCount int Number of slots, rounded up to a power of two
+     * @param nowMillis long    Current time in milliseconds
+     */
+    public TimingWheel(long tickMillis, int slotCount, long nowMillis)
+    {
+        int slotsPowerOfTwo = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+
+        this.tickMillis = tickMillis;
+        this.mask = slotsPowerOfTwo - 1;
+        this.slots = new ArrayList<ArrayList<Entry<T>>>(slotsPowerOfTwo);
+        for(int i = 0; i < slotsPowerOfTwo; i++)
+        {
+            this.slots.add(new ArrayList<Entry<T>>());
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Hold an item until its deadline. An item whose deadline has already passed is handed out on the next advance.
+     * @param item  T   The item to hold
+     * @param deadlineMillis    long    Time in milliseconds at which the item is due
+     */
+    public void schedule(T item, long deadlineMillis)
+    {
+        long deadlineTick = Math.max((deadlineMillis + this.tickMillis - 1) / this.tickMillis, this.currentTick + 1);
+
+        this.slots.get((int) (deadlineTick & this.mask)).add(new Entry<T>(item, deadlineTick));
+        this.size++;
+    }
+
+    /**
+     * Advance the wheel to the current time and hand every item whose deadline has passed to the consumer. Items may
+     * be scheduled again from inside the consumer.
+     * @param nowMillis long    Current time in milliseconds
+     * @param dueItemConsumer   Consumer    Called once for each item that is due
+     */
+    public void advance(long nowMillis, Consumer<T> dueItemConsumer)
+    {
+        long nowTick = nowMillis / this.tickMillis;
+
+        if(nowTick <= this.currentTick)
+        {
+            return;
+        }
+
+        long ticksToVisit = Math.min(nowTick - this.currentTick, this.mask + 1);
+        long firstTick = this.currentTick + 1;
+        ArrayList<T> dueItems = new ArrayList<T>();
+
+        for(long tick = firstTick; tick < firstTick + ticksToVisit; tick++)
+        {
+            ArrayList<Entry<T>> slot = this.slots.get((int) (tick & this.mask));
+            int kept = 0;
+
+            // Compact the entries still waiting for a later turn to the front of the slot in one pass
+            for(int i = 0; i < slot.size(); i++)
+            {
+                Entry<T> entry = slot.get(i);
+
+                if(entry.deadlineTick <= nowTick)
+                {
+                    dueItems.add(entry.item);
+                }
+                else
+                {
+                    slot.set(kept++, entry);
+                }
+            }
+
+            this.size -= slot.size() - kept;
+            slot.subList(kept, slot.size()).clear();
+        }
+
+        this.currentTick = nowTick;
+        dueItems.forEach(dueItemConsumer);
+    }
+
+    /**
+     * Getter for the number of items waiting in the wheel
+     * @return  int The number of items waiting
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * One item held by the wheel, with the tick at which it is due
+     * @param <T>   Type of the item
+     */
+    private static class Entry<T> {
+        /**
+         * The item held
+         */
+        private final T item;
+
+        /**
+         * The tick at which the item is due
+         */
+        private final long deadlineTick;
+
+        /**
+         * Constructor for an Entry
+         * @param item  T   The item held
+         * @param deadlineTick  long    The tick at which the item is due
+         */
+        private Entry(T item, long deadlineTick)
+        {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.cscie97.store.authentication;
 
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents each user. It implements the iVisitableElement interface that enables the Visitor pattern
@@ -17,10 +18,15 @@ public class User implements iVisitableElement{
      */
     private String name;
 
+    /**
+     * Id of the store this user belongs to, or null if the user belongs to no store
+     */
+    private final String storeId;
+
     /**
      * Mapping of the credential strings to the Credential objects
      */
-    private HashMap<String, Credential> credentials;
+    private ConcurrentHashMap<String, Credential> credentials;
 
     /**
      * Mapping of the entitlement IDs to the Entitlement objects
@@ -30,7 +36,19 @@ public class User implements iVisitableElement{
     /**
      * Mapping of the access token ID to the AccessToken objects associated with this user
      */
-    private HashMap<String, AccessToken> currentAccessTokens;
+    private ConcurrentHashMap<String, AccessToken> currentAccessTokens;
+
+    /**
+     * Cached ordinals of every permission granted to this user through their entitlements, or null when it needs to
+     * be recomputed
+     */
+    private PermissionBitSet effectivePermissions;
+
+    /**
+     * Sum of the revisions of the roles held by this user when effectivePermissions was computed. A different sum
+     * means one of those roles has changed since.
+     */
+    private long effectivePermissionRevision;
 
     /**
      * Constructor for the User class
@@ -38,11 +56,24 @@ public class User implements iVisitableElement{
      * @param name  String  The user's name
      */
     public User(String userId, String name)
+    {
+        this(userId, name, null);
+    }
+
+    /**
+     * Constructor for a User belonging to one store
+     * @param userId    String  The user's ID
+     * @param name  String  The user's name
+     * @param storeId   String  Id of the store the user belongs to, or null if the user belongs to no store
+     */
+    public User(String userId, String name, String storeId)
     {
         this.userId = userId;
         this.name = name;
-        this.credentials = new HashMap<String, Credential>();
+        this.storeId = storeId;
+        this.credentials = new ConcurrentHashMap<String, Credential>();
         this.entitlements = new HashMap<String, Entitlement>();
+        this.currentAccessTokens = new ConcurrentHashMap<String, AccessToken>();
     }
 
     /**
@@ -54,6 +85,15 @@ public class User implements iVisitableElement{
         return this.userId;
     }
 
+    /**
+     * Getter for the store the user belongs to
+     * @return  String  The store Id, or null if the user belongs to no store
+     */
+    public String getStoreId()
+    {
+        return this.storeId;
+    }
+
     /**
      * Getter for the user's name
      * @return  String  The user's name
@@ -67,7 +107,7 @@ public class User implements iVisitableElement{
      * Getter for all credentials associated with this user
      * @return  HashMap Mapping of the credential strings to the Credential objects
      */
-    public HashMap<String, Credential> getCredentials()
+    public ConcurrentHashMap<String, Credential> getCredentials()
     {
         return  this.credentials;
     }
@@ -81,6 +121,33 @@ public class User implements iVisitableElement{
         this.credentials.put(credential.getID(), credential);
     }
 
+    /**
+     * Getter for the active access tokens held by this user
+     * @return  HashMap Mapping of the access token IDs to the active AccessToken objects of this user
+     */
+    public ConcurrentHashMap<String, AccessToken> getCurrentAccessTokens()
+    {
+        return this.currentAccessTokens;
+    }
+
+    /**
+     * Method to track an access token issued to this user
+     * @param accessToken   AccessToken The token issued to this user at login
+     */
+    public void addAccessToken(AccessToken accessToken)
+    {
+        this.currentAccessTokens.put(accessToken.getTokenId(), accessToken);
+    }
+
+    /**
+     * Method to stop tracking an access token once it is no longer active
+     * @param accessToken   AccessToken The token that has been logged out, revoked or has expired
+     */
+    public void removeAccessToken(AccessToken accessToken)
+    {
+        this.currentAccessTokens.remove(accessToken.getTokenId());
+    }
+
     /**
      * Getter for all entitlements associated with this user
      * @return  HashMap Mapping of the entitlement IDs to the Entitlement objects
@@ -97,6 +164,69 @@ public class User implements iVisitableElement{
     public void addEntitlement(Entitlement entitlement)
     {
         this.entitlements.put(entitlement.getId(), entitlement);
+        this.effectivePermissions = null;
+    }
+
+    /**
+     * Getter for the ordinals of every permission granted to this user, directly or through roles. The set is cached
+     * and recomputed only when the user's entitlements or the roles below them change. Callers must not modify it.
+     * Only called with the AuthenticationService lock held, while an entitlement snapshot is built.
+     * @return  PermissionBitSet    Bitset of permission ordinals
+     */
+    PermissionBitSet getEffectivePermissions()
+    {
+        long revision = this.getEntitlementRevision();
+
+        if(this.effectivePermissions == null || this.effectivePermissionRevision != revision)
+        {
+            PermissionBitSet permissions = new PermissionBitSet();
+
+            this.entitlements.forEach((key, value) -> {
+                if(value instanceof Role)
+                {
+                    permissions.addAll(((Role) value).getEffectivePermissions());
+                }
+                else if(value instanceof Permission)
+                {
+                    permissions.add(((Permission) value).getOrdinal());
+                }
+            });
+
+            this.effectivePermissions = permissions;
+            this.effectivePermissionRevision = revision;
+        }
+
+        return this.effectivePermissions;
+    }
+
+    /**
+     * Check whether this user has the permission with the given ordinal, in the current entitlement snapshot of the
+     * user's partition. Needs no lock, since the snapshot never changes once published.
+     * @param ordinal   int The ordinal of the permission to check
+     * @return  boolean True if the user has the permission
+     */
+    public boolean hasPermission(int ordinal)
+    {
+        return AuthenticationService.getInstance().hasPermission(this, ordinal);
+    }
+
+    /**
+     * Sum the revisions of the roles held directly by this user
+     * @return  long    Sum of role revisions
+     */
+    private long getEntitlementRevision()
+    {
+        long revision = 0;
+
+        for(Entitlement entitlement : this.entitlements.values())
+        {
+            if(entitlement instanceof Role)
+            {
+                revision += ((Role) entitlement).getRevision();
+            }
+        }
+
+        return revision;
     }
 
     /**
@@ -106,31 +236,34 @@ public class User implements iVisitableElement{
      */
     public Boolean verifyCredentialString(String credentialString)
     {
-        final Boolean[] verified = {false};
-        this.credentials.forEach((key, value) ->
+        return this.findMatchingCredential(credentialString) != null;
+    }
+
+    /**
+     * Find the credential of this user that matches the credential string provided
+     * @param credentialString  String  The credential string to match
+     * @return  Credential  The matching credential, or null if none matches
+     */
+    public Credential findMatchingCredential(String credentialString)
+    {
+        for(Credential credential : this.credentials.values())
         {
-            if(value.isCredentialStringMatching(credentialString))
+            if(credential.isCredentialStringMatching(credentialString))
             {
-                verified[0] = true;
+                return credential;
             }
-        });
-        return verified[0];
+        }
+        return null;
     }
 
     /**
-     * Check whether this user has the given permission
+     * Check whether this user has the given permission, using the current entitlement snapshot
      * @param permission    Permission  The permission to check whether this user has
      * @return  Permission  The confirmed permission or null if the User does not have the given permission
      */
     public Permission verifyPermission(Permission permission)
     {
-        CheckPermissionVisitor checkPermissionVisitor = new CheckPermissionVisitor(permission);
-
-        this.entitlements.forEach((key, value) -> {
-            value.acceptVisitor(checkPermissionVisitor);
-        });
-
-        return checkPermissionVisitor.getResult();
+        return this.hasPermission(permission.getOrdinal()) ? permission : null;
     }
 
     /**
@@ -7,6 +7,9 @@ import com.cscie97.store.controller.StoreControllerService;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,6 +43,11 @@ public class CommandProcessor {
      */
     private AccessToken currentUsersAccessToken;
 
+    /**
+     * Largest number of lines in a page written by export_inventory when no limit is given
+     */
+    final static private int DEFAULT_EXPORT_LIMIT = 100;
+
     /**
      * Constructor for the CommandProcessor, where the Model, Controller, Ledger, and Singleton pattern instance of
      * Authentication service are first created
@@ -481,7 +489,8 @@ public class CommandProcessor {
     }
 
     /**
-     * Login to the Authentication Service
+     * Login to the Authentication Service, optionally naming the device the credential comes from:
+     * login <user_id> password <password> [device <device_id>] or login faceprint|voiceprint <print> [device <device_id>]
      * @param args List of Strings  Arguments passed in, including the command itself.
      */
     private void login(List<String> args)
@@ -490,14 +499,16 @@ public class CommandProcessor {
         {
             if(args.get(2).equals("password"))
             {
+                String deviceId = (args.size() > 5 && args.get(4).equals("device") ? args.get(5) : null);
                 this.currentUsersAccessToken = this.authenticationService.login(args.get(1), args.get(3),
-                        CredentialTypeEnum.valueOf(args.get(2).toUpperCase()));
+                        CredentialTypeEnum.valueOf(args.get(2).toUpperCase()), deviceId);
             }
             else if(args.get(1).toUpperCase().equals("faceprint".toUpperCase()) ||
                     args.get(1).toUpperCase().equals("voiceprint".toUpperCase()))
             {
+                String deviceId = (args.size() > 4 && args.get(3).equals("device") ? args.get(4) : null);
                 this.currentUsersAccessToken = this.authenticationService.login(args.get(2),
-                        CredentialTypeEnum.valueOf(args.get(1).toUpperCase()));
+                        CredentialTypeEnum.valueOf(args.get(1).toUpperCase()), deviceId);
             }
             System.out.println("CURRENT USER'S ACCESS TOKEN: " + currentUsersAccessToken.getTokenId().toString());
         }
@@ -568,14 +579,34 @@ public class CommandProcessor {
     }
 
     /**
-     * Create a new User
+     * Create a new User, optionally belonging to a store: create_user <id> name <name> [store <store_id>]
      * @param args   List of Strings  Arguments passed in, including the command itself.
      */
     private void createUser(List<String> args)
     {
         try
         {
-            authenticationService.createUser(args.get(1), args.get(3), this.currentUsersAccessToken);
+            String storeId = (args.size() > 5 && args.get(4).equals("store") ? args.get(5) : null);
+            authenticationService.createUser(args.get(1), args.get(3), storeId, this.currentUsersAccessToken);
+        }
+        catch (AuthenticationException e)
+        {
+            System.out.println(String.format("SCRIPT ERROR DURING ACTION: (%s)\n" +
+                            "REASON: %s \n" +
+                            "OFFENDING VALUE: %s\n",
+                    e.getAction(), e.getReason(), e.getOffendingValue()));
+        }
+    }
+
+    /**
+     * Revoke all sessions of a User
+     * @param args   List of Strings  Arguments passed in, including the command itself.
+     */
+    private void revokeUserSessions(List<String> args)
+    {
+        try
+        {
+            authenticationService.revokeUserSessions(args.get(1), this.currentUsersAccessToken);
         }
         catch (AuthenticationException e)
         {
@@ -696,22 +727,17 @@ public class CommandProcessor {
 
                 Permission permission = this.authenticationService.getPermissions().get(permissionId);
 
-                this.authenticationService.checkAccess(accessToken, permission);
+                this.authenticationService.checkAccess(accessToken, permission, resourceId);
             }
             else if(args.get(1).equalsIgnoreCase("faceprint") ||
                     args.get(1).equalsIgnoreCase("voiceprint"))
             {
-                User user = null;
                 String credentialString = args.get(2);
                 String resourceId = args.get(4);
                 String permissionId = args.get(6);
 
-                for (Map.Entry<String, User> entry : this.authenticationService.getUsers().entrySet()) {
-                    User checkUser = entry.getValue();
-                    if (checkUser.verifyCredentialString(credentialString)) {
-                        user = checkUser;
-                    }
-                }
+                User user = this.authenticationService.findUserByBiometric(credentialString,
+                        CredentialTypeEnum.valueOf(args.get(1).toUpperCase()));
 
                 // No such user
                 if(user == null)
@@ -719,16 +745,12 @@ public class CommandProcessor {
                     throw new AuthenticationException("checkAccess in CommandProcessor", "No such user", credentialString);
                 }
 
-                // If such a user exists, verify their credential and generate accessToken
-                accessToken = null;
-                if(user.verifyCredentialString(credentialString))
-                {
-                    accessToken = new AccessToken(user);
-                    accessToken.setTokenState(AccessTokenStateEnum.ACTIVE);
-                }
+                // The biometric index only returns a user whose credential matches, so generate accessToken
+                accessToken = new AccessToken(user);
+                accessToken.setTokenState(AccessTokenStateEnum.ACTIVE);
 
                 Permission permission = this.authenticationService.getPermissions().get(permissionId);
-                this.authenticationService.checkAccess(accessToken, permission);
+                this.authenticationService.checkAccess(accessToken, permission, resourceId);
 
             }
 
@@ -767,6 +789,83 @@ public class CommandProcessor {
         }
     }
 
+    /**
+     * Export one page of the Authentication Service inventory as JSON Lines and print the cursor of the next page:
+     * export_inventory [sections <section,...>] [active_tokens_only] [cursor <cursor>] [limit <lines>]
+     * Every section is exported unless sections are named, and a page holds at most DEFAULT_EXPORT_LIMIT lines unless
+     * a limit is given.
+     * @param args   List of Strings  Arguments passed in, including the command itself.
+     */
+    private void exportInventory(List<String> args)
+    {
+        try
+        {
+            Set<InventorySectionEnum> sections = EnumSet.allOf(InventorySectionEnum.class);
+            boolean activeTokensOnly = false;
+            String cursor = null;
+            int limit = DEFAULT_EXPORT_LIMIT;
+
+            for(int i = 1; i < args.size(); i++)
+            {
+                if(args.get(i).equals("active_tokens_only"))
+                {
+                    activeTokensOnly = true;
+                }
+                else if(args.get(i).equals("sections") && i + 1 < args.size())
+                {
+                    sections = EnumSet.noneOf(InventorySectionEnum.class);
+                    for(String section : args.get(++i).split(","))
+                    {
+                        try
+                        {
+                            sections.add(InventorySectionEnum.valueOf(section.toUpperCase()));
+                        }
+                        catch(IllegalArgumentException e)
+                        {
+                            throw new AuthenticationException("exportInventory in CommandProcessor",
+                                    "No such inventory section", section);
+                        }
+                    }
+                }
+                else if(args.get(i).equals("cursor") && i + 1 < args.size())
+                {
+                    cursor = args.get(++i);
+                }
+                else if(args.get(i).equals("limit") && i + 1 < args.size())
+                {
+                    try
+                    {
+                        limit = Integer.parseInt(args.get(++i));
+                    }
+                    catch(NumberFormatException e)
+                    {
+                        throw new AuthenticationException("exportInventory in CommandProcessor",
+                                "Limit is not a number", args.get(i));
+                    }
+                }
+            }
+
+            String nextCursor = this.authenticationService.exportInventory(
+                    new OutputStreamWriter(System.out, StandardCharsets.UTF_8), sections, activeTokensOnly, cursor,
+                    limit, this.currentUsersAccessToken);
+            System.out.println(nextCursor == null ? "EXPORT COMPLETE" : "NEXT CURSOR: " + nextCursor);
+        }
+        catch (AuthenticationException e)
+        {
+            System.out.println(String.format("SCRIPT ERROR DURING ACTION: (%s)\n" +
+                            "REASON: %s \n" +
+                            "OFFENDING VALUE: %s\n",
+                    e.getAction(), e.getReason(), e.getOffendingValue()));
+        }
+        catch (IOException e)
+        {
+            System.out.println(String.format("SCRIPT ERROR DURING ACTION: (%s)\n" +
+                            "REASON: %s \n" +
+                            "OFFENDING VALUE: %s\n",
+                    "exportInventory in CommandProcessor", e.getMessage(), null));
+        }
+    }
+
     /**
      * Logout the current user from the system
      */
@@ -908,6 +1007,9 @@ public class CommandProcessor {
                 case "create_user":
                     this.createUser(args);
                     break;
+                case "revoke_user_sessions":
+                    this.revokeUserSessions(args);
+                    break;
                 case "add_user_credential":
                     this.addUserCredential(args);
                     break;
@@ -926,6 +1028,9 @@ public class CommandProcessor {
                 case "get_inventory":
                     this.getInventory();
                     break;
+                case "export_inventory":
+                    this.exportInventory(args);
+                    break;
                 case "logout":
                     this.logout();
                     break;
@@ -176,6 +176,11 @@ public class StoreModelService implements iSubject {
         AuthenticationService authenticationService = AuthenticationService.getInstance();
         Permission permission = authenticationService.getPermissions().get(permissionId);
 
+        // A signed token is verified locally; anything it cannot vouch for is checked by the AuthenticationService
+        if (authenticationService.verifySignedToken(accessToken, permission)) {
+            return true;
+        }
+
         try
         {
             authenticationService.checkAccess(accessToken, permission);
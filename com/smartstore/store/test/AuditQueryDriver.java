@@ -0,0 +1,62 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AuditLog;
+import com.cscie97.store.authentication.AuditRecord;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Audit Query Driver. Searches the audit log files written by the Authentication Service and prints the matching
+ * records, oldest first, followed by the number of matches.
+ *
+ * Parameters are given as name value pairs. The directory is required, the rest are optional:
+ * dir audit user sam permission control_robot from 1700000000000 to 1800000000000
+ * Times are milliseconds since the epoch; from is inclusive and to is exclusive. A permission also matches the
+ * grants of that permission to roles.
+ */
+public class AuditQueryDriver
+{
+    /**
+     * Java main method
+     * @param args  String array    Name value pairs of parameters passed from the command line
+     */
+    public static void main(String[] args)
+    {
+        Map<String, String> parameters = new HashMap<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            parameters.put(args[i], args[i + 1]);
+        }
+
+        if (!parameters.containsKey("dir"))
+        {
+            System.out.println("USAGE: AuditQueryDriver dir <directory> [user <userId>] [permission <permissionId>] " +
+                    "[from <millis>] [to <millis>]");
+            return;
+        }
+
+        long from = Long.parseLong(parameters.getOrDefault("from", "0"));
+        long to = Long.parseLong(parameters.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+
+        try
+        {
+            List<AuditRecord> records = AuditLog.query(Paths.get(parameters.get("dir")), parameters.get("user"),
+                    parameters.get("permission"), from, to);
+
+            for (AuditRecord record : records)
+            {
+                System.out.println(record);
+            }
+            System.out.println(records.size() + " AUDIT RECORDS MATCHED");
+        }
+        catch (IOException e)
+        {
+            System.out.println(String.format("ERROR (%s): %s\n", "audit query", e.getMessage()));
+        }
+    }
+}
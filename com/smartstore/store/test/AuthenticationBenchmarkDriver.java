@@ -0,0 +1,547 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AccessToken;
+import com.cscie97.store.authentication.AccessTokenStateEnum;
+import com.cscie97.store.authentication.AuthenticationException;
+import com.cscie97.store.authentication.AuthenticationService;
+import com.cscie97.store.authentication.CredentialTypeEnum;
+import com.cscie97.store.authentication.InvalidAccessTokenException;
+import com.cscie97.store.authentication.Permission;
+import com.cscie97.store.authentication.User;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Authentication Benchmark Driver. Builds an entitlement graph of a chosen size in the Authentication Service, measures
+ * the throughput and latency of login, checkAccess, verifyUserPermission and biometric lookup, and then runs a
+ * multi-threaded stress test of mixed login, check and logout traffic while roles are granted concurrently.
+ *
+ * Parameters are given as name value pairs, all optional:
+ * users 1000 stores 10 depth 4 permissions 8 tokens 1000 logins 16 threads 4 warmup 1 seconds 2
+ * Each user holds the top role of a chain of depth roles, each granting permissions permissions, and belongs to one of
+ * stores stores. tokens access tokens are live while access is checked. Password logins are hashed with scrypt and
+ * limited per user, so only the first logins users are given a password and each logs in once.
+ *
+ * The service prints a line for most calls, so its output is discarded while the driver runs and only the results
+ * are printed. The stress test prints SUCCESS!!! if every check held, and otherwise each failure and exit code 1.
+ */
+public class AuthenticationBenchmarkDriver
+{
+    /**
+     * Largest number of latency samples kept for each thread of a benchmark
+     */
+    final static private int MAX_SAMPLES_PER_THREAD = 1 << 20;
+
+    /**
+     * Prefix of every Id the driver defines, so its entitlements are told apart from the store's own
+     */
+    final static private String PREFIX = "bench_";
+
+    /**
+     * One operation of a benchmark or of the stress test
+     */
+    private interface iOperation
+    {
+        /**
+         * Run the operation once
+         * @param random    ThreadLocalRandom   The random source of the running thread
+         * @return  boolean True if the operation ran, false if there is no work left
+         * @throws Throwable    Thrown if the operation fails
+         */
+        boolean run(ThreadLocalRandom random) throws Throwable;
+    }
+
+    /**
+     * Java main method
+     * @param args  String array    Name value pairs of parameters passed from the command line
+     */
+    public static void main(String[] args)
+    {
+        Map<String, String> parameters = new HashMap<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            parameters.put(args[i], args[i + 1]);
+        }
+
+        int userCount = Integer.parseInt(parameters.getOrDefault("users", "1000"));
+        int storeCount = Integer.parseInt(parameters.getOrDefault("stores", "10"));
+        int roleDepth = Integer.parseInt(parameters.getOrDefault("depth", "4"));
+        int permissionsPerRole = Integer.parseInt(parameters.getOrDefault("permissions", "8"));
+        int tokenCount = Integer.parseInt(parameters.getOrDefault("tokens", "1000"));
+        int loginCount = Math.min(userCount, Integer.parseInt(parameters.getOrDefault("logins", "16")));
+        int threads = Integer.parseInt(parameters.getOrDefault("threads", "4"));
+        int warmupSeconds = Integer.parseInt(parameters.getOrDefault("warmup", "1"));
+        int seconds = Integer.parseInt(parameters.getOrDefault("seconds", "2"));
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            AuthenticationService service = AuthenticationService.getInstance();
+            AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+            long start = System.nanoTime();
+            Permission deepestPermission = defineRoleChain(service, root, roleDepth, permissionsPerRole);
+            List<User> users = defineUsers(service, root, userCount, storeCount, loginCount);
+            AccessToken[] liveTokens = new AccessToken[tokenCount];
+            for (int i = 0; i < tokenCount; i++)
+            {
+                liveTokens[i] = service.login(faceprint(i % userCount), CredentialTypeEnum.FACEPRINT);
+            }
+
+            console.println(String.format("BENCHMARK SETUP: %d USERS IN %d STORES, ROLE DEPTH %d, %d PERMISSIONS PER " +
+                            "ROLE, %d LIVE TOKENS, %d THREADS, IN %d MS", userCount, storeCount, roleDepth,
+                    permissionsPerRole, tokenCount, threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            console.println(measure("checkAccess", threads, warmupSeconds, seconds, random -> {
+                service.checkAccess(liveTokens[random.nextInt(tokenCount)], deepestPermission);
+                return true;
+            }));
+
+            console.println(measure("verifyUserPermission", threads, warmupSeconds, seconds, random ->
+                    liveTokens[random.nextInt(tokenCount)].verifyUserPermission(deepestPermission) != null));
+
+            console.println(measure("findUserByBiometric", threads, warmupSeconds, seconds, random ->
+                    service.findUserByBiometric(faceprint(random.nextInt(userCount)), CredentialTypeEnum.FACEPRINT)
+                            != null));
+
+            console.println(measure("biometric login and logout", threads, warmupSeconds, seconds, random -> {
+                service.logout(service.login(faceprint(random.nextInt(userCount)), CredentialTypeEnum.FACEPRINT));
+                return true;
+            }));
+
+            AtomicInteger nextLogin = new AtomicInteger();
+            console.println(measure("password login and logout", threads, 0, Integer.MAX_VALUE, random -> {
+                int user = nextLogin.getAndIncrement();
+                if (user >= loginCount)
+                {
+                    return false;
+                }
+                service.logout(service.login(users.get(user).getUserId(), password(user),
+                        CredentialTypeEnum.PASSWORD));
+                return true;
+            }));
+
+            List<String> failures = stress(service, root, users, deepestPermission, threads, seconds, console);
+            for (String failure : failures)
+            {
+                console.println("STRESS FAILED: " + failure);
+            }
+            if (!failures.isEmpty())
+            {
+                System.exit(1);
+            }
+            console.println("SUCCESS!!! STRESS TEST FOUND NO LOST UPDATES");
+        }
+        catch (Throwable e)
+        {
+            console.println(String.format("ERROR (%s): %s\n", "authentication benchmark", e));
+            System.exit(1);
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Define a chain of roles in which each role holds the next one and its own permissions
+     * @param service   AuthenticationService   The service to define the roles in
+     * @param root  AccessToken The root user's access token
+     * @param depth int Number of roles in the chain
+     * @param permissionsPerRole    int Number of permissions granted by each role
+     * @return  Permission  A permission of the last role, reached only through the whole chain
+     * @throws AuthenticationException  Thrown if an entitlement cannot be defined
+     */
+    private static Permission defineRoleChain(AuthenticationService service, AccessToken root, int depth,
+                                              int permissionsPerRole) throws AuthenticationException
+    {
+        String lastPermissionId = null;
+
+        for (int level = depth - 1; level >= 0; level--)
+        {
+            String roleId = PREFIX + "role_" + level;
+            service.defineRole(roleId, roleId, "Benchmark role at depth " + level, root);
+
+            for (int i = 0; i < permissionsPerRole; i++)
+            {
+                String permissionId = PREFIX + "permission_" + level + "_" + i;
+                service.definePermission(permissionId, permissionId, "Benchmark permission", root);
+                service.addPermissionToRole(roleId, permissionId, root);
+                if (lastPermissionId == null)
+                {
+                    lastPermissionId = permissionId;
+                }
+            }
+
+            if (level < depth - 1)
+            {
+                service.addPermissionToRole(roleId, PREFIX + "role_" + (level + 1), root);
+            }
+        }
+
+        service.definePermission(PREFIX + "stress_permission", "Stress permission", "Granted during the stress test",
+                root);
+        service.defineRole(PREFIX + "stress_role", "Stress role", "Granted during the stress test", root);
+        service.addPermissionToRole(PREFIX + "stress_role", PREFIX + "stress_permission", root);
+
+        return service.getPermissions().get(lastPermissionId);
+    }
+
+    /**
+     * Define users spread over the stores, each holding the top role of the chain and a faceprint
+     * @param service   AuthenticationService   The service to define the users in
+     * @param root  AccessToken The root user's access token
+     * @param userCount int Number of users
+     * @param storeCount    int Number of stores
+     * @param loginCount    int Number of users, from the first, who are also given a password
+     * @return  List    The users, in the order of their numbers
+     * @throws AuthenticationException  Thrown if a user cannot be defined
+     */
+    private static List<User> defineUsers(AuthenticationService service, AccessToken root, int userCount,
+                                          int storeCount, int loginCount) throws AuthenticationException
+    {
+        List<User> users = new ArrayList<>(userCount);
+
+        for (int i = 0; i < userCount; i++)
+        {
+            String userId = PREFIX + "user_" + i;
+            service.createUser(userId, "Benchmark User " + i, PREFIX + "store_" + (i % storeCount), root);
+            service.addUserCredential(userId, faceprint(i), CredentialTypeEnum.FACEPRINT, root);
+            if (i < loginCount)
+            {
+                service.addUserCredential(userId, password(i), CredentialTypeEnum.PASSWORD, root);
+            }
+            service.addRoleToUser(userId, PREFIX + "role_0", root);
+            users.add(service.getUsers().get(userId));
+        }
+
+        return users;
+    }
+
+    /**
+     * Run an operation on several threads, first for the warmup time and then for the measured time, and summarise
+     * the measured runs
+     * @param name  String  Name of the benchmark
+     * @param threads   int Number of threads
+     * @param warmupSeconds int Seconds to run before measuring
+     * @param seconds   int Seconds to measure, or until the operation has no work left
+     * @param operation iOperation  The operation
+     * @return  String  Line with the throughput and the latency percentiles
+     * @throws Throwable    Thrown if an operation fails
+     */
+    private static String measure(String name, int threads, int warmupSeconds, int seconds, iOperation operation)
+            throws Throwable
+    {
+        if (warmupSeconds > 0)
+        {
+            run(threads, warmupSeconds, operation, false);
+        }
+
+        long start = System.nanoTime();
+        long[][] samples = run(threads, seconds, operation, true);
+        long elapsed = System.nanoTime() - start;
+
+        long operations = 0;
+        for (long[] threadSamples : samples)
+        {
+            operations += threadSamples[0];
+        }
+
+        long[] latencies = new long[(int) Math.min(operations, (long) threads * MAX_SAMPLES_PER_THREAD)];
+        int position = 0;
+        for (long[] threadSamples : samples)
+        {
+            int kept = (int) Math.min(threadSamples[0], MAX_SAMPLES_PER_THREAD);
+            System.arraycopy(threadSamples, 1, latencies, position, kept);
+            position += kept;
+        }
+        Arrays.sort(latencies);
+
+        return String.format("BENCHMARK %-28s %10d OPS %12.0f OPS/SEC  P50 %8.2f US  P99 %8.2f US  MAX %8.2f US",
+                name, operations, operations / (elapsed / 1e9), percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3, latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e3);
+    }
+
+    /**
+     * Run an operation on several threads until the time is up or it has no work left
+     * @param threads   int Number of threads
+     * @param seconds   int Seconds to run
+     * @param operation iOperation  The operation
+     * @param record    boolean True to keep the latency of each operation
+     * @return  long[][]    For each thread, the operation count followed by up to MAX_SAMPLES_PER_THREAD latencies
+     * @throws Throwable    Thrown if an operation fails
+     */
+    private static long[][] run(int threads, int seconds, iOperation operation, boolean record) throws Throwable
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] samples = new long[threads][];
+        Throwable[] errors = new Throwable[threads];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            samples[thread] = new long[record ? MAX_SAMPLES_PER_THREAD + 1 : 1];
+            workers[thread] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] threadSamples = samples[thread];
+                try
+                {
+                    while (System.nanoTime() < deadline)
+                    {
+                        long before = System.nanoTime();
+                        if (!operation.run(random))
+                        {
+                            break;
+                        }
+                        long count = ++threadSamples[0];
+                        if (count < threadSamples.length)
+                        {
+                            threadSamples[(int) count] = System.nanoTime() - before;
+                        }
+                    }
+                }
+                catch (Throwable e)
+                {
+                    errors[thread] = e;
+                }
+            }, "benchmark-" + thread);
+            workers[thread].start();
+        }
+
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+        for (Throwable error : errors)
+        {
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+
+        return samples;
+    }
+
+    /**
+     * Run mixed login, check and logout traffic on several threads while another thread grants a role to the users
+     * one at a time, then check that no login, logout or grant was lost. Each thread logs in its own users only, so
+     * a logout on one thread never ends a session of another.
+     * @param service   AuthenticationService   The service under test
+     * @param root  AccessToken The root user's access token
+     * @param users List    The benchmark users
+     * @param heldPermission    Permission  A permission every user holds
+     * @param threads   int Number of traffic threads
+     * @param seconds   int Seconds to run
+     * @param console   PrintStream Where the progress line is printed
+     * @return  List    A description of each check that failed, empty if all held
+     * @throws Throwable    Thrown if a thread cannot be joined
+     */
+    private static List<String> stress(AuthenticationService service, AccessToken root, List<User> users,
+                                       Permission heldPermission, int threads, int seconds, PrintStream console)
+            throws Throwable
+    {
+        Permission grantedPermission = service.getPermissions().get(PREFIX + "stress_permission");
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Set<String> issuedTokenIds = ConcurrentHashMap.newKeySet();
+        List<AccessToken> issuedTokens = Collections.synchronizedList(new ArrayList<>());
+        AtomicIntegerArray granted = new AtomicIntegerArray(users.size());
+        AtomicLong logins = new AtomicLong();
+        AtomicLong logouts = new AtomicLong();
+        AtomicLong checks = new AtomicLong();
+        AtomicInteger grants = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        Thread writer = new Thread(() -> {
+            try
+            {
+                for (int user = 0; user < users.size() && System.nanoTime() < deadline; user++)
+                {
+                    service.addRoleToUser(users.get(user).getUserId(), PREFIX + "stress_role", root);
+                    granted.set(user, 1);
+                    grants.incrementAndGet();
+                }
+            }
+            catch (AuthenticationException e)
+            {
+                failures.add("grant refused: " + e.getReason() + " " + e.getOffendingValue());
+            }
+        }, "stress-writer");
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            workers[thread] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int ownUsers = (users.size() - thread + threads - 1) / threads;
+                try
+                {
+                    while (System.nanoTime() < deadline && ownUsers > 0)
+                    {
+                        int user = thread + random.nextInt(ownUsers) * threads;
+                        boolean grantedBeforeLogin = granted.get(user) == 1;
+
+                        AccessToken token = service.login(faceprint(user), CredentialTypeEnum.FACEPRINT);
+                        logins.incrementAndGet();
+                        issuedTokens.add(token);
+                        if (token.getUser() != users.get(user))
+                        {
+                            failures.add("faceprint of user " + user + " logged in " + token.getUser().getUserId());
+                        }
+                        if (!issuedTokenIds.add(token.getTokenId()))
+                        {
+                            failures.add("token Id issued twice: " + token.getTokenId());
+                        }
+
+                        if (!isGranted(service, token, heldPermission))
+                        {
+                            failures.add("held permission denied to user " + user);
+                        }
+                        if (grantedBeforeLogin && !isGranted(service, token, grantedPermission))
+                        {
+                            failures.add("grant to user " + user + " not visible after it completed");
+                        }
+                        if (grantedBeforeLogin && token.verifyUserPermission(grantedPermission) == null)
+                        {
+                            failures.add("grant to user " + user + " not visible to verifyUserPermission");
+                        }
+                        checks.addAndGet(3);
+
+                        service.logout(token);
+                        logouts.incrementAndGet();
+                        if (isGranted(service, token, heldPermission))
+                        {
+                            failures.add("token of user " + user + " still valid after logout");
+                        }
+                        checks.incrementAndGet();
+                    }
+                }
+                catch (AuthenticationException e)
+                {
+                    failures.add("login or logout refused: " + e.getReason() + " " + e.getOffendingValue());
+                }
+            }, "stress-" + thread);
+        }
+
+        writer.start();
+        for (Thread worker : workers)
+        {
+            worker.start();
+        }
+        writer.join();
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        if (issuedTokenIds.size() != logins.get() || issuedTokens.size() != logins.get())
+        {
+            failures.add(logins.get() + " logins but " + issuedTokenIds.size() + " distinct tokens recorded");
+        }
+        if (logouts.get() != logins.get())
+        {
+            failures.add(logins.get() + " logins but " + logouts.get() + " logouts");
+        }
+        for (AccessToken token : issuedTokens)
+        {
+            if (token.getTokenState() == AccessTokenStateEnum.ACTIVE)
+            {
+                failures.add("token " + token.getTokenId() + " still active after logout");
+            }
+        }
+
+        // Every grant that completed must be visible to a new session, and no other user may hold the role
+        for (int user = 0; user < users.size(); user++)
+        {
+            AccessToken token = service.login(faceprint(user), CredentialTypeEnum.FACEPRINT);
+            if (isGranted(service, token, grantedPermission) != (granted.get(user) == 1))
+            {
+                failures.add("user " + user + " grant expected " + (granted.get(user) == 1) + " but was not");
+            }
+            if ((token.verifyUserPermission(grantedPermission) != null) != (granted.get(user) == 1))
+            {
+                failures.add("user " + user + " grant expected " + (granted.get(user) == 1) +
+                        " but verifyUserPermission disagreed");
+            }
+            service.logout(token);
+        }
+
+        console.println(String.format("STRESS %d THREADS FOR %d SECONDS: %d LOGINS, %d LOGOUTS, %d CHECKS, %d GRANTS",
+                threads, seconds, logins.get(), logouts.get(), checks.get(), grants.get()));
+        return failures;
+    }
+
+    /**
+     * Check access, turning a refusal into false
+     * @param service   AuthenticationService   The service to check with
+     * @param token AccessToken The token to check
+     * @param permission    Permission  The permission to check for
+     * @return  boolean True if access is granted
+     */
+    private static boolean isGranted(AuthenticationService service, AccessToken token, Permission permission)
+    {
+        try
+        {
+            service.checkAccess(token, permission);
+            return true;
+        }
+        catch (InvalidAccessTokenException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Find a latency percentile of sorted latencies
+     * @param sortedLatencies   long[]  Latencies in nanoseconds, in ascending order
+     * @param fraction  double  The percentile as a fraction, such as 0.99
+     * @return  long    The latency in nanoseconds, or 0 if there are none
+     */
+    private static long percentile(long[] sortedLatencies, double fraction)
+    {
+        if (sortedLatencies.length == 0)
+        {
+            return 0;
+        }
+        return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, (long) (sortedLatencies.length * fraction))];
+    }
+
+    /**
+     * Faceprint credential string of a benchmark user
+     * @param user  int The user number
+     * @return  String  The faceprint
+     */
+    private static String faceprint(int user)
+    {
+        return PREFIX + "faceprint_" + user;
+    }
+
+    /**
+     * Password of a benchmark user
+     * @param user  int The user number
+     * @return  String  The password
+     */
+    private static String password(int user)
+    {
+        return PREFIX + "password_" + user;
+    }
+}
@@ -0,0 +1,346 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AccessToken;
+import com.cscie97.store.authentication.AuthenticationException;
+import com.cscie97.store.authentication.AuthenticationService;
+import com.cscie97.store.authentication.Credential;
+import com.cscie97.store.authentication.CredentialTypeEnum;
+import com.cscie97.store.authentication.EntitlementStore;
+import com.cscie97.store.authentication.InvalidAccessTokenException;
+import com.cscie97.store.authentication.User;
+import com.cscie97.store.authentication.Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entitlement Store Driver. Checks that the entitlements and credentials persisted by the Authentication Service
+ * survive a restart. The service is a singleton, so each restart is a new run of the driver on the same directory,
+ * in three phases:
+ * phase write dir store_dir
+ * phase check dir store_dir
+ * phase reopen dir store_dir
+ *
+ * The write phase needs a directory without an entitlement store. It logs a user whose password has a legacy hash
+ * before the service opens the store, then provisions users, roles and biometric templates, part of them before a
+ * snapshot and part after it in the change log. A login with the legacy password logs its new hash as a credential
+ * update. Finally a record cut short, as by a crash, is left at the end of the change log.
+ *
+ * The check phase restores the store and checks:
+ * users from the snapshot and from the change log log in and hold the permissions granted to them;
+ * biometric templates are restored, so a capture close to the enrolled one identifies the user;
+ * a credential held in memory and replaced by the stored user no longer identifies that user;
+ * the credential update is replayed, so the legacy password is not hashed again;
+ * the record cut short is ignored.
+ * It then logs one more change, which the reopen phase checks is restored, showing the record cut short was removed
+ * rather than left in front of the new change.
+ *
+ * The service prints a line for most calls, so its output is discarded while the driver runs. Each phase prints
+ * SUCCESS!!! if every check held, and otherwise each failed check and exit code 1.
+ */
+public class EntitlementStoreDriver
+{
+    /**
+     * Checks that did not hold
+     */
+    private static final List<String> failures = new ArrayList<>();
+
+    /**
+     * Faceprint template enrolled for persist_a
+     */
+    private static final String ENROLLED_FACEPRINT = "0.1,0.2,0.3,0.9";
+
+    /**
+     * Faceprint captured from persist_a after the restart, close to but not the same as the enrolled one
+     */
+    private static final String CAPTURED_FACEPRINT = "0.1,0.2,0.31,0.9";
+
+    /**
+     * Voiceprint template enrolled for persist_b
+     */
+    private static final String ENROLLED_VOICEPRINT = "0.5,-0.2,0.7,0.1";
+
+    /**
+     * Voiceprint captured from persist_b after the restart
+     */
+    private static final String CAPTURED_VOICEPRINT = "0.51,-0.2,0.7,0.1";
+
+    /**
+     * Faceprint held in memory by persist_a before the stored user replaces it
+     */
+    private static final String REPLACED_FACEPRINT = "0.9,0.1,0.1,0.1";
+
+    /**
+     * Java main method
+     * @param args  String array    Name value pairs: phase write|check|reopen dir store_dir
+     */
+    public static void main(String[] args)
+    {
+        Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            parameters.put(args[i], args[i + 1]);
+        }
+
+        String phase = parameters.get("phase");
+        if (parameters.get("dir") == null || phase == null ||
+                !(phase.equals("write") || phase.equals("check") || phase.equals("reopen")))
+        {
+            System.out.println("USAGE: EntitlementStoreDriver phase write|check|reopen dir <directory>");
+            System.exit(1);
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            Path directory = Paths.get(parameters.get("dir"));
+
+            if (phase.equals("write"))
+            {
+                write(directory);
+            }
+            else if (phase.equals("check"))
+            {
+                check(directory);
+            }
+            else
+            {
+                reopen(directory);
+            }
+
+            for (String failure : failures)
+            {
+                console.println("ENTITLEMENT STORE CHECK FAILED (" + phase + "): " + failure);
+            }
+            if (!failures.isEmpty())
+            {
+                System.exit(1);
+            }
+            console.println("SUCCESS!!! ENTITLEMENT STORE " + phase.toUpperCase() + " PHASE PASSED");
+        }
+        catch (Throwable e)
+        {
+            console.println(String.format("ERROR (%s): %s\n", "entitlement store driver " + phase, e));
+            System.exit(1);
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Provision users and entitlements into a new entitlement store, then leave a record cut short at its end
+     * @param directory Path    Directory for the entitlement store
+     * @throws IOException  Thrown if the store cannot be written
+     * @throws AuthenticationException  Thrown if the users cannot be provisioned
+     */
+    private static void write(Path directory) throws IOException, AuthenticationException
+    {
+        if (Files.exists(directory.resolve("entitlements.snapshot")) ||
+                Files.exists(directory.resolve("entitlements.changes")))
+        {
+            throw new IllegalStateException("phase write needs a directory without an entitlement store: " +
+                    directory);
+        }
+
+        // A password hashed before scrypt was used, as an older version of the service would have stored it
+        EntitlementStore legacyStore = new EntitlementStore(directory);
+        legacyStore.open();
+        legacyStore.append(EntitlementStore.USER, "persist_legacy", "Legacy User", "");
+        legacyStore.append(EntitlementStore.CREDENTIAL, "persist_legacy", "persist_legacy_password",
+                CredentialTypeEnum.PASSWORD.name(), Util.sha256("password_persist_legacy"), "");
+        legacyStore.close();
+
+        AuthenticationService service = AuthenticationService.getInstance();
+        service.enableEntitlementStore(directory);
+        AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+        // Written to the snapshot
+        service.definePermission("persist_enter", "Enter", "Permission granted before the snapshot", root);
+        service.definePermission("persist_checkout", "Checkout", "Permission granted after the snapshot", root);
+        service.defineRole("persist_role", "Persist Role", "Role granted before the snapshot", root);
+        service.addPermissionToRole("persist_role", "persist_enter", root);
+        service.createUser("persist_a", "Persist A", "persist_store_1", root);
+        service.addUserCredential("persist_a", "password_persist_a", CredentialTypeEnum.PASSWORD, root);
+        service.addUserCredential("persist_a", ENROLLED_FACEPRINT, CredentialTypeEnum.FACEPRINT, root);
+        service.addRoleToUser("persist_a", "persist_role", root);
+        service.saveEntitlementSnapshot();
+
+        // Written to the change log
+        service.defineRole("persist_extra_role", "Persist Extra Role", "Role granted after the snapshot", root);
+        service.addPermissionToRole("persist_extra_role", "persist_checkout", root);
+        service.createUser("persist_b", "Persist B", "persist_store_2", root);
+        service.addUserCredential("persist_b", "password_persist_b", CredentialTypeEnum.PASSWORD, root);
+        service.addUserCredential("persist_b", ENROLLED_VOICEPRINT, CredentialTypeEnum.VOICEPRINT, root);
+        service.addRoleToUser("persist_b", "persist_extra_role", root);
+
+        // The legacy password is hashed again at login, which logs a credential update
+        service.login("persist_legacy", "password_persist_legacy", CredentialTypeEnum.PASSWORD);
+        check("the legacy password is hashed again at login", !legacyCredential(service).needsRehash());
+
+        // A record whose header promises more payload than was written, as when a crash interrupts an append
+        Files.write(directory.resolve("entitlements.changes"),
+                new byte[] {EntitlementStore.USER_ENTITLEMENT, 0, 0, 0, 100, 2, 0, 0},
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Restore the entitlement store written by the write phase and check what was restored, then log one more change
+     * @param directory Path    Directory holding the entitlement store
+     * @throws IOException  Thrown if the store cannot be restored
+     * @throws AuthenticationException  Thrown if a user cannot be provisioned
+     */
+    private static void check(Path directory) throws IOException, AuthenticationException
+    {
+        AuthenticationService service = AuthenticationService.getInstance();
+        AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+        // persist_a holds another faceprint in memory, which the stored user replaces
+        service.createUser("persist_a", "Persist A", "persist_store_1", root);
+        service.addUserCredential("persist_a", REPLACED_FACEPRINT, CredentialTypeEnum.FACEPRINT, root);
+
+        int restoredCount = service.enableEntitlementStore(directory);
+        check("the store is restored despite the record cut short at its end", restoredCount > 0);
+
+        // Snapshot and change log
+        AccessToken tokenA = loginWithPassword("persist_a");
+        check("a user from the snapshot logs in", tokenA != null);
+        check("a user from the snapshot holds the permission of its role", isGranted(tokenA, "persist_enter"));
+        check("a user from the snapshot holds no other permission", !isGranted(tokenA, "persist_checkout"));
+        AccessToken tokenB = loginWithPassword("persist_b");
+        check("a user from the change log logs in", tokenB != null);
+        check("a user from the change log holds the permission of its role", isGranted(tokenB, "persist_checkout"));
+        check("a user from the change log holds no other permission", !isGranted(tokenB, "persist_enter"));
+
+        // Biometric templates
+        check("the enrolled faceprint identifies its user", "persist_a".equals(
+                biometricUser(CredentialTypeEnum.FACEPRINT, ENROLLED_FACEPRINT)));
+        check("a faceprint close to the enrolled one identifies its user after the restart", "persist_a".equals(
+                biometricUser(CredentialTypeEnum.FACEPRINT, CAPTURED_FACEPRINT)));
+        check("a voiceprint close to the enrolled one identifies its user after the restart", "persist_b".equals(
+                biometricUser(CredentialTypeEnum.VOICEPRINT, CAPTURED_VOICEPRINT)));
+        check("a faceprint replaced by the stored user no longer identifies the user",
+                service.findUserByBiometric(REPLACED_FACEPRINT, CredentialTypeEnum.FACEPRINT) == null);
+
+        // Credential update
+        check("the credential update is replayed", legacyCredential(service) != null &&
+                !legacyCredential(service).needsRehash());
+        check("the legacy user logs in with the updated hash", loginWithPassword("persist_legacy") != null);
+
+        // A change logged after the record cut short
+        service.createUser("persist_c", "Persist C", root);
+        service.addUserCredential("persist_c", "password_persist_c", CredentialTypeEnum.PASSWORD, root);
+    }
+
+    /**
+     * Restore the entitlement store again and check that the change logged by the check phase was restored
+     * @param directory Path    Directory holding the entitlement store
+     * @throws IOException  Thrown if the store cannot be restored
+     */
+    private static void reopen(Path directory) throws IOException
+    {
+        AuthenticationService.getInstance().enableEntitlementStore(directory);
+
+        check("a change logged after the record cut short is restored", loginWithPassword("persist_c") != null);
+        check("a user from the snapshot still logs in", loginWithPassword("persist_a") != null);
+        check("a user from the change log still logs in", loginWithPassword("persist_b") != null);
+    }
+
+    /**
+     * Login a user with the password the driver gave it
+     * @param userId    String  The user logging in
+     * @return  AccessToken The token issued, or null if the login was refused
+     */
+    private static AccessToken loginWithPassword(String userId)
+    {
+        try
+        {
+            return AuthenticationService.getInstance().login(userId, "password_" + userId,
+                    CredentialTypeEnum.PASSWORD);
+        }
+        catch (AuthenticationException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Login with a biometric credential and return who was identified
+     * @param credentialType    CredentialTypeEnum  FACEPRINT or VOICEPRINT
+     * @param credentialString  String  The captured template
+     * @return  String  The user Id logged in, or null if the login was refused
+     */
+    private static String biometricUser(CredentialTypeEnum credentialType, String credentialString)
+    {
+        try
+        {
+            return AuthenticationService.getInstance().login(credentialString, credentialType).getUser().getUserId();
+        }
+        catch (AuthenticationException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether a token enables a permission
+     * @param token AccessToken The token to check, may be null
+     * @param permissionId  String  The permission to check
+     * @return  boolean True if the token enables the permission
+     */
+    private static boolean isGranted(AccessToken token, String permissionId)
+    {
+        if (token == null)
+        {
+            return false;
+        }
+
+        AuthenticationService service = AuthenticationService.getInstance();
+        try
+        {
+            service.checkAccess(token, service.getPermissions().get(permissionId));
+            return true;
+        }
+        catch (InvalidAccessTokenException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Getter for the password credential of persist_legacy
+     * @param service   AuthenticationService   The Authentication Service
+     * @return  Credential  The credential, or null if the user or credential was not restored
+     */
+    private static Credential legacyCredential(AuthenticationService service)
+    {
+        User user = service.getUsers().get("persist_legacy");
+
+        return user == null ? null : user.getCredentials().get("persist_legacy_password");
+    }
+
+    /**
+     * Record a check that did not hold
+     * @param description   String  What was checked
+     * @param held  boolean True if the check held
+     */
+    private static void check(String description, boolean held)
+    {
+        if (!held)
+        {
+            failures.add(description);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AccessToken;
+import com.cscie97.store.authentication.AuthenticationException;
+import com.cscie97.store.authentication.AuthenticationService;
+import com.cscie97.store.authentication.CredentialTypeEnum;
+import com.cscie97.store.authentication.InventorySectionEnum;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inventory Export Driver. Pages through the inventory export of the Authentication Service and checks the cursors
+ * it returns:
+ * pages of every size, put together, give the same lines as one page holding the whole export, with no line lost
+ * or repeated and no empty page;
+ * a page that ends exactly at the end of a section returns a cursor from which the next page starts at the first
+ * element of the next section;
+ * a page that ends exactly at the end of the export returns no cursor;
+ * with activeTokensOnly, only active tokens are exported, also when paging;
+ * a malformed cursor is rejected and nothing is written.
+ *
+ * The service prints a line for most calls, so its output is discarded while the driver runs. The driver prints
+ * SUCCESS!!! if every check held, and otherwise each failed check and exit code 1.
+ */
+public class InventoryExportDriver
+{
+    /**
+     * Checks that did not hold
+     */
+    private static final List<String> failures = new ArrayList<>();
+
+    /**
+     * Java main method
+     * @param args  String array    Not used
+     */
+    public static void main(String[] args)
+    {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            AuthenticationService service = AuthenticationService.getInstance();
+            AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+            for (int i = 1; i <= 3; i++)
+            {
+                service.definePermission("export_permission_" + i, "Export " + i, "Exported permission", root);
+            }
+            service.defineRole("export_role", "Export Role", "Exported role", root);
+            service.addPermissionToRole("export_role", "export_permission_1", root);
+            for (String userId : new String[] {"export_active", "export_inactive"})
+            {
+                service.createUser(userId, userId, root);
+                service.addUserCredential(userId, "password_" + userId, CredentialTypeEnum.PASSWORD, root);
+            }
+            AccessToken active = service.login("export_active", "password_export_active",
+                    CredentialTypeEnum.PASSWORD);
+            AccessToken inactive = service.login("export_inactive", "password_export_inactive",
+                    CredentialTypeEnum.PASSWORD);
+            service.logout(inactive);
+
+            Set<InventorySectionEnum> allSections = EnumSet.allOf(InventorySectionEnum.class);
+            List<String> whole = new ArrayList<>();
+            check("one page holding the whole export returns no cursor",
+                    export(allSections, false, null, Integer.MAX_VALUE, root, whole) == null);
+
+            // Pages of every size
+            for (int limit = 1; limit <= whole.size() + 1; limit++)
+            {
+                List<String> paged = new ArrayList<>();
+                int pageCount = exportAll(allSections, false, limit, root, paged);
+                check("pages of " + limit + " lines give the whole export", paged.equals(whole));
+                check("pages of " + limit + " lines leave no empty page",
+                        pageCount == Math.max((whole.size() + limit - 1) / limit, 1));
+            }
+
+            // A page ending exactly at the end of a section
+            int permissionCount = countType(whole, "permission");
+            List<String> firstPage = new ArrayList<>();
+            String cursor = export(allSections, false, null, permissionCount, root, firstPage);
+            check("a page ending at the end of a section returns a cursor in that section",
+                    cursor != null && cursor.startsWith(InventorySectionEnum.PERMISSION + ":"));
+            check("a page ending at the end of a section holds the whole section",
+                    countType(firstPage, "permission") == permissionCount);
+            List<String> secondPage = new ArrayList<>();
+            export(allSections, false, cursor, 1, root, secondPage);
+            check("the next page starts at the first element of the next section",
+                    secondPage.size() == 1 && secondPage.get(0).equals(whole.get(permissionCount)));
+
+            // A page ending exactly at the end of the export
+            check("a page ending at the end of the export returns no cursor",
+                    export(allSections, false, null, whole.size(), root, new ArrayList<>()) == null);
+
+            // Active tokens only
+            Set<InventorySectionEnum> tokenSection = EnumSet.of(InventorySectionEnum.TOKEN);
+            List<String> allTokens = new ArrayList<>();
+            export(tokenSection, false, null, Integer.MAX_VALUE, root, allTokens);
+            List<String> activeTokens = new ArrayList<>();
+            export(tokenSection, true, null, Integer.MAX_VALUE, root, activeTokens);
+            check("the inactive token is exported without the filter",
+                    containsId(allTokens, inactive.getTokenId()));
+            check("the inactive token is left out with the filter", !containsId(activeTokens, inactive.getTokenId()));
+            check("the active token is exported with the filter", containsId(activeTokens, active.getTokenId()));
+            check("every token exported with the filter is active",
+                    activeTokens.stream().allMatch(line -> line.contains("\"state\":\"ACTIVE\"")));
+            List<String> pagedActiveTokens = new ArrayList<>();
+            exportAll(tokenSection, true, 1, root, pagedActiveTokens);
+            check("paging with the filter gives the same active tokens", pagedActiveTokens.equals(activeTokens));
+
+            // Malformed cursors
+            for (String malformed : Arrays.asList("PERMISSION", "permission:export_permission_1",
+                    "NO_SUCH_SECTION:export_permission_1", ":export_permission_1", ""))
+            {
+                StringWriter writer = new StringWriter();
+                String reason = null;
+                try
+                {
+                    service.exportInventory(writer, allSections, false, malformed, 10, root);
+                }
+                catch (AuthenticationException e)
+                {
+                    reason = e.getReason();
+                }
+                check("the cursor \"" + malformed + "\" is rejected", "Malformed cursor".equals(reason));
+                check("nothing is written for the cursor \"" + malformed + "\"", writer.toString().isEmpty());
+            }
+
+            for (String failure : failures)
+            {
+                console.println("INVENTORY EXPORT CHECK FAILED: " + failure);
+            }
+            if (!failures.isEmpty())
+            {
+                System.exit(1);
+            }
+            console.println("SUCCESS!!! INVENTORY EXPORT CHECKS PASSED FOR " + whole.size() + " LINES");
+        }
+        catch (Throwable e)
+        {
+            console.println(String.format("ERROR (%s): %s\n", "inventory export driver", e));
+            System.exit(1);
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Export one page and add its lines to a list
+     * @param sections  Set The sections to export
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param cursor    String  The cursor of the page, or null for the first page
+     * @param limit int Largest number of lines in the page
+     * @param token AccessToken The access token of the caller
+     * @param lines List    Receives the lines of the page
+     * @return  String  The cursor of the next page, or null if the export is complete
+     * @throws AuthenticationException  Thrown if the cursor is malformed
+     * @throws IOException  Never thrown when writing to memory
+     */
+    private static String export(Set<InventorySectionEnum> sections, boolean activeTokensOnly, String cursor,
+                                 int limit, AccessToken token, List<String> lines)
+            throws AuthenticationException, IOException
+    {
+        StringWriter writer = new StringWriter();
+        String nextCursor = AuthenticationService.getInstance().exportInventory(writer, sections, activeTokensOnly,
+                cursor, limit, token);
+
+        List<String> page = writer.toString().isEmpty() ? new ArrayList<>() :
+                Arrays.asList(writer.toString().split("\n"));
+        check("a page of at most " + limit + " lines holds " + page.size(), page.size() <= limit);
+        lines.addAll(page);
+
+        return nextCursor;
+    }
+
+    /**
+     * Export every page, following the cursors, and add their lines to a list
+     * @param sections  Set The sections to export
+     * @param activeTokensOnly  boolean When true, only active access tokens are exported
+     * @param limit int Largest number of lines in a page
+     * @param token AccessToken The access token of the caller
+     * @param lines List    Receives the lines of every page
+     * @return  int The number of pages
+     * @throws AuthenticationException  Thrown if a cursor is malformed
+     * @throws IOException  Never thrown when writing to memory
+     */
+    private static int exportAll(Set<InventorySectionEnum> sections, boolean activeTokensOnly, int limit,
+                                 AccessToken token, List<String> lines)
+            throws AuthenticationException, IOException
+    {
+        int pageCount = 0;
+        String cursor = null;
+
+        do
+        {
+            cursor = export(sections, activeTokensOnly, cursor, limit, token, lines);
+            pageCount++;
+        }
+        while (cursor != null);
+
+        return pageCount;
+    }
+
+    /**
+     * Count the lines of one element type
+     * @param lines List    The exported lines
+     * @param type  String  The element type, such as permission
+     * @return  int The number of lines of that type
+     */
+    private static int countType(List<String> lines, String type)
+    {
+        return (int) lines.stream().filter(line -> line.startsWith("{\"type\":\"" + type + "\"")).count();
+    }
+
+    /**
+     * Check whether an element was exported
+     * @param lines List    The exported lines
+     * @param id    String  The element Id
+     * @return  boolean True if a line has the Id
+     */
+    private static boolean containsId(List<String> lines, String id)
+    {
+        return lines.stream().anyMatch(line -> line.contains("\"id\":\"" + id + "\""));
+    }
+
+    /**
+     * Record a check that did not hold
+     * @param description   String  What was checked
+     * @param held  boolean True if the check held
+     */
+    private static void check(String description, boolean held)
+    {
+        if (!held)
+        {
+            failures.add(description);
+        }
+    }
+}
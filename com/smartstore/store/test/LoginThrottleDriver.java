@@ -0,0 +1,244 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AccessToken;
+import com.cscie97.store.authentication.AuthenticationException;
+import com.cscie97.store.authentication.AuthenticationService;
+import com.cscie97.store.authentication.CredentialTypeEnum;
+import com.cscie97.store.authentication.LoginThrottle;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Login Throttle Driver. Checks the sliding window login throttle on its own, with a synthetic clock, and through
+ * the logins of the Authentication Service:
+ * a key is refused once it has used its attempts within the window, and refused attempts are not counted;
+ * a key recovers gradually as its attempts slide out of the window, and fully once they are two windows old;
+ * a released attempt no longer counts against its key;
+ * a user is refused after too many failed logins, even with the right password;
+ * successful logins release their attempt, so they never throttle the user;
+ * a named device is refused after too many logins, whether or not they succeed.
+ *
+ * The service prints a line for most calls, so its output is discarded while the driver runs. The driver prints
+ * SUCCESS!!! if every check held, and otherwise each failed check and exit code 1.
+ */
+public class LoginThrottleDriver
+{
+    /**
+     * Checks that did not hold
+     */
+    private static final List<String> failures = new ArrayList<>();
+
+    /**
+     * Attempts allowed per key by the throttle checked with the synthetic clock
+     */
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * Window length of the throttle checked with the synthetic clock, in milliseconds
+     */
+    private static final long WINDOW_MILLIS = 60000;
+
+    /**
+     * Failed logins a user is allowed within the service's window
+     */
+    private static final int USER_LOGIN_ATTEMPTS = 10;
+
+    /**
+     * Logins a named device is allowed within the service's window
+     */
+    private static final int DEVICE_LOGIN_ATTEMPTS = 60;
+
+    /**
+     * Logins past a service limit that may still be allowed because the window moved on during the run
+     */
+    private static final int LATE_REFUSAL_ATTEMPTS = 10;
+
+    /**
+     * Java main method
+     * @param args  String array    Not used
+     */
+    public static void main(String[] args)
+    {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            checkThrottle();
+            checkServiceLogins();
+
+            for (String failure : failures)
+            {
+                console.println("LOGIN THROTTLE CHECK FAILED: " + failure);
+            }
+            if (!failures.isEmpty())
+            {
+                System.exit(1);
+            }
+            console.println("SUCCESS!!! LOGIN THROTTLE CHECKS PASSED");
+        }
+        catch (Throwable e)
+        {
+            console.println(String.format("ERROR (%s): %s\n", "login throttle driver", e));
+            System.exit(1);
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Check refusal, recovery and release on a throttle driven by a synthetic clock
+     */
+    private static void checkThrottle()
+    {
+        LoginThrottle throttle = new LoginThrottle(ATTEMPTS, WINDOW_MILLIS);
+        long windowStart = 10 * WINDOW_MILLIS;
+
+        // Refusal after the attempts of the window are used
+        for (int i = 0; i < ATTEMPTS; i++)
+        {
+            check("attempt " + (i + 1) + " within the limit is allowed", throttle.tryAcquire("user", windowStart + i));
+        }
+        check("the attempt after the limit is refused", !throttle.tryAcquire("user", windowStart + ATTEMPTS));
+        check("another key is not refused", throttle.tryAcquire("other", windowStart + ATTEMPTS));
+
+        // Recovery as the attempts slide out of the window
+        check("attempts of the previous window still count at its end",
+                !throttle.tryAcquire("user", windowStart + WINDOW_MILLIS));
+        long halfway = windowStart + WINDOW_MILLIS + WINDOW_MILLIS / 2;
+        check("an attempt is allowed once half of the previous window slid out",
+                throttle.tryAcquire("user", halfway));
+        check("a second attempt is allowed while half of the previous window remains",
+                throttle.tryAcquire("user", halfway + 1));
+        check("a third attempt is refused while half of the previous window remains",
+                !throttle.tryAcquire("user", halfway + 2));
+        long lapsed = windowStart + 3 * WINDOW_MILLIS;
+        for (int i = 0; i < ATTEMPTS; i++)
+        {
+            check("attempt " + (i + 1) + " is allowed once earlier attempts are two windows old",
+                    throttle.tryAcquire("user", lapsed + i));
+        }
+        check("the limit applies again after recovering", !throttle.tryAcquire("user", lapsed + ATTEMPTS));
+
+        // A released attempt no longer counts
+        long released = windowStart + 10 * WINDOW_MILLIS;
+        for (int i = 0; i < ATTEMPTS; i++)
+        {
+            throttle.tryAcquire("released", released + i);
+            throttle.release("released", released + i);
+        }
+        check("attempts that were released do not count",
+                throttle.tryAcquire("released", released + ATTEMPTS));
+        throttle.tryAcquire("released", released + ATTEMPTS + 1);
+        throttle.tryAcquire("released", released + ATTEMPTS + 2);
+        check("attempts that were not released count", !throttle.tryAcquire("released", released + ATTEMPTS + 3));
+        throttle.release("released", released + ATTEMPTS + 4);
+        check("releasing an attempt makes room for one more",
+                throttle.tryAcquire("released", released + ATTEMPTS + 5));
+    }
+
+    /**
+     * Check the user and device limits applied to logins by the Authentication Service
+     * @throws AuthenticationException  Thrown if the users cannot be provisioned
+     */
+    private static void checkServiceLogins() throws AuthenticationException
+    {
+        AuthenticationService service = AuthenticationService.getInstance();
+        AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+        for (String userId : new String[] {"throttle_failed", "throttle_succeeded", "throttle_device"})
+        {
+            service.createUser(userId, userId, root);
+            service.addUserCredential(userId, "password_" + userId, CredentialTypeEnum.PASSWORD, root);
+        }
+
+        // Failed logins throttle the user, each from its own device so only the user limit applies
+        for (int i = 0; i < USER_LOGIN_ATTEMPTS; i++)
+        {
+            check("failed login " + (i + 1) + " is refused for the wrong password", "Password incorrect".equals(
+                    loginError("throttle_failed", "wrong", "throttle_failed_device_" + i)));
+        }
+        check("a user is refused after too many failed logins, even with the right password",
+                refusedWithin("throttle_failed", "password_throttle_failed", "throttle_failed_device",
+                        "Too many login attempts for user"));
+
+        // Successful logins release their attempt, without a device they release the credential type attempt too
+        for (int i = 0; i < 2 * DEVICE_LOGIN_ATTEMPTS; i++)
+        {
+            check("successful login " + (i + 1) + " is not throttled",
+                    loginError("throttle_succeeded", "password_throttle_succeeded", null) == null);
+        }
+
+        // A named device counts every login, whether or not it succeeds
+        for (int i = 0; i < DEVICE_LOGIN_ATTEMPTS; i++)
+        {
+            check("login " + (i + 1) + " from a device within the limit is allowed",
+                    loginError("throttle_device", "password_throttle_device", "throttle_turnstile") == null);
+        }
+        check("a device is refused after too many logins", refusedWithin("throttle_device",
+                "password_throttle_device", "throttle_turnstile", "Too many login attempts from device"));
+        check("the same user is allowed from another device",
+                loginError("throttle_device", "password_throttle_device", "throttle_other_turnstile") == null);
+    }
+
+    /**
+     * Login repeatedly with the right password until a login is refused. Logins are slow enough that a run of them
+     * can cross into the next window, where the earlier attempts weigh a little less, so a few logins past the limit
+     * may still be allowed before the refusal.
+     * @param userId    String  The user logging in
+     * @param password  String  The password presented
+     * @param deviceId  String  The device the password comes from
+     * @param reason    String  The reason the login is expected to be refused for
+     * @return  boolean True if a login was refused for the reason within LATE_REFUSAL_ATTEMPTS logins
+     */
+    private static boolean refusedWithin(String userId, String password, String deviceId, String reason)
+    {
+        for (int i = 0; i < LATE_REFUSAL_ATTEMPTS; i++)
+        {
+            String error = loginError(userId, password, deviceId);
+            if (error != null)
+            {
+                return reason.equals(error);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Login with a password and return why the login was refused
+     * @param userId    String  The user logging in
+     * @param password  String  The password presented
+     * @param deviceId  String  The device the password comes from, or null if it is not known
+     * @return  String  The reason the login was refused, or null if it succeeded
+     */
+    private static String loginError(String userId, String password, String deviceId)
+    {
+        try
+        {
+            AuthenticationService.getInstance().login(userId, password, CredentialTypeEnum.PASSWORD, deviceId);
+            return null;
+        }
+        catch (AuthenticationException e)
+        {
+            return e.getReason();
+        }
+    }
+
+    /**
+     * Record a check that did not hold
+     * @param description   String  What was checked
+     * @param held  boolean True if the check held
+     */
+    private static void check(String description, boolean held)
+    {
+        if (!held)
+        {
+            failures.add(description);
+        }
+    }
+}
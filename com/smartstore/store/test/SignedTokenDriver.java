@@ -0,0 +1,156 @@
+package com.cscie97.store.test;
+
+import com.cscie97.store.authentication.AccessToken;
+import com.cscie97.store.authentication.AuthenticationService;
+import com.cscie97.store.authentication.CredentialTypeEnum;
+import com.cscie97.store.authentication.Permission;
+import com.cscie97.store.authentication.SignedTokenAuthority;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Signed Token Driver. Issues signed access tokens from the Authentication Service and checks that the signed token
+ * authority accepts them only while they are authentic, unexpired, not revoked and issued under the current
+ * entitlement version of their store:
+ * a signed token grants exactly the permissions its user held when it was issued;
+ * a token whose payload or MAC was altered, or that was signed with another key, is refused;
+ * a token is refused once its expiration has passed;
+ * a token is refused after its user logs out;
+ * a token is refused after an entitlement change in its store, while tokens of other stores keep verifying.
+ *
+ * The service prints a line for most calls, so its output is discarded while the driver runs. The driver prints
+ * SUCCESS!!! if every check held, and otherwise each failed check and exit code 1.
+ */
+public class SignedTokenDriver
+{
+    /**
+     * Checks that did not hold
+     */
+    private static final List<String> failures = new ArrayList<>();
+
+    /**
+     * Java main method
+     * @param args  String array    Not used
+     */
+    public static void main(String[] args)
+    {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            AuthenticationService service = AuthenticationService.getInstance();
+            service.setSignedTokens(true);
+            SignedTokenAuthority authority = service.getSignedTokenAuthority();
+            AccessToken root = service.login("root", "default", CredentialTypeEnum.PASSWORD);
+
+            service.definePermission("signed_held", "Held", "Permission held by the signed token users", root);
+            service.definePermission("signed_granted", "Granted", "Permission granted after login", root);
+            service.defineRole("signed_role", "Signed Role", "Role of the signed token users", root);
+            service.addPermissionToRole("signed_role", "signed_held", root);
+            service.defineRole("signed_extra_role", "Signed Extra Role", "Role granted after login", root);
+            service.addPermissionToRole("signed_extra_role", "signed_granted", root);
+            Permission held = service.getPermissions().get("signed_held");
+            Permission granted = service.getPermissions().get("signed_granted");
+
+            for (String userId : new String[] {"signed_a", "signed_b", "signed_c"})
+            {
+                service.createUser(userId, userId, userId.equals("signed_c") ? "signed_store_2" : "signed_store_1",
+                        root);
+                service.addRoleToUser(userId, "signed_role", root);
+                service.addUserCredential(userId, "password_" + userId, CredentialTypeEnum.PASSWORD, root);
+            }
+
+            AccessToken tokenA = service.login("signed_a", "password_signed_a", CredentialTypeEnum.PASSWORD);
+            AccessToken tokenB = service.login("signed_b", "password_signed_b", CredentialTypeEnum.PASSWORD);
+            AccessToken tokenC = service.login("signed_c", "password_signed_c", CredentialTypeEnum.PASSWORD);
+            long now = System.currentTimeMillis();
+            String signedA = tokenA.getSignedToken();
+
+            // Authentic tokens grant what their user holds and nothing else
+            check("a signed token is issued", signedA != null);
+            check("an authentic token grants a held permission", authority.verify(signedA, held, now));
+            check("an authentic token does not grant a permission not held",
+                    !authority.verify(signedA, granted, now));
+
+            // Altered tokens and tokens signed with another key are refused
+            int separator = signedA.lastIndexOf('.');
+            String payload = new String(Base64.getUrlDecoder().decode(signedA.substring(0, separator)),
+                    StandardCharsets.UTF_8);
+            String forgedPayload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    payload.replace("|signed_a", "|root").getBytes(StandardCharsets.UTF_8));
+            check("a token with an altered payload is refused",
+                    !authority.verify(forgedPayload + signedA.substring(separator), held, now));
+            char lastMacCharacter = signedA.charAt(signedA.length() - 2);
+            String alteredMac = signedA.substring(0, signedA.length() - 2) + (lastMacCharacter == 'A' ? 'B' : 'A') +
+                    signedA.charAt(signedA.length() - 1);
+            check("a token with an altered MAC is refused", !authority.verify(alteredMac, held, now));
+            check("a token without a MAC is refused", !authority.verify(signedA.substring(0, separator), held, now));
+            check("a token that is not Base64 is refused", !authority.verify("not|a|token.###", held, now));
+            SignedTokenAuthority otherAuthority = new SignedTokenAuthority();
+            otherAuthority.setEntitlementVersion("signed_store_1", authority.getEntitlementVersion("signed_store_1"));
+            check("a token signed with another key is refused", !authority.verify(
+                    otherAuthority.sign(tokenA, service.getPartition("signed_store_1").getEntitlementSnapshot()
+                            .getPermissions("signed_a"), authority.getEntitlementVersion("signed_store_1")),
+                    held, now));
+
+            // Expired tokens are refused
+            long expiration = tokenA.getExpiration().getTime();
+            check("a token is accepted just before its expiration", authority.verify(signedA, held, expiration - 1));
+            check("a token is refused at its expiration", !authority.verify(signedA, held, expiration));
+
+            // Logged out tokens are refused
+            service.logout(tokenB);
+            check("a token is refused after its user logs out",
+                    !authority.verify(tokenB.getSignedToken(), held, now));
+            check("logging out one user leaves other tokens valid", authority.verify(signedA, held, now));
+
+            // An entitlement change refuses the tokens of its store only
+            service.addRoleToUser("signed_a", "signed_extra_role", root);
+            check("a token is refused after an entitlement change in its store",
+                    !authority.verify(signedA, held, now));
+            check("a token of another store keeps verifying after the change",
+                    authority.verify(tokenC.getSignedToken(), held, now));
+            AccessToken newTokenA = service.login("signed_a", "password_signed_a", CredentialTypeEnum.PASSWORD);
+            check("a token issued after the change grants the new permission",
+                    authority.verify(newTokenA.getSignedToken(), granted, now));
+
+            for (String failure : failures)
+            {
+                console.println("SIGNED TOKEN CHECK FAILED: " + failure);
+            }
+            if (!failures.isEmpty())
+            {
+                System.exit(1);
+            }
+            console.println("SUCCESS!!! SIGNED TOKEN CHECKS PASSED");
+        }
+        catch (Throwable e)
+        {
+            console.println(String.format("ERROR (%s): %s\n", "signed token driver", e));
+            System.exit(1);
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Record a check that did not hold
+     * @param description   String  What was checked
+     * @param held  boolean True if the check held
+     */
+    private static void check(String description, boolean held)
+    {
+        if (!held)
+        {
+            failures.add(description);
+        }
+    }
+}